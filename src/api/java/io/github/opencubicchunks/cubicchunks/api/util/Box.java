@@ -53,6 +53,15 @@ public class Box {
         }
     }
 
+    /**
+     * @return true if this box and the given box have at least one point in common. Both boxes must have their minimum coordinates first.
+     */
+    public boolean intersects(Box other) {
+        return x1 <= other.x2 && other.x1 <= x2
+                && y1 <= other.y2 && other.y1 <= y2
+                && z1 <= other.z2 && other.z1 <= z2;
+    }
+
     public Box.Mutable asMutable() {
         return new Mutable(x1, y1, z1, x2, y2, z2);
     }
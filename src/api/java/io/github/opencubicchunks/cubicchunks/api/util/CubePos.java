@@ -152,6 +152,43 @@ public class CubePos {
                 | Bits.packSignedToLong(cubeZ, Z_BITS, Z_BIT_OFFSET));
     }
 
+    /**
+     * Packs the coordinates of this cube into a long, see {@link #asLong(int, int, int)}.
+     *
+     * @return the packed coordinates
+     */
+    public long asLong() {
+        return asLong(cubeX, cubeY, cubeZ);
+    }
+
+    /**
+     * Packs the given cube coordinates into a long, using 22 bits for x and z and 20 bits for y. Coordinates outside of that range wrap
+     * around, so positions with very large y coordinates can have the same packed value.
+     *
+     * @param cubeX cube x coordinate
+     * @param cubeY cube y coordinate
+     * @param cubeZ cube z coordinate
+     * @return the packed coordinates
+     */
+    public static long asLong(int cubeX, int cubeY, int cubeZ) {
+        return Bits.packSignedToLong(cubeX, X_BITS, X_BIT_OFFSET)
+                | Bits.packSignedToLong(cubeY, Y_BITS, Y_BIT_OFFSET)
+                | Bits.packSignedToLong(cubeZ, Z_BITS, Z_BIT_OFFSET);
+    }
+
+    /**
+     * Unpacks cube coordinates packed by {@link #asLong(int, int, int)}.
+     *
+     * @param packed the packed coordinates
+     * @return the cube position
+     */
+    public static CubePos fromLong(long packed) {
+        return new CubePos(
+                Bits.unpackSigned(packed, X_BITS, X_BIT_OFFSET),
+                Bits.unpackSigned(packed, Y_BITS, Y_BIT_OFFSET),
+                Bits.unpackSigned(packed, Z_BITS, Z_BIT_OFFSET));
+    }
+
     /**
      * Gets the absolute position of the cube's center on the x axis.
      *
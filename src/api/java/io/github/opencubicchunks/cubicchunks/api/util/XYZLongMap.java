@@ -0,0 +1,400 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Hash table for objects in a 3-dimensional cartesian coordinate system, keyed by coordinates packed into a long (see
+ * {@link CubePos#asLong(int, int, int)}). Has the same interface as {@link XYZMap}.
+ * <p>
+ * The hash table only contains packed keys and indexes into a dense array of values, so lookups compare primitive keys and don't need to
+ * access the values until the key is found. Open addressing with linear probing is used, removed entries are filled by shifting back the
+ * entries after them, so there are no tombstones. The dense value array allows fast iteration.
+ * <p>
+ * Coordinates that don't fit in a packed key (only possible with very large y coordinates) still work correctly, as the coordinates of the
+ * value are checked when the packed key matches.
+ *
+ * @param <T> class of the objects to be contained in this map
+ *
+ * @see XYZAddressable
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class XYZLongMap<T extends XYZAddressable> implements Iterable<T> {
+
+    /**
+     * Packed keys of the hash table
+     */
+    @Nonnull private long[] slotKeys;
+    /**
+     * Index into {@link #values} + 1 for each slot of the hash table, 0 for empty slots
+     */
+    @Nonnull private int[] slotIndexes;
+    /**
+     * All values, without gaps
+     */
+    @Nonnull private XYZAddressable[] values;
+    /**
+     * Packed keys of {@link #values}, so that values don't need to be accessed when rehashing
+     */
+    @Nonnull private long[] valueKeys;
+
+    private int size = 0;
+    private final float loadFactor;
+    private int loadThreshold;
+    private int mask;
+
+    /**
+     * Creates a new XYZLongMap with the given load factor and initial capacity. The map will automatically grow if the specified load is
+     * surpassed.
+     *
+     * @param loadFactor the load factor
+     * @param capacity the initial capacity
+     */
+    public XYZLongMap(float loadFactor, int capacity) {
+        if (loadFactor <= 0 || loadFactor >= 1.0) {
+            throw new IllegalArgumentException("Load factor must be between 0 and 1, but is " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+
+        int tableSize = 2;
+        while (tableSize * loadFactor < capacity) {
+            tableSize <<= 1;
+        }
+        allocate(tableSize);
+    }
+
+    private void allocate(int tableSize) {
+        this.slotKeys = new long[tableSize];
+        this.slotIndexes = new int[tableSize];
+        this.mask = tableSize - 1;
+        this.loadThreshold = Math.min(tableSize - 1, (int) (tableSize * loadFactor));
+        this.values = new XYZAddressable[loadThreshold + 1];
+        this.valueKeys = new long[loadThreshold + 1];
+    }
+
+    /**
+     * Returns the number of elements in this map
+     *
+     * @return the number of elements in this map
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Removes all elements from this map. The capacity of the map is kept.
+     */
+    public void clear() {
+        Arrays.fill(this.slotIndexes, 0);
+        Arrays.fill(this.values, 0, this.size, null);
+        this.size = 0;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) (h ^ (h >>> 16));
+    }
+
+    private static boolean matches(XYZAddressable value, int x, int y, int z) {
+        return value.getX() == x && value.getY() == y && value.getZ() == z;
+    }
+
+    /**
+     * Returns the hash table slot containing the given coordinates, or -1 if it's not in the map
+     */
+    private int findSlot(long key, int x, int y, int z) {
+        int slot = hash(key) & mask;
+        int index;
+        while ((index = slotIndexes[slot]) != 0) {
+            if (slotKeys[slot] == key && matches(values[index - 1], x, y, z)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Associates the given value with its xyz-coordinates. If the map previously contained a mapping for these coordinates, the old value
+     * is replaced.
+     *
+     * @param value value to be associated with its coordinates
+     *
+     * @return the previous value associated with the given value's coordinates or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T put(T value) {
+        int x = value.getX();
+        int y = value.getY();
+        int z = value.getZ();
+        long key = CubePos.asLong(x, y, z);
+
+        int slot = hash(key) & mask;
+        int index;
+        while ((index = slotIndexes[slot]) != 0) {
+            if (slotKeys[slot] == key && matches(values[index - 1], x, y, z)) {
+                T old = (T) values[index - 1];
+                values[index - 1] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        values[size] = value;
+        valueKeys[size] = key;
+        size++;
+        slotKeys[slot] = key;
+        slotIndexes[slot] = size;
+
+        if (size >= loadThreshold) {
+            grow();
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the entry associated with the given coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no such entry exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T remove(int x, int y, int z) {
+        int slot = findSlot(CubePos.asLong(x, y, z), x, y, z);
+        if (slot < 0) {
+            return null;
+        }
+        int index = slotIndexes[slot] - 1;
+        T removed = (T) values[index];
+        removeSlot(slot);
+        removeValue(index);
+        return removed;
+    }
+
+    /**
+     * Removes and returns the given value from this map. More specifically, removes the entry whose xyz-coordinates equal the given value's
+     * coordinates.
+     *
+     * @param value the value to be removed
+     *
+     * @return the entry associated with the given value's coordinates or null if no such entry exists
+     */
+    @Nullable
+    public T remove(T value) {
+        return this.remove(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Returns the value associated with the given coordinates or null if no such value exists.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(int x, int y, int z) {
+        long key = CubePos.asLong(x, y, z);
+        int slot = hash(key) & mask;
+        int index;
+        while ((index = slotIndexes[slot]) != 0) {
+            if (slotKeys[slot] == key) {
+                XYZAddressable value = values[index - 1];
+                if (matches(value, x, y, z)) {
+                    return (T) value;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if there exists an entry associated with the given xyz-coordinates in this map.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return true if there exists an entry associated with the given coordinates in this map
+     */
+    public boolean contains(int x, int y, int z) {
+        return findSlot(CubePos.asLong(x, y, z), x, y, z) >= 0;
+    }
+
+    /**
+     * Returns true if the given value is contained within this map. More specifically, returns true if there exists an entry in this map
+     * whose xyz-coordinates equal the given value's coordinates.
+     *
+     * @param value the value
+     *
+     * @return true if the given value is contained within this map
+     */
+    public boolean contains(T value) {
+        return this.contains(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Empties the given slot, and shifts back entries that were placed after it because of collisions
+     */
+    private void removeSlot(int slot) {
+        int last;
+        while (true) {
+            slot = ((last = slot) + 1) & mask;
+            while (true) {
+                if (slotIndexes[slot] == 0) {
+                    slotIndexes[last] = 0;
+                    return;
+                }
+                int wanted = hash(slotKeys[slot]) & mask;
+                // the entry can be moved to the empty slot only if its wanted slot isn't cyclically between the empty slot and its slot
+                if (last <= slot ? last >= wanted || wanted > slot : last >= wanted && wanted > slot) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            slotKeys[last] = slotKeys[slot];
+            slotIndexes[last] = slotIndexes[slot];
+        }
+    }
+
+    /**
+     * Removes the value at the given index of the value array by moving the last value in its place. The value must already be removed from
+     * the hash table.
+     */
+    private void removeValue(int index) {
+        int lastIndex = size - 1;
+        if (index != lastIndex) {
+            long lastKey = valueKeys[lastIndex];
+            int slot = hash(lastKey) & mask;
+            while (slotIndexes[slot] != lastIndex + 1) {
+                slot = (slot + 1) & mask;
+            }
+            slotIndexes[slot] = index + 1;
+            values[index] = values[lastIndex];
+            valueKeys[index] = lastKey;
+        }
+        values[lastIndex] = null;
+        size--;
+    }
+
+    /**
+     * Doubles the size of the hash table and redistributes all contained values accordingly.
+     */
+    private void grow() {
+        XYZAddressable[] oldValues = this.values;
+        long[] oldValueKeys = this.valueKeys;
+        allocate(slotKeys.length * 2);
+        System.arraycopy(oldValues, 0, values, 0, size);
+        System.arraycopy(oldValueKeys, 0, valueKeys, 0, size);
+        for (int i = 0; i < size; i++) {
+            long key = valueKeys[i];
+            int slot = hash(key) & mask;
+            while (slotIndexes[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slotKeys[slot] = key;
+            slotIndexes[slot] = i + 1;
+        }
+    }
+
+    // Interface: Iterable<T>
+    // ------------------------------------------------------------------------------------------
+
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            int at = 0;
+
+            @Override
+            public boolean hasNext() {
+                return at < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (at >= size) {
+                    throw new NoSuchElementException();
+                }
+                return (T) values[at++];
+            }
+
+            @Override
+            public void remove() {
+                // the last value is moved in place of the removed one, so it will be returned next
+                XYZAddressable value = values[--at];
+                int slot = findSlot(valueKeys[at], value.getX(), value.getY(), value.getZ());
+                removeSlot(slot);
+                removeValue(at);
+            }
+        };
+    }
+
+    /**
+     * Return iterator over elements started from random position defined by seed. The iterator doesn't support removing elements.
+     *
+     * @param seed - define start position.
+     **/
+    public Iterator<T> randomWrappedIterator(int seed) {
+        return new Iterator<T>() {
+
+            final int count = size;
+            final int startFrom = count == 0 ? 0 : Math.floorMod(hash(seed), count);
+            int returned = 0;
+
+            @Override
+            public boolean hasNext() {
+                return returned < count;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (returned >= count) {
+                    throw new NoSuchElementException();
+                }
+                int at = (startFrom + returned++) % count;
+                return (T) values[at];
+            }
+        };
+    }
+}
@@ -31,4 +31,10 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public interface ICubicWorldServer extends ICubicWorld {
     ICubeProviderServer getCubeCache();
+
+    /**
+     * Updates light for all block changes whose light updates haven't been done yet. Light updates caused by block changes are done at the
+     * end of each tick, call this if up to date light values are needed before that.
+     */
+    void flushLightUpdates();
 }
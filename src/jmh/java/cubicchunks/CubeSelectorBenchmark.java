@@ -0,0 +1,146 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares {@link CuboidalCubeSelector#findChanged} with the previous implementation, which checked every cube within view distance
+ * and collected the results in sets.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+public class CubeSelectorBenchmark {
+
+    @Param({"8", "16"})
+    public int horizontalViewDistance;
+    @Param({"8"})
+    public int verticalViewDistance;
+
+    private final CuboidalCubeSelector selector = new CuboidalCubeSelector();
+    private CubePos oldPos;
+    private CubePos newPosX;
+    private CubePos newPosDiagonal;
+
+    @Setup
+    public void setup() {
+        oldPos = new CubePos(100, 5, -100);
+        newPosX = new CubePos(101, 5, -100);
+        newPosDiagonal = new CubePos(101, 6, -99);
+    }
+
+    @Benchmark
+    public void slabsMoveX(Blackhole bh) {
+        findChangedSlabs(oldPos, newPosX, bh);
+    }
+
+    @Benchmark
+    public void slabsMoveDiagonal(Blackhole bh) {
+        findChangedSlabs(oldPos, newPosDiagonal, bh);
+    }
+
+    @Benchmark
+    public void volumeScanMoveX(Blackhole bh) {
+        findChangedVolumeScan(oldPos, newPosX, bh);
+    }
+
+    @Benchmark
+    public void volumeScanMoveDiagonal(Blackhole bh) {
+        findChangedVolumeScan(oldPos, newPosDiagonal, bh);
+    }
+
+    private void findChangedSlabs(CubePos from, CubePos to, Blackhole bh) {
+        selector.findChanged(from, to, horizontalViewDistance, verticalViewDistance,
+                (x, y, z) -> bh.consume(x + y + z),
+                (x, y, z) -> bh.consume(x + y + z),
+                (x, z) -> bh.consume(x + z),
+                (x, z) -> bh.consume(x + z));
+    }
+
+    private void findChangedVolumeScan(CubePos oldPos, CubePos newPos, Blackhole bh) {
+        Set<CubePos> cubesToRemove = new HashSet<>();
+        Set<CubePos> cubesToLoad = new HashSet<>();
+        Set<ChunkPos> columnsToRemove = new HashSet<>();
+        Set<ChunkPos> columnsToLoad = new HashSet<>();
+        int h = horizontalViewDistance;
+        int v = verticalViewDistance;
+        int oldX = oldPos.getX();
+        int oldY = oldPos.getY();
+        int oldZ = oldPos.getZ();
+        int newX = newPos.getX();
+        int newY = newPos.getY();
+        int newZ = newPos.getZ();
+        int dx = newX - oldX;
+        int dy = newY - oldY;
+        int dz = newZ - oldZ;
+
+        for (int currentX = newX - h; currentX <= newX + h; ++currentX) {
+            for (int currentZ = newZ - h; currentZ <= newZ + h; ++currentZ) {
+                if (!isPointWithinCubeVolume(oldX, 0, oldZ, currentX, 0, currentZ, h, v)) {
+                    columnsToLoad.add(new ChunkPos(currentX, currentZ));
+                }
+                if (!isPointWithinCubeVolume(newX, 0, newZ, currentX - dx, 0, currentZ - dz, h, v)) {
+                    columnsToRemove.add(new ChunkPos(currentX - dx, currentZ - dz));
+                }
+                for (int currentY = newY - v; currentY <= newY + v; ++currentY) {
+                    if (!isPointWithinCubeVolume(oldX, oldY, oldZ, currentX, currentY, currentZ, h, v)) {
+                        cubesToLoad.add(new CubePos(currentX, currentY, currentZ));
+                    }
+                    if (!isPointWithinCubeVolume(newX, newY, newZ, currentX - dx, currentY - dy, currentZ - dz, h, v)) {
+                        cubesToRemove.add(new CubePos(currentX - dx, currentY - dy, currentZ - dz));
+                    }
+                }
+            }
+        }
+        bh.consume(cubesToRemove);
+        bh.consume(cubesToLoad);
+        bh.consume(columnsToRemove);
+        bh.consume(columnsToLoad);
+    }
+
+    private static boolean isPointWithinCubeVolume(int cubeX, int cubeY, int cubeZ, int pointX, int pointY, int pointZ,
+            int horizontal, int vertical) {
+        int dx = cubeX - pointX;
+        int dy = cubeY - pointY;
+        int dz = cubeZ - pointZ;
+        return dx >= -horizontal && dx <= horizontal
+                && dy >= -vertical && dy <= vertical
+                && dz >= -horizontal && dz <= horizontal;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import io.github.opencubicchunks.cubicchunks.core.world.cube.NibbleArrays;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.NibbleArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares setting light values one at a time with the word operations of {@link NibbleArrays}, for initial sky light of a cube at the
+ * surface, a fully lit cube and merging two arrays.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+public class NibbleArraysBenchmark {
+
+    private NibbleArray array;
+    private NibbleArray other;
+    // lowest lit y of each column, like the terrain surface going through a cube
+    private byte[] litFromY;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(42);
+        array = new NibbleArray();
+        byte[] otherData = new byte[2048];
+        rand.nextBytes(otherData);
+        other = new NibbleArray(otherData);
+        litFromY = new byte[256];
+        for (int i = 0; i < litFromY.length; i++) {
+            litFromY[i] = (byte) rand.nextInt(17);
+        }
+    }
+
+    @Benchmark
+    public void columnTopsPerValue(Blackhole bh) {
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                for (int y = 15; y >= litFromY[z << 4 | x]; y--) {
+                    array.set(x, y, z, 15);
+                }
+            }
+        }
+        bh.consume(array);
+    }
+
+    @Benchmark
+    public void columnTopsWords(Blackhole bh) {
+        NibbleArrays.fillColumnTops(array, litFromY, 15);
+        bh.consume(array);
+    }
+
+    @Benchmark
+    public void fillPerValue(Blackhole bh) {
+        for (int i = 0; i < 4096; i++) {
+            array.setIndex(i, 15);
+        }
+        bh.consume(array);
+    }
+
+    @Benchmark
+    public void fillWords(Blackhole bh) {
+        NibbleArrays.fill(array, 15);
+        bh.consume(array);
+    }
+
+    @Benchmark
+    public void maxPerValue(Blackhole bh) {
+        for (int i = 0; i < 4096; i++) {
+            array.setIndex(i, Math.max(array.getFromIndex(i), other.getFromIndex(i)));
+        }
+        bh.consume(array);
+    }
+
+    @Benchmark
+    public void maxWords(Blackhole bh) {
+        NibbleArrays.max(array, other);
+        bh.consume(array);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import mcp.MethodsReturnNonnullByDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares the packed segment storage of {@link ServerHeightMap} with the previous layout of one segment array per block column, for
+ * columns with caves.
+ * <p>
+ * The previous layout is rebuilt from the serialized height maps, so it has no unused space in the segment arrays. The benchmarks
+ * compare {@link ServerHeightMap#getTopBlockYBelow} lookups, run {@link #main} to compare the memory used by both layouts:
+ * <pre>
+ * java -cp &lt;jmh classpath&gt; cubicchunks.ServerHeightMapBenchmark
+ * </pre>
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+public class ServerHeightMapBenchmark {
+
+    private static final int COLUMNS = 64;
+
+    @Param({"256", "2048"})
+    public int worldHeight;
+    /** Chance for a cave to start at each block, in 1/1000 */
+    @Param({"0", "10", "50"})
+    public int caveChance;
+
+    private ServerHeightMap[] packed;
+    private NestedHeightMap[] nested;
+    private int[] lookups;
+    private int next;
+
+    @Setup
+    public void setup() {
+        packed = createHeightMaps(COLUMNS, worldHeight, caveChance, 42);
+        nested = new NestedHeightMap[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            nested[i] = new NestedHeightMap(packed[i].getData());
+        }
+        Random rand = new Random(42);
+        lookups = new int[4096];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = rand.nextInt(worldHeight);
+        }
+    }
+
+    @Benchmark
+    public int topBlockBelowPacked() {
+        int i = next++ & (lookups.length - 1);
+        return packed[i & (COLUMNS - 1)].getTopBlockYBelow(i & 0xF, (i >> 4) & 0xF, lookups[i]);
+    }
+
+    @Benchmark
+    public int topBlockBelowNested() {
+        int i = next++ & (lookups.length - 1);
+        return nested[i & (COLUMNS - 1)].getTopBlockYBelow(i & 0xF, (i >> 4) & 0xF, lookups[i]);
+    }
+
+    public static void main(String... args) {
+        int count = 1000;
+        for (int worldHeight : new int[]{256, 2048}) {
+            for (int caveChance : new int[]{0, 10, 50}) {
+                ServerHeightMap[] heightMaps = createHeightMaps(count, worldHeight, caveChance, 42);
+                byte[][] data = new byte[count][];
+                for (int i = 0; i < count; i++) {
+                    data[i] = heightMaps[i].getData();
+                }
+                heightMaps = null;
+
+                long before = usedMemory();
+                ServerHeightMap[] packed = new ServerHeightMap[count];
+                for (int i = 0; i < count; i++) {
+                    packed[i] = new ServerHeightMap();
+                    packed[i].readData(data[i]);
+                }
+                long packedSize = usedMemory() - before;
+
+                before = usedMemory();
+                NestedHeightMap[] nested = new NestedHeightMap[count];
+                for (int i = 0; i < count; i++) {
+                    nested[i] = new NestedHeightMap(data[i]);
+                }
+                long nestedSize = usedMemory() - before;
+
+                System.out.printf("worldHeight=%d caveChance=%d: packed %d bytes per column, nested %d bytes per column%n",
+                        worldHeight, caveChance, packedSize / count, nestedSize / count);
+                // keep them reachable until both have been measured
+                if (packed.length + nested.length == 0) {
+                    throw new AssertionError();
+                }
+            }
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Creates height maps of stone from y=0 to worldHeight, with vertical caves of random length.
+     */
+    private static ServerHeightMap[] createHeightMaps(int count, int worldHeight, int caveChance, long seed) {
+        Random rand = new Random(seed);
+        ServerHeightMap[] heightMaps = new ServerHeightMap[count];
+        for (int i = 0; i < count; i++) {
+            ServerHeightMap heightMap = new ServerHeightMap();
+            for (int localX = 0; localX < 16; localX++) {
+                for (int localZ = 0; localZ < 16; localZ++) {
+                    for (int y = 0; y < worldHeight; y++) {
+                        if (rand.nextInt(1000) < caveChance) {
+                            y += 1 + rand.nextInt(12);
+                        } else {
+                            heightMap.onOpacityChange(localX, y, localZ, 255);
+                        }
+                    }
+                }
+            }
+            heightMaps[i] = heightMap;
+        }
+        return heightMaps;
+    }
+
+    /**
+     * The previous layout of ServerHeightMap segments, only what is needed for lookups.
+     */
+    private static final class NestedHeightMap {
+
+        private final int[] ymin = new int[256];
+        private final int[] ymax = new int[256];
+        private final int[][] segments = new int[256][];
+
+        NestedHeightMap(byte[] data) {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+                for (int i = 0; i < 256; i++) {
+                    ymin[i] = in.readInt();
+                    ymax[i] = in.readInt();
+                    int count = in.readUnsignedShort();
+                    if (count == 0) {
+                        continue;
+                    }
+                    segments[i] = new int[count];
+                    for (int j = 0; j < count; j++) {
+                        segments[i][j] = in.readInt();
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        int getTopBlockYBelow(int localX, int localZ, int blockY) {
+            int i = localZ << 4 | localX;
+            if (blockY > ymax[i]) {
+                return ymax[i];
+            }
+            if (blockY <= ymin[i]) {
+                return Integer.MIN_VALUE;
+            }
+            int[] segments = this.segments[i];
+            if (segments == null) {
+                return blockY - 1;
+            }
+            int mini = 0;
+            int maxi = segments.length - 1;
+            while (mini <= maxi) {
+                int midi = (mini + maxi) >>> 1;
+                int midPos = segments[midi];
+                if (midPos < blockY) {
+                    mini = midi + 1;
+                } else if (midPos > blockY) {
+                    maxi = midi - 1;
+                } else {
+                    mini = midi + 1;
+                    break;
+                }
+            }
+            int segmentIndex = mini - 1;
+            if (segmentIndex == 0) {
+                return blockY - 1;
+            }
+            if ((segmentIndex & 1) != 0) {
+                return segments[segmentIndex] - 1;
+            }
+            if (blockY != segments[segmentIndex]) {
+                return blockY - 1;
+            }
+            return segments[segmentIndex - 1] - 1;
+        }
+    }
+}
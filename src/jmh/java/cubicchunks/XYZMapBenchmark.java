@@ -0,0 +1,148 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZLongMap;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import mcp.MethodsReturnNonnullByDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares {@link XYZMap} and {@link XYZLongMap} with a cube of positions around a player, like the ones in PlayerCubeMap and
+ * CubeProviderServer.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+public class XYZMapBenchmark {
+
+    private static final int RADIUS = 12;
+    private static final int DIAMETER = RADIUS * 2 + 1;
+
+    private Entry[] entries;
+    // positions to look up, half of them are not in the maps
+    private int[] lookups;
+    private XYZMap<Entry> xyzMap;
+    private XYZLongMap<Entry> xyzLongMap;
+    private int next;
+
+    @Setup
+    public void setup() {
+        entries = new Entry[DIAMETER * DIAMETER * DIAMETER];
+        xyzMap = new XYZMap<>(0.7f, entries.length);
+        xyzLongMap = new XYZLongMap<>(0.7f, entries.length);
+        int i = 0;
+        for (int x = -RADIUS; x <= RADIUS; x++) {
+            for (int y = -RADIUS; y <= RADIUS; y++) {
+                for (int z = -RADIUS; z <= RADIUS; z++) {
+                    Entry entry = new Entry(x, y, z);
+                    entries[i++] = entry;
+                    xyzMap.put(entry);
+                    xyzLongMap.put(entry);
+                }
+            }
+        }
+        Random rand = new Random(42);
+        lookups = new int[4096 * 3];
+        for (int j = 0; j < lookups.length; j++) {
+            lookups[j] = rand.nextInt(DIAMETER * 2) - DIAMETER;
+        }
+    }
+
+    @Benchmark
+    public void getXYZMap(Blackhole bh) {
+        for (int i = 0; i < lookups.length; i += 3) {
+            bh.consume(xyzMap.get(lookups[i], lookups[i + 1], lookups[i + 2]));
+        }
+    }
+
+    @Benchmark
+    public void getXYZLongMap(Blackhole bh) {
+        for (int i = 0; i < lookups.length; i += 3) {
+            bh.consume(xyzLongMap.get(lookups[i], lookups[i + 1], lookups[i + 2]));
+        }
+    }
+
+    @Benchmark
+    public void removePutXYZMap(Blackhole bh) {
+        Entry entry = entries[next];
+        next = (next + 1) % entries.length;
+        bh.consume(xyzMap.remove(entry));
+        bh.consume(xyzMap.put(entry));
+    }
+
+    @Benchmark
+    public void removePutXYZLongMap(Blackhole bh) {
+        Entry entry = entries[next];
+        next = (next + 1) % entries.length;
+        bh.consume(xyzLongMap.remove(entry));
+        bh.consume(xyzLongMap.put(entry));
+    }
+
+    @Benchmark
+    public void iterateXYZMap(Blackhole bh) {
+        for (Entry entry : xyzMap) {
+            bh.consume(entry);
+        }
+    }
+
+    @Benchmark
+    public void iterateXYZLongMap(Blackhole bh) {
+        for (Entry entry : xyzLongMap) {
+            bh.consume(entry);
+        }
+    }
+
+    private static final class Entry implements XYZAddressable {
+
+        private final int x, y, z;
+
+        Entry(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
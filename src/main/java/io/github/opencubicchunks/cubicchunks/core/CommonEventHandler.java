@@ -59,6 +59,7 @@ import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
 import net.minecraftforge.fml.relauncher.Side;
 
+import java.io.IOException;
 import java.util.List;
 
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -118,9 +119,10 @@ public class CommonEventHandler {
         }
         int minHeight = savedData.minHeight;
         int maxHeight = savedData.maxHeight;
+        // set the data before initializing the world, cube IO reads the save format from it
+        evt.getObject().getPerWorldStorage().setData("cubicChunksData", savedData);
         ((ICubicWorldInternal.Server) world).initCubicWorldServer(new IntRange(minHeight, maxHeight), generationRange);
         savedData.markDirty();
-        evt.getObject().getPerWorldStorage().setData("cubicChunksData", savedData);
         evt.getObject().getPerWorldStorage().saveAllData();
     }
 
@@ -134,6 +136,18 @@ public class CommonEventHandler {
         }
     }
 
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload evt) {
+        if (evt.getWorld().isRemote || !((ICubicWorld) evt.getWorld()).isCubicWorld()) {
+            return;
+        }
+        try {
+            ((ICubicWorldInternal.Server) evt.getWorld()).getCubeCache().getCubeIO().close();
+        } catch (IOException e) {
+            CubicChunks.LOGGER.error("Could not close cube storage of dimension " + evt.getWorld().provider.getDimension(), e);
+        }
+    }
+
     @SubscribeEvent
     public void onWorldServerTick(TickEvent.WorldTickEvent evt) {
         WorldServer world = (WorldServer) evt.world;
@@ -95,6 +95,75 @@ public class CubicChunksConfig {
             + "existing dimension switching between cubic chunks and vanilla, the contents of that dimension won't be converted.")
     public static boolean forceDimensionExcludes = false;
 
+    @Config.LangKey("cubicchunks.config.binary_cube_format")
+    @Config.Comment("Enabling this will make newly created worlds store cubes in binary cube format instead of NBT. Binary cube format is faster "
+            + "to save and load, but can't be read by external tools that expect NBT. This doesn't affect already created worlds. Cubes in both "
+            + "formats can always be loaded, and are converted to the format used by the world when they are saved again.")
+    public static boolean useBinaryCubeFormat = false;
+
+    @Config.LangKey("cubicchunks.config.memory_mapped_regions")
+    @Config.Comment("Enabling this will make newly created worlds store cubes and columns in memory mapped region files instead of RegionLib "
+            + "region files. Memory mapped regions avoid copying data when loading cubes, but use a different on-disk format that external "
+            + "tools can't read. This doesn't affect already created worlds.")
+    public static boolean useMemoryMappedRegions = false;
+
+    @Config.LangKey("cubicchunks.config.io_compression_threads")
+    @Config.Comment("The amount of threads used to compress cubes and columns before they are written to disk. Writing to region files is "
+            + "always done by a single thread, in the order the data has been compressed.")
+    @Config.RangeInt(min = 1, max = 64)
+    public static int ioCompressionThreads = 2;
+
+    @Config.LangKey("cubicchunks.config.compressed_cube_cache_size")
+    @Config.Comment("The amount of memory in megabytes, per dimension, used to keep recently saved cubes in memory in compressed form. Cubes "
+            + "loaded again soon after being unloaded will be read from this cache instead of from disk. Set to 0 to disable.")
+    @Config.RangeInt(min = 0)
+    public static int compressedCubeCacheSize = 64;
+
+    @Config.LangKey("cubicchunks.config.save_queue_memory_limit")
+    @Config.Comment("The estimated amount of memory in megabytes, per dimension, that cubes and columns waiting to be saved can use. When the "
+            + "limit is exceeded, generating new cubes for players is paused until enough of them are saved. Cubes that already exist are "
+            + "still loaded. Set to 0 to disable.")
+    @Config.RangeInt(min = 0)
+    public static int saveQueueMemoryLimit = 256;
+
+    @Config.LangKey("cubicchunks.config.upgrade_outdated_worlds")
+    @Config.Comment("Enabling this will upgrade all cubes and columns of a world when it's loaded, if it has been saved with an older version of "
+            + "Minecraft or of a mod that has data fixers. This can take a long time for big worlds, but avoids running data fixers when cubes "
+            + "are loaded in game. Without it, cubes are upgraded when they are loaded.")
+    public static boolean upgradeOutdatedWorlds = false;
+
+    @Config.LangKey("cubicchunks.config.light_queue_segment_idle_time")
+    @Config.Comment("The time in seconds after which unused memory of light update queues is released. Big light updates need a lot of "
+            + "queue memory, which is kept for this long in case it's needed again.")
+    @Config.RangeInt(min = 0)
+    public static int lightQueueSegmentIdleTime = 60;
+
+    @Config.LangKey("cubicchunks.config.off_heap_light_storage")
+    @Config.Comment("Enabling this will store block and sky light of cubes loaded on the server outside of the java heap, which reduces the "
+            + "amount of memory the garbage collector has to go through. The memory used for it is limited by the -XX:MaxDirectMemorySize "
+            + "java option. Applies to cubes loaded after the option is changed. Mods that modify light arrays directly instead of setting "
+            + "light values don't work with it.")
+    public static boolean offHeapLightStorage = false;
+
+    @Config.LangKey("cubicchunks.config.first_light_threads")
+    @Config.Comment("The amount of threads used to calculate initial sky light of cubes generated for players, in addition to the server "
+            + "thread. Cubes far enough from each other are lit in parallel, with the same result as lighting them one by one. Set to 0 to do "
+            + "it only on the server thread. Blocks from some mods may not support being accessed from other threads.")
+    @Config.RangeInt(min = 0, max = 64)
+    public static int firstLightThreads = 0;
+
+    @Config.LangKey("cubicchunks.config.batch_light_updates")
+    @Config.Comment("Enabling this will update sky light for all blocks changed in a tick at once, at the end of the tick, instead of after "
+            + "each block change. This is much faster when a lot of blocks change at once, like in explosions, but light values are not "
+            + "up to date until the end of the tick.")
+    public static boolean batchLightUpdates = true;
+
+    @Config.LangKey("cubicchunks.config.light_update_time_budget")
+    @Config.Comment("The maximum time in milliseconds the server spends on sky light updates between cubes and on queued sky light updates "
+            + "each tick. Cubes watched by players are updated first, and updates that don't fit are done in later ticks.")
+    @Config.RangeInt(min = 1, max = 1000)
+    public static int lightUpdateTimeBudget = 10;
+
     @Config.Ignore
     private static TreeRangeSet<Integer> excludedDimensionsRanges = null;
 
@@ -0,0 +1,67 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.asm.mixin;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Interface for ExtendedBlockStorage allowing to share block and light arrays between storages, used to take snapshots of cubes and for
+ * shared storages of uniform cubes.
+ * <p>
+ * Shared arrays are used until the next write to the storage that changes them, which then makes a private copy of the arrays it modifies.
+ * Snapshots and the storage the arrays are shared from must never be modified.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public interface ICopyOnWriteStorage {
+
+    /**
+     * Creates a read-only snapshot of this storage. Must be called from the thread that modifies this storage.
+     *
+     * @return storage with the current contents of this storage, safe to be read from any thread
+     */
+    ExtendedBlockStorage snapshot();
+
+    /**
+     * Makes this storage use the same block and light arrays as the source storage, until they are modified. The source must not be modified
+     * afterwards.
+     */
+    void shareContentsOf(ExtendedBlockStorage source);
+
+    /**
+     * Returns the sky light array of this storage for modifying it directly, making a private copy first if it's shared.
+     *
+     * @return the sky light array, or null if this storage has no sky light
+     */
+    @Nullable NibbleArray getSkyLightForWriting();
+
+    int getBlockRefCount();
+
+    int getTickRefCount();
+}
@@ -0,0 +1,50 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.asm.mixin;
+
+import io.github.opencubicchunks.cubicchunks.core.world.cube.OffHeapLightStore;
+import mcp.MethodsReturnNonnullByDefault;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Interface for ExtendedBlockStorage allowing to keep the light arrays of loaded cubes in {@link OffHeapLightStore}.
+ * <p>
+ * Light arrays shared with other storages (see {@link ICopyOnWriteStorage}) stay where they are, and are copied off-heap when they are
+ * modified.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public interface IOffHeapLightStorage {
+
+    /**
+     * Moves the light arrays of this storage off-heap. Light arrays created for this storage later are also allocated off-heap.
+     */
+    void moveLightOffHeap();
+
+    /**
+     * Releases the off-heap light arrays of this storage. Light of this storage can't be accessed afterwards.
+     */
+    void releaseOffHeapLight();
+}
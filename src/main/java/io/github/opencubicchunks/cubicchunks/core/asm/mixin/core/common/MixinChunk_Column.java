@@ -23,6 +23,7 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common;
 
+import io.github.opencubicchunks.cubicchunks.core.world.column.ColumnTileEntityMap;
 import io.github.opencubicchunks.cubicchunks.core.world.column.CubeMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
@@ -88,6 +89,7 @@ public abstract class MixinChunk_Column implements IColumn {
 
     @Override public void addCube(ICube cube) {
         this.cubeMap.put((Cube) cube);
+        ((ColumnTileEntityMap) ((Chunk) (Object) this).getTileEntityMap()).onCubeAdded((Cube) cube);
     }
 
 
@@ -95,6 +97,7 @@ public abstract class MixinChunk_Column implements IColumn {
         if (cachedCube != null && cachedCube.getY() == cubeY) {
             invalidateCachedCube();
         }
+        ((ColumnTileEntityMap) ((Chunk) (Object) this).getTileEntityMap()).onCubeRemoved(cubeY);
         return this.cubeMap.remove(cubeY);
     }
 
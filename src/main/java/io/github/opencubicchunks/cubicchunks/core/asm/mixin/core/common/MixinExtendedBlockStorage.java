@@ -0,0 +1,191 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common;
+
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICopyOnWriteStorage;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.IOffHeapLightStorage;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.NibbleArrays;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.OffHeapLightStore;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.OffHeapNibbleArray;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Implements copy-on-write sharing of ExtendedBlockStorage contents, used to save cubes without blocking the world thread and to share
+ * storages of uniform cubes, and keeps light arrays of loaded cubes off-heap if enabled.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+@Mixin(ExtendedBlockStorage.class)
+public class MixinExtendedBlockStorage implements ICopyOnWriteStorage, IOffHeapLightStorage {
+
+    @Shadow @Final private int yBase;
+    @Shadow private BlockStateContainer data;
+    @Shadow private NibbleArray blockLight;
+    @Shadow private NibbleArray skyLight;
+    @Shadow private int blockRefCount;
+    @Shadow private int tickRefCount;
+
+    private boolean isDataShared;
+    private boolean isBlockLightShared;
+    private boolean isSkyLightShared;
+    private boolean isLightOffHeap;
+
+    @Override public ExtendedBlockStorage snapshot() {
+        // don't let the constructor allocate sky light, it's going to be replaced anyway
+        ExtendedBlockStorage copy = new ExtendedBlockStorage(yBase, false);
+        ((ICopyOnWriteStorage) copy).shareContentsOf((ExtendedBlockStorage) (Object) this);
+
+        this.isDataShared = true;
+        // off-heap light is released when the cube is unloaded, possibly before the snapshot is written, so it can't be shared
+        if (this.blockLight instanceof OffHeapNibbleArray) {
+            copy.setBlockLight(((OffHeapNibbleArray) this.blockLight).toNibbleArray());
+        } else {
+            this.isBlockLightShared = true;
+        }
+        if (this.skyLight instanceof OffHeapNibbleArray) {
+            copy.setSkyLight(((OffHeapNibbleArray) this.skyLight).toNibbleArray());
+        } else {
+            this.isSkyLightShared = this.skyLight != null;
+        }
+        return copy;
+    }
+
+    @Override public void shareContentsOf(ExtendedBlockStorage source) {
+        this.data = source.getData();
+        this.blockLight = source.getBlockLight();
+        this.skyLight = source.getSkyLight();
+        this.blockRefCount = ((ICopyOnWriteStorage) source).getBlockRefCount();
+        this.tickRefCount = ((ICopyOnWriteStorage) source).getTickRefCount();
+
+        this.isDataShared = true;
+        this.isBlockLightShared = true;
+        this.isSkyLightShared = this.skyLight != null;
+    }
+
+    @Override @Nullable public NibbleArray getSkyLightForWriting() {
+        if (isSkyLightShared) {
+            this.skyLight = copyLight(this.skyLight);
+            this.isSkyLightShared = false;
+        }
+        return this.skyLight;
+    }
+
+    @Override public int getBlockRefCount() {
+        return this.blockRefCount;
+    }
+
+    @Override public int getTickRefCount() {
+        return this.tickRefCount;
+    }
+
+    @Override public void moveLightOffHeap() {
+        this.isLightOffHeap = true;
+        if (!isBlockLightShared && !(this.blockLight instanceof OffHeapNibbleArray)) {
+            this.blockLight = OffHeapLightStore.INSTANCE.copyOf(this.blockLight);
+        }
+        if (this.skyLight != null && !isSkyLightShared && !(this.skyLight instanceof OffHeapNibbleArray)) {
+            this.skyLight = OffHeapLightStore.INSTANCE.copyOf(this.skyLight);
+        }
+    }
+
+    @Override public void releaseOffHeapLight() {
+        if (!isLightOffHeap) {
+            return;
+        }
+        this.isLightOffHeap = false;
+        if (this.blockLight instanceof OffHeapNibbleArray) {
+            ((OffHeapNibbleArray) this.blockLight).release();
+        }
+        if (this.skyLight instanceof OffHeapNibbleArray) {
+            ((OffHeapNibbleArray) this.skyLight).release();
+        }
+    }
+
+    private NibbleArray copyLight(NibbleArray light) {
+        return isLightOffHeap ? OffHeapLightStore.INSTANCE.copyOf(light) : NibbleArrays.copyOf(light);
+    }
+
+    @Inject(method = "set", at = @At("HEAD"))
+    private void beforeSetBlockState(int x, int y, int z, IBlockState state, CallbackInfo cbi) {
+        // setting the same state doesn't change the shared data, no need to copy it
+        if (!isDataShared || this.data.get(x, y, z) == state) {
+            return;
+        }
+        BlockStateContainer newData = new BlockStateContainer();
+        for (int i = 0; i < 4096; i++) {
+            IBlockState oldState = this.data.get(i & 0xF, i >> 8, (i >> 4) & 0xF);
+            if (oldState != Blocks.AIR.getDefaultState()) {
+                newData.set(i & 0xF, i >> 8, (i >> 4) & 0xF, oldState);
+            }
+        }
+        this.data = newData;
+        this.isDataShared = false;
+    }
+
+    @Inject(method = "setBlockLight(IIII)V", at = @At("HEAD"))
+    private void beforeSetBlockLight(int x, int y, int z, int value, CallbackInfo cbi) {
+        if (isBlockLightShared && this.blockLight.get(x, y, z) != value) {
+            this.blockLight = copyLight(this.blockLight);
+            this.isBlockLightShared = false;
+        }
+    }
+
+    @Inject(method = "setSkyLight(IIII)V", at = @At("HEAD"))
+    private void beforeSetSkyLight(int x, int y, int z, int value, CallbackInfo cbi) {
+        if (isSkyLightShared && this.skyLight.get(x, y, z) != value) {
+            this.skyLight = copyLight(this.skyLight);
+            this.isSkyLightShared = false;
+        }
+    }
+
+    @Inject(method = "setBlockLight(Lnet/minecraft/world/chunk/NibbleArray;)V", at = @At("HEAD"))
+    private void beforeReplaceBlockLight(NibbleArray newBlockLight, CallbackInfo cbi) {
+        if (isLightOffHeap && this.blockLight instanceof OffHeapNibbleArray && this.blockLight != newBlockLight) {
+            ((OffHeapNibbleArray) this.blockLight).release();
+        }
+        this.isBlockLightShared = false;
+    }
+
+    @Inject(method = "setSkyLight(Lnet/minecraft/world/chunk/NibbleArray;)V", at = @At("HEAD"))
+    private void beforeReplaceSkyLight(NibbleArray newSkyLight, CallbackInfo cbi) {
+        if (isLightOffHeap && this.skyLight instanceof OffHeapNibbleArray && this.skyLight != newSkyLight) {
+            ((OffHeapNibbleArray) this.skyLight).release();
+        }
+        this.isSkyLightShared = false;
+    }
+}
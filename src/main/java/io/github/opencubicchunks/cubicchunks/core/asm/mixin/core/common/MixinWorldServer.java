@@ -107,6 +107,8 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
             throw new NotCubicChunksWorldException();
         }
         assert chunkGc != null;
+        // before unloading cubes, so that light of all block changes is updated before they are saved
+        this.getLightingManager().tick();
         this.chunkGc.tick();
         // update world entity spawner
         if (CubicChunksConfig.useFastEntitySpawner != (entitySpawner.getClass() == FastCubeWorldEntitySpawner.class)) {
@@ -126,6 +128,13 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         return (CubeProviderServer) this.chunkProvider;
     }
 
+    @Override public void flushLightUpdates() {
+        if (!this.isCubicWorld()) {
+            throw new NotCubicChunksWorldException();
+        }
+        this.getLightingManager().flushLightUpdates();
+    }
+
     @Override public FirstLightProcessor getFirstLightProcessor() {
         if (!this.isCubicWorld()) {
             throw new NotCubicChunksWorldException();
@@ -142,10 +151,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
     @Inject(method = "scheduleUpdate", at = @At("HEAD"), cancellable = true, require = 1)
     public void scheduleUpdateInject(BlockPos pos, Block blockIn, int delay, CallbackInfo ci) {
         if (this.isCubicWorld()) {
-            Cube cube = this.getCubeCache().getLoadedCube(CubePos.fromBlockCoords(pos));
-            if (cube != null) {
-                cube.scheduleUpdate(pos, blockIn, delay, 0);
-            }
+            scheduleCubicUpdate(pos, blockIn, delay, 0);
             ci.cancel();
         }
     }
@@ -153,10 +159,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
     @Inject(method = "scheduleBlockUpdate", at = @At("HEAD"), cancellable = true, require = 1)
     public void scheduleBlockUpdateInject(BlockPos pos, Block blockIn, int delay, int priority, CallbackInfo ci) {
         if (this.isCubicWorld()) {
-            Cube cube = this.getCubeCache().getLoadedCube(CubePos.fromBlockCoords(pos));
-            if (cube != null) {
-                cube.scheduleUpdate(pos, blockIn, delay, priority);
-            }
+            scheduleCubicUpdate(pos, blockIn, delay, priority);
             ci.cancel();
         }
     }
@@ -164,13 +167,31 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
     @Inject(method = "updateBlockTick", at = @At("HEAD"), cancellable = true, require = 1)
     public void updateBlockTickInject(BlockPos pos, Block blockIn, int delay, int priority, CallbackInfo ci) {
         if (this.isCubicWorld()) {
-            Cube cube = this.getCubeCache().getLoadedCube(CubePos.fromBlockCoords(pos));
-            if (cube != null) {
-                cube.scheduleUpdate(pos, blockIn, delay, priority);
-            }
+            scheduleCubicUpdate(pos, blockIn, delay, priority);
             ci.cancel();
         }
     }
+
+    private void scheduleCubicUpdate(BlockPos pos, Block blockIn, int delay, int priority) {
+        CubeProviderServer cubeCache = this.getCubeCache();
+        if (cubeCache.getLoadedCube(CubePos.fromBlockCoords(pos)) != null) {
+            cubeCache.getScheduledTicks().schedule(pos, blockIn, delay + this.worldInfo.getWorldTotalTime(), priority);
+        }
+    }
+
+    @Inject(method = "isBlockTickPending", at = @At("HEAD"), cancellable = true, require = 1)
+    public void isBlockTickPendingInject(BlockPos pos, Block blockType, CallbackInfoReturnable<Boolean> ci) {
+        if (this.isCubicWorld()) {
+            ci.setReturnValue(this.getCubeCache().getScheduledTicks().isScheduled(pos, blockType));
+        }
+    }
+
+    @Inject(method = "isUpdateScheduled", at = @At("HEAD"), cancellable = true, require = 1)
+    public void isUpdateScheduledInject(BlockPos pos, Block blk, CallbackInfoReturnable<Boolean> ci) {
+        if (this.isCubicWorld()) {
+            ci.setReturnValue(this.getCubeCache().getScheduledTicks().isRunningThisTick(pos, blk));
+        }
+    }
     
     @Inject(method = "adjustPosToNearbyEntity", at = @At("HEAD"), cancellable = true)
     public void adjustPosToNearbyEntityCubicChunks(BlockPos strikeTarget, CallbackInfoReturnable<BlockPos> ci) {
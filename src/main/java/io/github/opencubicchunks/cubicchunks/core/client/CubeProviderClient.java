@@ -26,7 +26,7 @@ package io.github.opencubicchunks.cubicchunks.core.client;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
-import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZLongMap;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
@@ -48,7 +48,7 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
 
     @Nonnull private ICubicWorldInternal.Client world;
     @Nonnull private Cube blankCube;
-    @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    @Nonnull private XYZLongMap<Cube> cubeMap = new XYZLongMap<>(0.7f, 8000);
 
     public CubeProviderClient(ICubicWorldInternal.Client world) {
         super((World) world);
@@ -80,7 +80,7 @@ public class RenderCubeCache extends ChunkCache {
                     Cube cube = ((ICubicWorldInternal) world).getCubeFromCubeCoords(currentCubeX, currentCubeY, currentCubeZ);
                     ebs = cube.getStorage();
 
-                    teMap = cube.getTileEntityMap();
+                    teMap = cube.getTileEntityMapView();
 
                     if (ebs == null) {
                         ebs = nullStorage;
@@ -29,31 +29,41 @@ import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMaxBlo
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.getCubeCenter;
 
+import io.github.opencubicchunks.cubicchunks.api.util.Box;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
-import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.util.FastCubeBlockAccess;
+import io.github.opencubicchunks.cubicchunks.core.util.RegionTaskGroups;
 import io.github.opencubicchunks.cubicchunks.api.util.MathUtil;
 import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICopyOnWriteStorage;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.NibbleArrays;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.UniformStorages;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenCustomHashMap;
 import it.unimi.dsi.fastutil.ints.IntHash;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.init.Blocks;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.BlockPos.MutableBlockPos;
 import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -101,8 +111,12 @@ public class FirstLightProcessor {
     @Nonnull private final ICubeProviderInternal cache;
 
     @Nonnull private final LightPropagator propagator = new LightPropagator();
-    @Nonnull private final LightUpdateTracker tracker;
+    // shared with the lighting manager, null only when sunlight propagation is disabled
+    @Nullable private final LightUpdateTracker tracker;
+    @Nonnull private final DiffusionTarget worldTarget;
 
+    // shared by all worlds, only used while the server thread waits for it
+    @Nullable private static ForkJoinPool parallelPool;
 
     /**
      * Creates a new FirstLightProcessor for the given world.
@@ -111,7 +125,26 @@ public class FirstLightProcessor {
      */
     public FirstLightProcessor(WorldServer world) {
         this.cache = (ICubeProviderInternal) world.getChunkProvider();
-        this.tracker = new LightUpdateTracker((PlayerCubeMap) world.getPlayerChunkMap());
+        this.tracker = ((ICubicWorldInternal) world).getLightingManager().getTracker();
+        this.worldTarget = new DiffusionTarget() {
+            @Override public ILightBlockAccess getBlockAccess(Cube cube, int radius) {
+                return new FastCubeBlockAccess(cache, cube, radius);
+            }
+
+            @Override public int getSkyLight(Cube cube, BlockPos pos) {
+                return cube.getLightFor(EnumSkyBlock.SKY, pos);
+            }
+
+            @Override public void markCubeBlockColumnForUpdate(Cube cube, int blockX, int blockZ) {
+                ((ICubicWorldInternal) world).getLightingManager().markCubeBlockColumnForUpdate(cube, blockX, blockZ);
+            }
+
+            @Override public void onLightUpdate(BlockPos pos) {
+                if (tracker != null) {
+                    tracker.onUpdate(pos);
+                }
+            }
+        };
     }
 
 
@@ -131,20 +164,43 @@ public class FirstLightProcessor {
 
         int cubeMinY = cubeToMinBlock(cube.getY());
 
-        BlockPos startPos = cube.getCoords().getMinBlockPos();
-
+        // the lowest lit local y coordinate of each block column, Cube.SIZE if none is lit
+        byte[] litFromY = new byte[Cube.SIZE * Cube.SIZE];
+        boolean anyLit = false;
+        boolean allLit = true;
         for (int localX = 0; localX < Cube.SIZE; ++localX) {
             for (int localZ = 0; localZ < Cube.SIZE; ++localZ) {
-                for (int localY = Cube.SIZE - 1; localY >= 0; --localY) {
-
-                    if (opacityIndex.isOccluded(localX, cubeMinY + localY, localZ)) {
-                        break;
-                    }
-
-                    cube.setLightFor(EnumSkyBlock.SKY, startPos.add(localX, localY, localZ), 15);
+                int localY = Cube.SIZE;
+                while (localY > 0 && !opacityIndex.isOccluded(localX, cubeMinY + localY - 1, localZ)) {
+                    localY--;
                 }
+                litFromY[localZ << 4 | localX] = (byte) localY;
+                anyLit |= localY < Cube.SIZE;
+                allLit &= localY == 0;
+            }
+        }
+        if (!anyLit) {
+            return;
+        }
+
+        ExtendedBlockStorage storage = cube.getStorage();
+        if (storage == null) {
+            if (allLit) {
+                // empty cube in the sky, all of them can share the same arrays
+                cube.setStorage(UniformStorages.create(cubeMinY, Blocks.AIR.getDefaultState(), 0, 15, true));
+                return;
             }
+            storage = new ExtendedBlockStorage(cubeMinY, true);
+            cube.setStorage(storage);
         }
+        NibbleArray skyLight = ((ICopyOnWriteStorage) storage).getSkyLightForWriting();
+        assert skyLight != null;
+        if (allLit) {
+            NibbleArrays.fill(skyLight, 15);
+        } else {
+            NibbleArrays.fillColumnTops(skyLight, litFromY, 15);
+        }
+        cube.markDirty();
     }
 
     /**
@@ -160,11 +216,80 @@ public class FirstLightProcessor {
             cube.setInitialLightingDone(true);
             return;
         }
-        ICubicWorldInternal world = cube.getWorld();
+        diffuseSkylight(new DiffusionPlan(cube), this.worldTarget, this.propagator, this.mutablePos);
+        cube.setInitialLightingDone(true);
+    }
 
-        // Cache min/max Y, generating them may be expensive
-        int[][] minBlockYArr = new int[Cube.SIZE][Cube.SIZE];
-        int[][] maxBlockYArr = new int[Cube.SIZE][Cube.SIZE];
+    /**
+     * Diffuses skylight in the given cubes, with the same result as calling {@link #diffuseSkylight(Cube)} for each of them in order.
+     * <p>
+     * When {@link CubicChunksConfig#firstLightThreads} is above 0, the cubes are split into groups that can't affect each other's
+     * update, and the groups are done in parallel against snapshots of the cubes around them (see {@link FirstLightSnapshot}). The
+     * results are then applied to the world by the calling thread.
+     *
+     * @param cubes the cubes whose skylight is to be initialized, with all cubes within 2 cubes of them already loaded
+     */
+    public void diffuseSkylight(List<Cube> cubes) {
+        if (LightingManager.NO_SUNLIGHT_PROPAGATION || cubes.isEmpty()) {
+            return;
+        }
+        ForkJoinPool pool = getPool(CubicChunksConfig.firstLightThreads);
+        if (pool == null || cubes.size() == 1 || !cubes.get(0).getWorld().provider.hasSkyLight()) {
+            cubes.forEach(this::diffuseSkylight);
+            return;
+        }
+        // plans only read the height maps, which diffusion doesn't change, so they can all be made before anything is updated
+        List<DiffusionPlan> plans = new ArrayList<>(cubes.size());
+        for (Cube cube : cubes) {
+            plans.add(new DiffusionPlan(cube));
+        }
+        List<List<DiffusionPlan>> groups = RegionTaskGroups.group(plans, DiffusionPlan::getRegion);
+        List<FirstLightSnapshot> results = RegionTaskGroups.run(groups, this::diffuseSkylightGroup, pool);
+
+        ICubicWorldInternal world = cubes.get(0).getWorld();
+        LightingManager lightingManager = world.getLightingManager();
+        assert tracker != null;
+        for (int i = 0; i < groups.size(); i++) {
+            results.get(i).apply(tracker, lightingManager);
+            for (DiffusionPlan plan : groups.get(i)) {
+                plan.cube.setInitialLightingDone(true);
+            }
+        }
+    }
+
+    private FirstLightSnapshot diffuseSkylightGroup(List<DiffusionPlan> group) {
+        Box.Mutable region = group.get(0).getRegion().asMutable();
+        for (DiffusionPlan plan : group) {
+            region.expand(plan.getRegion());
+        }
+        FirstLightSnapshot snapshot = new FirstLightSnapshot(this.cache, group.get(0).cube.getWorld(), region);
+        LightPropagator propagator = new LightPropagator();
+        MutableBlockPos pos = new MutableBlockPos();
+        for (DiffusionPlan plan : group) {
+            diffuseSkylight(plan, snapshot, propagator, pos);
+        }
+        return snapshot;
+    }
+
+    @Nullable private static synchronized ForkJoinPool getPool(int threads) {
+        if (parallelPool != null && parallelPool.getParallelism() != threads) {
+            parallelPool.shutdown();
+            parallelPool = null;
+        }
+        if (parallelPool == null && threads > 0) {
+            parallelPool = new ForkJoinPool(threads, p -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName("Cubic Chunks First Light Thread #" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return parallelPool;
+    }
+
+    private static void diffuseSkylight(DiffusionPlan plan, DiffusionTarget target, LightPropagator propagator, MutableBlockPos mutablePos) {
+        Cube cube = plan.cube;
+        int[][] minBlockYArr = plan.minBlockYArr;
+        int[][] maxBlockYArr = plan.maxBlockYArr;
 
         int minBlockX = cubeToMinBlock(cube.getX());
         int maxBlockX = cubeToMaxBlock(cube.getX());
@@ -172,33 +297,13 @@ public class FirstLightProcessor {
         int minBlockZ = cubeToMinBlock(cube.getZ());
         int maxBlockZ = cubeToMaxBlock(cube.getZ());
 
-        // the lowest minHeight and the highest maxHeight values
-        // used to make the cube iteration the outer loop, so light propagator can do mass light updates
-        int minMinHeight = Integer.MAX_VALUE;
-        int maxMaxHeight = Integer.MIN_VALUE;
-
-        // Determine the block columns that require updating. If there is nothing to update, store contradicting data so
-        // we can skip the column later.
-        for (int localX = 0; localX <= Cube.SIZE - 1; ++localX) {
-            for (int localZ = 0; localZ <= Cube.SIZE - 1; ++localZ) {
-                Pair<Integer, Integer> minMax = getMinMaxLightUpdateY(cube, localX, localZ);
-                int min = minMax == null ? Integer.MAX_VALUE : minMax.getLeft();
-                int max = minMax == null ? Integer.MIN_VALUE : minMax.getRight();
-                minBlockYArr[localX][localZ] = min;
-                maxBlockYArr[localX][localZ] = max;
-                minMinHeight = Math.min(min, minMinHeight);
-                maxMaxHeight = Math.max(max, maxMaxHeight);
-            }
-        }
-
-        Int2ObjectMap<FastCubeBlockAccess> blockAccessMap = new Int2ObjectOpenCustomHashMap<>(10, 0.75f, CUBE_Y_HASH);
+        Int2ObjectMap<ILightBlockAccess> blockAccessMap = new Int2ObjectOpenCustomHashMap<>(10, 0.75f, CUBE_Y_HASH);
 
         List<BlockPos> toUpdate = new ArrayList<>();
 
         IColumn column = cube.getColumn();
         // Iterate over all affected cubes.
-        Iterable<? extends ICube> cubes = column.getLoadedCubes(blockToCube(maxMaxHeight), blockToCube(minMinHeight));
-        for (Cube otherCube : (Iterable<Cube>) cubes) {
+        for (Cube otherCube : plan.cubes) {
             int minCubeBlockY = otherCube.getCoords().getMinBlockY();
             int maxCubeBlockY = otherCube.getCoords().getMaxBlockY();
             for (int blockX = minBlockX; blockX <= maxBlockX; blockX++) {
@@ -219,10 +324,10 @@ public class FirstLightProcessor {
                         continue;
                     }
 
-                    this.mutablePos.setPos(blockX, this.mutablePos.getY(), blockZ);
+                    mutablePos.setPos(blockX, mutablePos.getY(), blockZ);
                     int topBlockY = getOcclusionHeight(column, blockToLocal(blockX), blockToLocal(blockZ));
 
-                    if (otherCube != cube && canStopUpdating(cube, this.mutablePos, topBlockY)) {
+                    if (otherCube != cube && canStopUpdating(target, cube, mutablePos, topBlockY)) {
                         // mark this column so min > max
                         minBlockYArr[blockX - minBlockX][blockZ - minBlockZ] = 1;
                         maxBlockYArr[blockX - minBlockX][blockZ - minBlockZ] = 0;
@@ -232,24 +337,22 @@ public class FirstLightProcessor {
                     // Skip this cube if an update is not possible.
                     if (!canUpdateCube(otherCube)) {
                         // Queue the update to be processed once the cube is ready for it.
-                        world.getLightingManager().markCubeBlockColumnForUpdate(otherCube, this.mutablePos.getX(), this.mutablePos.getZ());
+                        target.markCubeBlockColumnForUpdate(otherCube, mutablePos.getX(), mutablePos.getZ());
                         continue;
                     }
 
                     // Update the block column in this cube.
-                    if (!diffuseSkylightInBlockColumn(otherCube, this.mutablePos, minBlockY, maxBlockY, blockAccessMap, toUpdate)) {
-                        throw new IllegalStateException("Check light failed at " + this.mutablePos + "!");
+                    if (!diffuseSkylightInBlockColumn(otherCube, mutablePos, minBlockY, maxBlockY, target, blockAccessMap, toUpdate)) {
+                        throw new IllegalStateException("Check light failed at " + mutablePos + "!");
                     }
                 }
             }
             if (!toUpdate.isEmpty()) {
                 propagator.propagateLight(otherCube.getCoords().getCenterBlockPos(), toUpdate,
-                        blockAccessMap.get(otherCube.getY()), EnumSkyBlock.SKY, tracker::onUpdate);
+                        blockAccessMap.get(otherCube.getY()), EnumSkyBlock.SKY, target::onLightUpdate);
                 toUpdate.clear();
             }
         }
-        tracker.sendAll();
-        cube.setInitialLightingDone(true);
     }
 
     /**
@@ -263,18 +366,18 @@ public class FirstLightProcessor {
      *
      * @return true if the update was successful, false otherwise
      */
-    private boolean diffuseSkylightInBlockColumn(Cube cube, MutableBlockPos pos, int minBlockY, int maxBlockY,
-            Int2ObjectMap<FastCubeBlockAccess> blockAccessMap, List<BlockPos> posToUpdate) {
+    private static boolean diffuseSkylightInBlockColumn(Cube cube, MutableBlockPos pos, int minBlockY, int maxBlockY, DiffusionTarget target,
+            Int2ObjectMap<ILightBlockAccess> blockAccessMap, List<BlockPos> posToUpdate) {
         int cubeMinBlockY = cubeToMinBlock(cube.getY());
         int cubeMaxBlockY = cubeToMaxBlock(cube.getY());
 
         int maxBlockYInCube = Math.min(cubeMaxBlockY, maxBlockY);
         int minBlockYInCube = Math.max(cubeMinBlockY, minBlockY);
 
-        FastCubeBlockAccess blockAccess = blockAccessMap.get(cube.getY());
+        ILightBlockAccess blockAccess = blockAccessMap.get(cube.getY());
         if (blockAccess == null) {
             // this value will be reused later for LightPropagator, so use radius 2
-            blockAccess = new FastCubeBlockAccess(this.cache, cube, 2);
+            blockAccess = target.getBlockAccess(cube, 2);
             blockAccessMap.put(cube.getY(), blockAccess);
         }
 
@@ -292,12 +395,12 @@ public class FirstLightProcessor {
     /**
      * Determines if the block at the given position requires a skylight update.
      *
-     * @param access a FastCubeBlockAccess providing access to the block
+     * @param access an ILightBlockAccess providing access to the block
      * @param pos the block's global position
      *
      * @return true if the specified block needs a skylight update, false otherwise
      */
-    private static boolean needsSkylightUpdate(@Nonnull FastCubeBlockAccess access, @Nonnull MutableBlockPos pos) {
+    private static boolean needsSkylightUpdate(@Nonnull ILightBlockAccess access, @Nonnull MutableBlockPos pos) {
 
         // Opaque blocks don't need update. Nothing can emit skylight, and skylight can't get into them nor out of them.
         if (access.getBlockLightOpacity(pos) >= 15) {
@@ -338,17 +441,18 @@ public class FirstLightProcessor {
      * Determines if the block column of the given cube as specified by the given BlockPos has valid lighting and thus
      * does not require further updating.
      *
+     * @param target where the light is read from
      * @param cube the cube whose light is supposed to be updated
      * @param pos the xz-position of the block column being updated
      * @param topBlockY the y-coordinate of the highest block in the block column
      *
      * @return true if updating the skylight of the specified block column is no longer required, false otherwise
      */
-    private static boolean canStopUpdating(@Nonnull Cube cube, @Nonnull MutableBlockPos pos, int topBlockY) {
+    private static boolean canStopUpdating(@Nonnull DiffusionTarget target, @Nonnull Cube cube, @Nonnull MutableBlockPos pos, int topBlockY) {
         // Note: This logic does not apply to the main cube being updated, but only to those below it!
         pos.setY(cube.getCoords().getMaxBlockY());
         boolean isDirectSkylight = pos.getY() > topBlockY;
-        int lightValue = cube.getLightFor(EnumSkyBlock.SKY, pos);
+        int lightValue = target.getSkyLight(cube, pos);
 
         // If the cube does not receive direct skylight and the light value does not need updating, then all blocks
         // further down do not need to be updated either.
@@ -438,4 +542,76 @@ public class FirstLightProcessor {
         //noinspection SuspiciousNameCombination
         return new ImmutablePair<>(heightBelowCube, heightMax);
     }
+
+    /**
+     * Where skylight diffusion reads and writes light. Diffusion done directly on the world uses the world, parallel diffusion uses
+     * a {@link FirstLightSnapshot}.
+     */
+    interface DiffusionTarget {
+
+        /**
+         * @return block access for all cubes within the given radius of the given cube
+         */
+        ILightBlockAccess getBlockAccess(Cube cube, int radius);
+
+        int getSkyLight(Cube cube, BlockPos pos);
+
+        void markCubeBlockColumnForUpdate(Cube cube, int blockX, int blockZ);
+
+        /**
+         * Called for each position where light value is changed
+         */
+        void onLightUpdate(BlockPos pos);
+    }
+
+    /**
+     * The block columns and cubes that need to be updated to diffuse skylight in a cube. Only depends on the height map, so it can be
+     * computed before any light is changed.
+     */
+    private static final class DiffusionPlan {
+
+        @Nonnull private final Cube cube;
+        // Cache min/max Y, generating them may be expensive
+        @Nonnull private final int[][] minBlockYArr = new int[Cube.SIZE][Cube.SIZE];
+        @Nonnull private final int[][] maxBlockYArr = new int[Cube.SIZE][Cube.SIZE];
+        @Nonnull private final List<Cube> cubes = new ArrayList<>();
+        @Nonnull private final Box region;
+
+        DiffusionPlan(Cube cube) {
+            this.cube = cube;
+            // the lowest minHeight and the highest maxHeight values
+            // used to make the cube iteration the outer loop, so light propagator can do mass light updates
+            int minMinHeight = Integer.MAX_VALUE;
+            int maxMaxHeight = Integer.MIN_VALUE;
+
+            // Determine the block columns that require updating. If there is nothing to update, store contradicting data so
+            // we can skip the column later.
+            for (int localX = 0; localX <= Cube.SIZE - 1; ++localX) {
+                for (int localZ = 0; localZ <= Cube.SIZE - 1; ++localZ) {
+                    Pair<Integer, Integer> minMax = getMinMaxLightUpdateY(cube, localX, localZ);
+                    int min = minMax == null ? Integer.MAX_VALUE : minMax.getLeft();
+                    int max = minMax == null ? Integer.MIN_VALUE : minMax.getRight();
+                    minBlockYArr[localX][localZ] = min;
+                    maxBlockYArr[localX][localZ] = max;
+                    minMinHeight = Math.min(min, minMinHeight);
+                    maxMaxHeight = Math.max(max, maxMaxHeight);
+                }
+            }
+
+            int minCubeY = cube.getY();
+            int maxCubeY = cube.getY();
+            Iterable<? extends ICube> affected = cube.getColumn().getLoadedCubes(blockToCube(maxMaxHeight), blockToCube(minMinHeight));
+            for (Cube otherCube : (Iterable<Cube>) affected) {
+                cubes.add(otherCube);
+                minCubeY = Math.min(minCubeY, otherCube.getY());
+                maxCubeY = Math.max(maxCubeY, otherCube.getY());
+            }
+            // everything the block accesses of the affected cubes can reach
+            this.region = new Box(cube.getX() - 2, minCubeY - 2, cube.getZ() - 2, cube.getX() + 2, maxCubeY + 2, cube.getZ() + 2);
+        }
+
+        Box getRegion() {
+            return region;
+        }
+    }
 }
@@ -0,0 +1,322 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Box;
+import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.NibbleArrays;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A box of cubes that skylight diffusion of newly generated cubes runs against when it's done in parallel (see
+ * {@link FirstLightProcessor#diffuseSkylight(List)}).
+ * <p>
+ * Blocks and light are read from the storages the cubes had when the snapshot was created. Sky light is written to private copies of the
+ * light arrays, and everything diffusion would change in the world is recorded, to be applied by the server thread afterwards. Cubes
+ * without a storage behave the same way as they would with the update done directly on the world. While diffusion runs, nothing else
+ * may modify the cubes.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class FirstLightSnapshot implements FirstLightProcessor.DiffusionTarget {
+
+    private final World world;
+    private final int originX, originY, originZ;
+    private final int dx, dy, dz;
+
+    private final Cube[] cubes;
+    private final ExtendedBlockStorage[] storages;
+    private final Chunk[] columns;
+    // private copies of sky light, null until light of the cube is changed
+    private final NibbleArray[] skyLight;
+    // bit for each EnumFacing that needs sky light update
+    private final byte[] edgesToUpdate;
+
+    private final List<BlockPos> updated = new ArrayList<>();
+    private final List<Cube> columnUpdateCubes = new ArrayList<>();
+    private final IntArrayList columnUpdatePositions = new IntArrayList();
+
+    FirstLightSnapshot(ICubeProviderInternal provider, World world, Box.Mutable region) {
+        this.world = world;
+        this.originX = region.getX1();
+        this.originY = region.getY1();
+        this.originZ = region.getZ1();
+        this.dx = region.getX2() - originX + 1;
+        this.dy = region.getY2() - originY + 1;
+        this.dz = region.getZ2() - originZ + 1;
+
+        this.cubes = new Cube[dx * dy * dz];
+        this.storages = new ExtendedBlockStorage[dx * dy * dz];
+        this.columns = new Chunk[dx * dz];
+        this.skyLight = new NibbleArray[dx * dy * dz];
+        this.edgesToUpdate = new byte[dx * dy * dz];
+
+        for (int x = 0; x < dx; x++) {
+            for (int z = 0; z < dz; z++) {
+                this.columns[x * dz + z] = provider.getLoadedColumn(originX + x, originZ + z);
+                for (int y = 0; y < dy; y++) {
+                    Cube cube = provider.getLoadedCube(originX + x, originY + y, originZ + z);
+                    if (cube != null) {
+                        int index = (x * dy + y) * dz + z;
+                        this.cubes[index] = cube;
+                        this.storages[index] = cube.getStorage();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return index of the cube containing the given block, or -1 if it's outside of this snapshot
+     */
+    private int getIndex(int blockX, int blockY, int blockZ) {
+        int x = blockToCube(blockX) - originX;
+        int y = blockToCube(blockY) - originY;
+        int z = blockToCube(blockZ) - originZ;
+        if (x < 0 || y < 0 || z < 0 || x >= dx || y >= dy || z >= dz) {
+            return -1;
+        }
+        return (x * dy + y) * dz + z;
+    }
+
+    private int getSkyLight(int index, BlockPos pos) {
+        NibbleArray copy = skyLight[index];
+        if (copy != null) {
+            return copy.get(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
+        }
+        ExtendedBlockStorage ebs = storages[index];
+        if (ebs != null) {
+            return ebs.getSkyLight(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
+        }
+        return EnumSkyBlock.SKY.defaultLightValue;
+    }
+
+    @Override public ILightBlockAccess getBlockAccess(Cube cube, int radius) {
+        return new Window(cube.getX() - radius, cube.getY() - radius, cube.getZ() - radius,
+                cube.getX() + radius, cube.getY() + radius, cube.getZ() + radius);
+    }
+
+    @Override public int getSkyLight(Cube cube, BlockPos pos) {
+        int index = getIndex(pos.getX(), pos.getY(), pos.getZ());
+        if (index < 0 || skyLight[index] == null) {
+            // not changed yet, the world still has the same value
+            return cube.getLightFor(EnumSkyBlock.SKY, pos);
+        }
+        return getSkyLight(index, pos);
+    }
+
+    @Override public void markCubeBlockColumnForUpdate(Cube cube, int blockX, int blockZ) {
+        columnUpdateCubes.add(cube);
+        columnUpdatePositions.add(blockX);
+        columnUpdatePositions.add(blockZ);
+    }
+
+    @Override public void onLightUpdate(BlockPos pos) {
+        updated.add(pos.toImmutable());
+    }
+
+    /**
+     * Applies all changes to the world, in the order they were made. Must be called from the server thread.
+     */
+    void apply(LightUpdateTracker tracker, ILightingManager lightingManager) {
+        for (BlockPos pos : updated) {
+            int index = getIndex(pos.getX(), pos.getY(), pos.getZ());
+            int value = skyLight[index].get(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
+            ExtendedBlockStorage ebs = storages[index];
+            if (ebs != null) {
+                ebs.setSkyLight(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()), value);
+            } else {
+                // creates the storage the same way as setting light directly would
+                cubes[index].setLightFor(EnumSkyBlock.SKY, pos, value);
+            }
+            tracker.onUpdate(pos);
+        }
+        for (int i = 0; i < edgesToUpdate.length; i++) {
+            int edges = edgesToUpdate[i];
+            if (edges == 0) {
+                continue;
+            }
+            for (EnumFacing facing : EnumFacing.values()) {
+                if ((edges & (1 << facing.ordinal())) != 0) {
+                    cubes[i].markEdgeNeedSkyLightUpdate(facing);
+                }
+            }
+        }
+        for (int i = 0; i < columnUpdateCubes.size(); i++) {
+            lightingManager.markCubeBlockColumnForUpdate(columnUpdateCubes.get(i),
+                    columnUpdatePositions.getInt(i * 2), columnUpdatePositions.getInt(i * 2 + 1));
+        }
+    }
+
+    /**
+     * Block access limited to a part of the snapshot, so that it sees exactly the same cubes as a
+     * {@link io.github.opencubicchunks.cubicchunks.core.util.FastCubeBlockAccess} with the same bounds would.
+     */
+    private class Window implements ILightBlockAccess {
+
+        private final int minX, minY, minZ;
+        private final int maxX, maxY, maxZ;
+
+        Window(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+        }
+
+        private int getIndex(BlockPos pos) {
+            int cubeX = blockToCube(pos.getX());
+            int cubeY = blockToCube(pos.getY());
+            int cubeZ = blockToCube(pos.getZ());
+            if (cubeX < minX || cubeY < minY || cubeZ < minZ || cubeX > maxX || cubeY > maxY || cubeZ > maxZ) {
+                return -1;
+            }
+            return FirstLightSnapshot.this.getIndex(pos.getX(), pos.getY(), pos.getZ());
+        }
+
+        private IBlockState getBlockState(BlockPos pos) {
+            int index = getIndex(pos);
+            ExtendedBlockStorage ebs = index < 0 ? null : storages[index];
+            if (ebs != null) {
+                return ebs.get(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
+            }
+            return Blocks.AIR.getDefaultState();
+        }
+
+        @Override public int getBlockLightOpacity(BlockPos pos) {
+            return getBlockState(pos).getLightOpacity(world, pos);
+        }
+
+        @Override public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
+            int index = getIndex(pos);
+            if (index < 0) {
+                return lightType.defaultLightValue;
+            }
+            if (lightType == EnumSkyBlock.SKY) {
+                return getSkyLight(index, pos);
+            }
+            ExtendedBlockStorage ebs = storages[index];
+            if (ebs != null) {
+                return ebs.getBlockLight(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
+            }
+            // a storage created by setting sky light has no block light either
+            return skyLight[index] != null ? 0 : lightType.defaultLightValue;
+        }
+
+        @Override public boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
+            if (lightType != EnumSkyBlock.SKY) {
+                throw new UnsupportedOperationException("Only sky light can be changed in first light snapshot");
+            }
+            int index = getIndex(pos);
+            if (index < 0 || cubes[index] == null) {
+                return false;
+            }
+            NibbleArray copy = skyLight[index];
+            if (copy == null) {
+                ExtendedBlockStorage ebs = storages[index];
+                // a new storage has sky light of 0 everywhere
+                copy = ebs == null ? new NibbleArray() : NibbleArrays.copyOf(ebs.getSkyLight());
+                skyLight[index] = copy;
+            }
+            copy.set(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()), val);
+            return true;
+        }
+
+        @Override public boolean canSeeSky(BlockPos pos) {
+            int cubeX = blockToCube(pos.getX());
+            int cubeZ = blockToCube(pos.getZ());
+            if (cubeX < minX || cubeZ < minZ || cubeX > maxX || cubeZ > maxZ) {
+                return false;
+            }
+            Chunk column = columns[(cubeX - originX) * dz + cubeZ - originZ];
+            if (column == null) {
+                return false;
+            }
+            return column.getHeightValue(blockToLocal(pos.getX()), blockToLocal(pos.getZ())) <= pos.getY();
+        }
+
+        @Override public int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+            switch (type) {
+                case BLOCK:
+                    return getBlockState(pos).getLightValue(world, pos);
+                case SKY:
+                    return canSeeSky(pos) ? 15 : 0;
+                default:
+                    throw new AssertionError();
+            }
+        }
+
+        @Override public void markEdgeNeedLightUpdate(BlockPos pos, EnumSkyBlock type) {
+            if (type == EnumSkyBlock.BLOCK) {
+                return;
+            }
+            int index = getIndex(pos);
+            if (index < 0 || cubes[index] == null) {
+                return;
+            }
+            int localX = blockToLocal(pos.getX());
+            int localY = blockToLocal(pos.getY());
+            int localZ = blockToLocal(pos.getZ());
+            int edges = edgesToUpdate[index];
+            if (localX == 0) {
+                edges |= 1 << EnumFacing.WEST.ordinal();
+            } else if (localX == 15) {
+                edges |= 1 << EnumFacing.EAST.ordinal();
+            }
+            if (localY == 0) {
+                edges |= 1 << EnumFacing.DOWN.ordinal();
+            } else if (localY == 15) {
+                edges |= 1 << EnumFacing.UP.ordinal();
+            }
+            if (localZ == 0) {
+                edges |= 1 << EnumFacing.NORTH.ordinal();
+            } else if (localZ == 15) {
+                edges |= 1 << EnumFacing.SOUTH.ordinal();
+            }
+            edgesToUpdate[index] = (byte) edges;
+        }
+    }
+}
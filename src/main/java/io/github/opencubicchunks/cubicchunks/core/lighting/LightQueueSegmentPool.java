@@ -0,0 +1,164 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.ArrayDeque;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Pool of {@link LightUpdateQueue} segments shared by all light update queues, on both the client and the server.
+ * <p>
+ * Each thread keeps the last segment it released, so light updates that only need one segment, which are almost all of them, don't lock
+ * the pool. Other segments are handed out most recently released first, so the ones allocated for a single big update (like a lava cast)
+ * sit at the bottom of the pool. Segments that haven't been used for {@link CubicChunksConfig#lightQueueSegmentIdleTime} seconds are
+ * released, so that memory isn't retained forever. The segment kept by a thread is never released this way, it's the same amount of memory
+ * as each light update queue used to keep.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class LightQueueSegmentPool {
+
+    static final LightQueueSegmentPool INSTANCE = new LightQueueSegmentPool(LightUpdateQueue.QUEUE_PART_SIZE);
+
+    private final int segmentSize;
+    /**
+     * Free segments, ordered by the time they have been released, oldest first
+     */
+    private final ArrayDeque<Segment> free = new ArrayDeque<>();
+    private final ThreadLocal<ThreadCache> threadCache = ThreadLocal.withInitial(ThreadCache::new);
+
+    /**
+     * Segments taken from the pool and not returned to it, including those kept by threads
+     */
+    private int inUse;
+    /**
+     * Maximum of {@link #inUse}
+     */
+    private int highWaterMark;
+    private long allocatedTotal;
+    private long reusedTotal;
+    private long releasedTotal;
+
+    LightQueueSegmentPool(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    Segment acquire() {
+        ThreadCache cache = threadCache.get();
+        Segment segment = cache.segment;
+        if (segment != null) {
+            cache.segment = null;
+            return segment;
+        }
+        return acquireShared();
+    }
+
+    private synchronized Segment acquireShared() {
+        Segment segment = free.pollLast();
+        if (segment == null) {
+            segment = new Segment(segmentSize);
+            allocatedTotal++;
+        } else {
+            reusedTotal++;
+        }
+        inUse++;
+        if (inUse > highWaterMark) {
+            highWaterMark = inUse;
+            CubicChunks.LOGGER.debug("Light update queues now use {} segments of {} entries", highWaterMark, segmentSize);
+        }
+        return segment;
+    }
+
+    /**
+     * Returns the given segment and all segments linked after it to the pool
+     */
+    void release(Segment first) {
+        ThreadCache cache = threadCache.get();
+        Segment rest = first;
+        if (cache.segment == null) {
+            cache.segment = first;
+            rest = first.next;
+            first.next = null;
+        }
+        if (rest != null) {
+            releaseShared(rest);
+        }
+    }
+
+    private synchronized void releaseShared(Segment first) {
+        long now = System.currentTimeMillis();
+        for (Segment segment = first, next; segment != null; segment = next) {
+            next = segment.next;
+            segment.next = null;
+            segment.releaseTime = now;
+            free.addLast(segment);
+            inUse--;
+        }
+        releaseIdle(now);
+    }
+
+    /**
+     * Drops free segments that haven't been used for longer than the configured idle time
+     */
+    synchronized void releaseIdle(long now) {
+        long maxIdleMillis = CubicChunksConfig.lightQueueSegmentIdleTime * 1000L;
+        int released = 0;
+        Segment oldest;
+        while ((oldest = free.peekFirst()) != null && now - oldest.releaseTime > maxIdleMillis) {
+            free.pollFirst();
+            released++;
+        }
+        if (released != 0) {
+            releasedTotal += released;
+            CubicChunks.LOGGER.debug("Released {} idle light update queue segments, {}", released, getStats());
+        }
+    }
+
+    synchronized String getStats() {
+        return "segments in use: " + inUse + ", free: " + free.size() + ", high water mark: " + highWaterMark
+                + ", allocated: " + allocatedTotal + ", reused: " + reusedTotal + ", released: " + releasedTotal;
+    }
+
+    private static class ThreadCache {
+
+        @Nullable Segment segment;
+    }
+
+    static class Segment {
+
+        final int[] data;
+        @Nullable Segment next;
+        private long releaseTime;
+
+        private Segment(int size) {
+            data = new int[size];
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.core.util.FastCubeBlockAccess;
+import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Collects positions that need a light update because of block changes, and updates all of them at once, usually at the end of the tick.
+ * <p>
+ * Positions are grouped into cells of {@value #CELL_SIZE} blocks, and each cell is updated with a single
+ * {@link LightPropagator#propagateLight} call, so areas affected by many block changes (explosions, filling big areas) are only relit once,
+ * with one pass decreasing light and one pass spreading it. Cells are small enough for the light update queue to fit all their positions
+ * and everything the update can reach.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class LightUpdateBatch {
+
+    private static final int CELL_BITS = 6;
+    private static final int CELL_SIZE = 1 << CELL_BITS;
+    // blocks within this distance of the updated positions must be accessible, see LightPropagator
+    private static final int LOAD_RADIUS = LightUpdateQueue.MAX_DISTANCE + 2;
+
+    private final Map<EnumSkyBlock, Map<BlockPos, Set<BlockPos>>> cells = new EnumMap<>(EnumSkyBlock.class);
+    private int size;
+
+    LightUpdateBatch() {
+        for (EnumSkyBlock type : EnumSkyBlock.values()) {
+            cells.put(type, new LinkedHashMap<>());
+        }
+    }
+
+    void add(EnumSkyBlock type, BlockPos pos) {
+        BlockPos cell = new BlockPos(pos.getX() >> CELL_BITS, pos.getY() >> CELL_BITS, pos.getZ() >> CELL_BITS);
+        if (cells.get(type).computeIfAbsent(cell, c -> new LinkedHashSet<>()).add(pos.toImmutable())) {
+            size++;
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Updates light at all collected positions, and clears the batch.
+     */
+    void flush(ICubicWorld world, ICubeProviderInternal provider, LightPropagator propagator, Consumer<BlockPos> notify) {
+        if (size == 0) {
+            return;
+        }
+        for (EnumSkyBlock type : EnumSkyBlock.values()) {
+            Map<BlockPos, Set<BlockPos>> typeCells = cells.get(type);
+            for (Map.Entry<BlockPos, Set<BlockPos>> entry : typeCells.entrySet()) {
+                flushCell(world, provider, propagator, notify, type, entry.getKey(), entry.getValue());
+            }
+            typeCells.clear();
+        }
+        size = 0;
+    }
+
+    private void flushCell(ICubicWorld world, ICubeProviderInternal provider, LightPropagator propagator, Consumer<BlockPos> notify,
+            EnumSkyBlock type, BlockPos cell, Set<BlockPos> positions) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (BlockPos pos : positions) {
+            minX = Math.min(minX, pos.getX());
+            minY = Math.min(minY, pos.getY());
+            minZ = Math.min(minZ, pos.getZ());
+            maxX = Math.max(maxX, pos.getX());
+            maxY = Math.max(maxY, pos.getY());
+            maxZ = Math.max(maxZ, pos.getZ());
+        }
+        BlockPos center = new BlockPos(
+                (cell.getX() << CELL_BITS) + CELL_SIZE / 2,
+                (cell.getY() << CELL_BITS) + CELL_SIZE / 2,
+                (cell.getZ() << CELL_BITS) + CELL_SIZE / 2);
+        // only cubes that are already loaded, positions in cubes unloaded since the block change can't be updated anyway
+        ILightBlockAccess blocks = FastCubeBlockAccess.forLoadedBlockRegion(world, provider,
+                new BlockPos(minX - LOAD_RADIUS, minY - LOAD_RADIUS, minZ - LOAD_RADIUS),
+                new BlockPos(maxX + LOAD_RADIUS, maxY + LOAD_RADIUS, maxZ + LOAD_RADIUS));
+        propagator.propagateLight(center, positions, blocks, type, notify);
+    }
+}
@@ -23,12 +23,11 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.lighting;
 
-import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.api.util.Bits;
+import io.github.opencubicchunks.cubicchunks.core.lighting.LightQueueSegmentPool.Segment;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.math.BlockPos;
 
-import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -42,7 +41,7 @@ class LightUpdateQueue {
     private static final boolean DEBUG = true;
 
     // there is some redundant arithmetic, but it's there so the pattern is easily visible
-    private static final int QUEUE_PART_SIZE = 64 * 1024;
+    static final int QUEUE_PART_SIZE = 64 * 1024;
     private static final int POS_BITS = 8;
     private static final int POS_X_OFFSET = POS_BITS * 0;
     private static final int POS_Y_OFFSET = POS_BITS * 1;
@@ -67,9 +66,12 @@ class LightUpdateQueue {
     static final int MIN_DISTANCE = 0;
     static final int MAX_DISTANCE = Bits.getMaxUnsigned(DISTANCE_BITS);
 
-    @Nonnull private final ArrayQueueSegment start = new ArrayQueueSegment(QUEUE_PART_SIZE);
-    @Nullable private ArrayQueueSegment currentReadQueue;
-    @Nullable private ArrayQueueSegment currentWriteQueue;
+    /**
+     * First segment of the queue, taken from {@link LightQueueSegmentPool} in begin() and returned with all following segments in end()
+     */
+    @Nullable private Segment start;
+    @Nullable private Segment currentReadQueue;
+    @Nullable private Segment currentWriteQueue;
     /**
      * Index of the previously read entry from current queue array
      */
@@ -113,6 +115,7 @@ class LightUpdateQueue {
         if (currentReadQueue != null) {
             throw new IllegalStateException("Called begin() in unclean state! Did you forget to call end()?");
         }
+        this.start = LightQueueSegmentPool.INSTANCE.acquire();
         this.currentWriteQueue = start;
         this.nextWriteIndex = 0;
         this.absoluteIndexWrite = 0;
@@ -168,8 +171,7 @@ class LightUpdateQueue {
         if (nextWriteIndex >= QUEUE_PART_SIZE) {
             nextWriteIndex = 0;
             if (currentWriteQueue.next == null) {
-                currentWriteQueue.next = new ArrayQueueSegment(QUEUE_PART_SIZE);
-                CubicChunks.LOGGER.debug("Adding LightUpdateQueue segment to " + this);
+                currentWriteQueue.next = LightQueueSegmentPool.INSTANCE.acquire();
             }
             currentWriteQueue = currentWriteQueue.next;
         }
@@ -236,6 +238,10 @@ class LightUpdateQueue {
         if (currentReadQueue == null) {
             throw new IllegalStateException("Called end() without corresponding begin()!");
         }
+        assert start != null;
+        Segment first = start;
+        // reset before releasing, so that this queue can be used again even if releasing fails
+        this.start = null;
         this.currentReadQueue = null;
         this.currentWriteQueue = null;
         this.currentReadIndex = 0;
@@ -243,15 +249,6 @@ class LightUpdateQueue {
         this.centerX = Integer.MAX_VALUE;
         this.centerY = Integer.MAX_VALUE;
         this.centerZ = Integer.MAX_VALUE;
-    }
-
-    private static class ArrayQueueSegment {
-
-        private int[] data;
-        @Nullable private ArrayQueueSegment next;
-
-        ArrayQueueSegment(int initSize) {
-            data = new int[initSize];
-        }
+        LightQueueSegmentPool.INSTANCE.release(first);
     }
 }
@@ -0,0 +1,167 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Keeps track of cubes with pending sky light updates (edges and block columns) on the server, and processes them within a time budget
+ * each tick.
+ * <p>
+ * Cubes are processed in the order they were scheduled in, with cubes watched by players first. Work that doesn't fit into the budget,
+ * including the rest of a partially processed cube, is carried over to the next tick.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class LightUpdateScheduler {
+
+    private final Set<LightingManager.CubeLightUpdateInfo> queue = new LinkedHashSet<>();
+    // cubes scheduled while the queue is being processed
+    private final List<LightingManager.CubeLightUpdateInfo> added = new ArrayList<>();
+    private boolean processing;
+
+    private int processedLastTick;
+    private long nanosLastTick;
+
+    void schedule(LightingManager.CubeLightUpdateInfo info, long worldTime) {
+        if (info.scheduled) {
+            return;
+        }
+        info.scheduled = true;
+        info.scheduledTime = worldTime;
+        if (processing) {
+            added.add(info);
+        } else {
+            queue.add(info);
+        }
+    }
+
+    void unschedule(LightingManager.CubeLightUpdateInfo info) {
+        if (!info.scheduled) {
+            return;
+        }
+        info.scheduled = false;
+        if (processing) {
+            // the cube is skipped when it's reached, as it's not loaded anymore
+            added.remove(info);
+        } else {
+            queue.remove(info);
+        }
+    }
+
+    /**
+     * Processes scheduled cubes until all of them are done or the time budget runs out.
+     *
+     * @param budgetNanos the time budget
+     * @param priority returns true for cubes that should be processed before all others
+     */
+    void tick(long budgetNanos, Predicate<Cube> priority) {
+        long start = System.nanoTime();
+        BooleanSupplier outOfTime = () -> System.nanoTime() - start > budgetNanos;
+        processedLastTick = 0;
+        processing = true;
+        try {
+            if (process(priority, outOfTime)) {
+                process(cube -> true, outOfTime);
+            }
+        } finally {
+            processing = false;
+            queue.addAll(added);
+            added.clear();
+        }
+        nanosLastTick = System.nanoTime() - start;
+    }
+
+    /**
+     * @return true if all matching cubes have been processed, false if the time budget ran out
+     */
+    private boolean process(Predicate<Cube> filter, BooleanSupplier outOfTime) {
+        Iterator<LightingManager.CubeLightUpdateInfo> it = queue.iterator();
+        while (it.hasNext()) {
+            if (outOfTime.getAsBoolean()) {
+                return false;
+            }
+            LightingManager.CubeLightUpdateInfo info = it.next();
+            Cube cube = info.getCube();
+            if (!cube.isCubeLoaded() || !cube.isFullyPopulated()) {
+                // rescheduled when the cube is populated, or when it's loaded again
+                info.scheduled = false;
+                it.remove();
+                continue;
+            }
+            if (!filter.test(cube)) {
+                continue;
+            }
+            long scheduledTime = info.scheduledTime;
+            info.scheduled = false;
+            boolean done = info.tick(outOfTime);
+            processedLastTick++;
+            if (done && !info.scheduled) {
+                it.remove();
+                continue;
+            }
+            // unfinished, or scheduled again while being processed. Keep it at the same position in the queue.
+            if (info.scheduled) {
+                added.remove(info);
+            }
+            info.scheduled = true;
+            info.scheduledTime = scheduledTime;
+            if (!done) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getBacklogSize() {
+        return queue.size();
+    }
+
+    /**
+     * @return the amount of ticks since the oldest scheduled cube has been scheduled, or 0 if there are none
+     */
+    long getBacklogAge(long worldTime) {
+        Iterator<LightingManager.CubeLightUpdateInfo> it = queue.iterator();
+        return it.hasNext() ? worldTime - it.next().scheduledTime : 0;
+    }
+
+    int getProcessedLastTick() {
+        return processedLastTick;
+    }
+
+    long getNanosLastTick() {
+        return nanosLastTick;
+    }
+}
@@ -23,66 +23,188 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.lighting;
 
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZLongMap;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeSkyLightUpdates;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeWatcher;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
-import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
-import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
-import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
-import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
-import gnu.trove.list.TShortList;
-import gnu.trove.list.array.TShortArrayList;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
- * Tracks FirstLightProcessor lighting updates and sends them to client
+ * Tracks sky light changes on the server and sends them to players watching the changed cubes.
+ * <p>
+ * Changed positions are collected in a bitset per cube. {@link #sendAll()}, called once per tick, creates one update for each changed
+ * cube, containing either the changed values or the whole light array, whichever is smaller. Each player then gets a single packet with
+ * the updates of all cubes it watches.
  */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
 class LightUpdateTracker {
 
-    private final PlayerCubeMap cubeMap;
-    private XYZMap<CubeUpdateList> cubes = new XYZMap<>(0.5f, 100);
+    // each changed value takes 2 bytes, above this amount sending the whole light array is smaller
+    static final int MAX_PARTIAL_UPDATES = PacketCubeSkyLightUpdates.FULL_RELIGHT_BYTES / 2;
+    // very large updates are split into more packets, so that they stay well below the size limit of custom payload packets
+    static final int MAX_PACKET_BYTES = 512 * 1024;
+    private static final int MAX_FREE_UPDATES = 256;
+
+    // the tracker is created with the world, before its PlayerCubeMap exists
+    private final Supplier<PlayerCubeMap> cubeMap;
+    // reused every tick
+    private final XYZLongMap<CubeUpdates> cubes = new XYZLongMap<>(0.5f, 100);
+    private final ArrayDeque<CubeUpdates> freeUpdates = new ArrayDeque<>();
+    private final PlayerPackets<EntityPlayerMP> playerPackets =
+            new PlayerPackets<>((player, packet) -> PacketDispatcher.sendTo(packet, player));
+    // most updates come in runs in the same cube
+    @Nullable private CubeUpdates lastUpdated;
 
-    LightUpdateTracker(PlayerCubeMap cubeMap) {
+    LightUpdateTracker(Supplier<PlayerCubeMap> cubeMap) {
         this.cubeMap = cubeMap;
     }
 
     void onUpdate(BlockPos blockPos) {
-        CubeUpdateList list = cubes.get(blockPos.getX(), blockPos.getY(), blockPos.getZ());
-        if (list == null) {
-            list = new CubeUpdateList(CubePos.fromBlockCoords(blockPos));
-            cubes.put(list);
+        int cubeX = blockToCube(blockPos.getX());
+        int cubeY = blockToCube(blockPos.getY());
+        int cubeZ = blockToCube(blockPos.getZ());
+        CubeUpdates updates = this.lastUpdated;
+        if (updates == null || updates.getX() != cubeX || updates.getY() != cubeY || updates.getZ() != cubeZ) {
+            updates = cubes.get(cubeX, cubeY, cubeZ);
+            if (updates == null) {
+                updates = freeUpdates.isEmpty() ? new CubeUpdates() : freeUpdates.pop();
+                updates.pos = new CubePos(cubeX, cubeY, cubeZ);
+                cubes.put(updates);
+            }
+            this.lastUpdated = updates;
         }
-        list.add(blockPos);
+        updates.add(blockToLocal(blockPos.getX()), blockToLocal(blockPos.getY()), blockToLocal(blockPos.getZ()));
     }
 
+    /**
+     * Forgets changes in the given cube, used when the whole cube is sent to all players watching it
+     */
+    void discard(CubePos pos) {
+        CubeUpdates updates = cubes.remove(pos.getX(), pos.getY(), pos.getZ());
+        if (updates != null) {
+            if (updates == this.lastUpdated) {
+                this.lastUpdated = null;
+            }
+            release(updates);
+        }
+    }
+
+    /**
+     * Sends all changes since the last call to players watching the changed cubes
+     */
     void sendAll() {
-        cubes.forEach(CubeUpdateList::send);
-        cubes = new XYZMap<>(0.5f, 100);
+        if (cubes.getSize() == 0) {
+            return;
+        }
+        PlayerCubeMap cubeMap = this.cubeMap.get();
+        for (CubeUpdates updates : cubes) {
+            CubeWatcher watcher = cubeMap.getCubeWatcher(updates.pos);
+            Cube cube = watcher == null ? null : watcher.getCube();
+            if (cube != null && watcher.isSentToPlayers()) {
+                ExtendedBlockStorage storage = cube.getStorage();
+                PacketCubeSkyLightUpdates.Entry entry = createEntry(updates, storage == null ? null : storage.getSkyLight());
+                int bytes = updates.getPacketBytes();
+                watcher.forEachPlayer(player -> playerPackets.add(player, entry, bytes));
+            }
+            release(updates);
+        }
+        cubes.clear();
+        this.lastUpdated = null;
+
+        playerPackets.sendAll();
     }
 
-    private class CubeUpdateList implements XYZAddressable {
+    /**
+     * @return the changes in the given cube since the last {@link #sendAll()}, null if there are none
+     */
+    @Nullable CubeUpdates getUpdates(CubePos pos) {
+        return cubes.get(pos.getX(), pos.getY(), pos.getZ());
+    }
 
-        private static final int MAX_COUNT = 64;
-        private final CubePos pos;
-        private final TShortList updates = new TShortArrayList(MAX_COUNT);
+    /**
+     * Creates the packet entry with the changed light values of a cube, or with the whole light array if that's smaller
+     *
+     * @param skyLight the current sky light of the cube, null if the cube has no block storage
+     */
+    static PacketCubeSkyLightUpdates.Entry createEntry(CubeUpdates updates, @Nullable NibbleArray skyLight) {
+        return updates.count > MAX_PARTIAL_UPDATES
+                ? PacketCubeSkyLightUpdates.Entry.fullRelight(updates.pos, skyLight)
+                : PacketCubeSkyLightUpdates.Entry.update(updates.pos, skyLight, updates.changed, updates.count);
+    }
+
+    private void release(CubeUpdates updates) {
+        if (freeUpdates.size() < MAX_FREE_UPDATES) {
+            updates.clear();
+            freeUpdates.push(updates);
+        }
+    }
 
-        CubeUpdateList(CubePos pos) {
+    static class CubeUpdates implements XYZAddressable {
+
+        // one bit for each block, at index y << 8 | z << 4 | x
+        private final long[] changed = new long[Cube.SIZE * Cube.SIZE * Cube.SIZE / 64];
+        private int count;
+        private CubePos pos;
+
+        CubeUpdates() {
+        }
+
+        CubeUpdates(CubePos pos) {
             this.pos = pos;
         }
 
-        void add(BlockPos pos) {
-            if (updates.size() >= MAX_COUNT) {
-                return;
+        /**
+         * @return the amount of changed positions
+         */
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the size of the light data sent for these changes
+         */
+        int getPacketBytes() {
+            return count > MAX_PARTIAL_UPDATES ? PacketCubeSkyLightUpdates.FULL_RELIGHT_BYTES : count * 2;
+        }
+
+        void add(int localX, int localY, int localZ) {
+            int index = localY << 8 | localZ << 4 | localX;
+            long bit = 1L << index;
+            if ((changed[index >> 6] & bit) == 0) {
+                changed[index >> 6] |= bit;
+                count++;
             }
-            updates.add((short) AddressTools.getLocalAddress(pos));
         }
 
-        void send() {
-            CubeWatcher watcher = cubeMap.getCubeWatcher(this.pos);
-            if (watcher != null && watcher.isSentToPlayers()) {
-                watcher.sendPacketToAllPlayers(new PacketCubeSkyLightUpdates(watcher.getCube(), this.updates));
+        void clear() {
+            if (count != 0) {
+                Arrays.fill(changed, 0);
+                count = 0;
             }
-            updates.clear();
         }
 
         @Override public int getX() {
@@ -97,4 +219,42 @@ class LightUpdateTracker {
             return pos.getZ();
         }
     }
+
+    /**
+     * Collects the entries to send to each player, and sends each player a single packet with all of them. Packets are split when they
+     * would get bigger than {@link #MAX_PACKET_BYTES}.
+     *
+     * @param <P> the player type
+     */
+    static class PlayerPackets<P> {
+
+        private final BiConsumer<P, PacketCubeSkyLightUpdates> sender;
+        private final Map<P, Bundle> bundles = new IdentityHashMap<>();
+
+        PlayerPackets(BiConsumer<P, PacketCubeSkyLightUpdates> sender) {
+            this.sender = sender;
+        }
+
+        void add(P player, PacketCubeSkyLightUpdates.Entry entry, int bytes) {
+            Bundle bundle = bundles.computeIfAbsent(player, p -> new Bundle());
+            if (bundle.bytes + bytes > MAX_PACKET_BYTES && !bundle.entries.isEmpty()) {
+                sender.accept(player, new PacketCubeSkyLightUpdates(bundle.entries));
+                bundle.entries = new ArrayList<>();
+                bundle.bytes = 0;
+            }
+            bundle.entries.add(entry);
+            bundle.bytes += bytes;
+        }
+
+        void sendAll() {
+            bundles.forEach((player, bundle) -> sender.accept(player, new PacketCubeSkyLightUpdates(bundle.entries)));
+            bundles.clear();
+        }
+
+        private static class Bundle {
+
+            private List<PacketCubeSkyLightUpdates.Entry> entries = new ArrayList<>();
+            private int bytes;
+        }
+    }
 }
@@ -29,6 +29,9 @@ import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlo
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.localToBlock;
 
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
@@ -50,6 +53,8 @@ import net.minecraft.world.chunk.Chunk;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -64,28 +69,30 @@ public class LightingManager implements ILightingManager {
     public static final boolean NO_SUNLIGHT_PROPAGATION = "true".equalsIgnoreCase(System.getProperty("cubicchunks.nosunlight"));
 
     public static final int MAX_CLIENT_LIGHT_SCAN_DEPTH = 64;
+    // while light updates are falling behind, how often the backlog is logged, in ticks
+    private static final int BACKLOG_LOG_INTERVAL = 200;
     @Nonnull private World world;
     @Nonnull private LightPropagator lightPropagator = new LightPropagator();
     @Nonnull private final List<IHeightChangeListener> heightUpdateListeners = new ArrayList<>();
-    @Nullable private LightUpdateTracker tracker;
+    // sky light changes to send to players, only used on the server
+    @Nullable private final LightUpdateTracker tracker;
+    // light updates caused by block changes in this tick, only used on the server
+    @Nonnull private final LightUpdateBatch batch = new LightUpdateBatch();
+    // cubes with pending edge and column updates, only used on the server
+    @Nullable private final LightUpdateScheduler scheduler;
 
     public LightingManager(World world) {
         this.world = world;
-
+        this.scheduler = world.isRemote || NO_SUNLIGHT_PROPAGATION ? null : new LightUpdateScheduler();
+        this.tracker = world.isRemote || NO_SUNLIGHT_PROPAGATION ? null
+                : new LightUpdateTracker(() -> (PlayerCubeMap) ((WorldServer) world).getPlayerChunkMap());
     }
 
     @Nullable
-    private LightUpdateTracker getTracker() {
-        if (NO_SUNLIGHT_PROPAGATION) {
-            return null;
-        }
-        if (tracker == null) {
-            if (!world.isRemote) {
-                tracker = new LightUpdateTracker((PlayerCubeMap) ((WorldServer) world).getPlayerChunkMap());
-            }
-        }
+    LightUpdateTracker getTracker() {
         return tracker;
     }
+
     /**
      * Registers height change listener, that receives all height changes after initial lighting is done
      */
@@ -114,7 +121,18 @@ public class LightingManager implements ILightingManager {
         int blockX = Coords.localToBlock(column.x, localX);
         int blockZ = Coords.localToBlock(column.z, localZ);
 
-        if (type == UpdateType.IMMEDIATE) {
+        if (type == UpdateType.IMMEDIATE && !world.isRemote && CubicChunksConfig.batchLightUpdates) {
+            TIntSet toDiffuse = SkyLightUpdateCubeSelector.getCubesY(column, localX, localZ, minY, maxY);
+            TIntIterator it = toDiffuse.iterator();
+            while (it.hasNext()) {
+                int cubeY = it.next();
+                int minInCubeY = MathHelper.clamp(minY, cubeToMinBlock(cubeY), cubeToMaxBlock(cubeY));
+                int maxInCubeY = MathHelper.clamp(maxY, cubeToMinBlock(cubeY), cubeToMaxBlock(cubeY));
+                for (int blockY = minInCubeY; blockY <= maxInCubeY; blockY++) {
+                    batch.add(EnumSkyBlock.SKY, new BlockPos(blockX, blockY, blockZ));
+                }
+            }
+        } else if (type == UpdateType.IMMEDIATE) {
             TIntSet toDiffuse = SkyLightUpdateCubeSelector.getCubesY(column, localX, localZ, minY, maxY);
             TIntIterator it = toDiffuse.iterator();
             while (it.hasNext()) {
@@ -209,6 +227,68 @@ public class LightingManager implements ILightingManager {
         }
     }
 
+    /**
+     * Updates light for all block changes since the last update. Light updates caused by block changes on the server are batched and
+     * done at the end of each tick, this can be used when up to date light values are needed earlier.
+     */
+    public void flushLightUpdates() {
+        if (NO_SUNLIGHT_PROPAGATION || batch.isEmpty()) {
+            return;
+        }
+        world.profiler.startSection("flushLightUpdates");
+        batch.flush((ICubicWorld) world, (ICubeProviderInternal) world.getChunkProvider(), lightPropagator, world::notifyLightSet);
+        world.profiler.endSection();
+    }
+
+    /**
+     * Called at the end of each server world tick
+     */
+    public void tick() {
+        flushLightUpdates();
+        if (scheduler != null) {
+            world.profiler.startSection("scheduledLightUpdates");
+            PlayerCubeMap playerCubeMap = (PlayerCubeMap) ((WorldServer) world).getPlayerChunkMap();
+            scheduler.tick(TimeUnit.MILLISECONDS.toNanos(CubicChunksConfig.lightUpdateTimeBudget),
+                    cube -> playerCubeMap.getCubeWatcher(cube.getCoords()) != null);
+            world.profiler.endSection();
+            long age = scheduler.getBacklogAge(world.getTotalWorldTime());
+            if (age > 0 && age % BACKLOG_LOG_INTERVAL == 0) {
+                CubicChunks.LOGGER.debug("Light updates of {} cubes pending for up to {} ticks, processed {} cubes in {} us last tick",
+                        scheduler.getBacklogSize(), age, scheduler.getProcessedLastTick(),
+                        TimeUnit.NANOSECONDS.toMicros(scheduler.getNanosLastTick()));
+            }
+        }
+        if (tracker != null) {
+            world.profiler.startSection("sendLightUpdates");
+            tracker.sendAll();
+            world.profiler.endSection();
+        }
+        LightQueueSegmentPool.INSTANCE.releaseIdle(System.currentTimeMillis());
+    }
+
+    /**
+     * Called when the whole cube has been sent to all players watching it, light changes in it until now don't need to be sent again.
+     */
+    public void onCubeSentToPlayers(CubePos pos) {
+        if (tracker != null) {
+            tracker.discard(pos);
+        }
+    }
+
+    /**
+     * @return the amount of cubes with scheduled light updates that haven't been processed yet. Always 0 on the client.
+     */
+    public int getLightUpdateBacklogSize() {
+        return scheduler == null ? 0 : scheduler.getBacklogSize();
+    }
+
+    /**
+     * @return the amount of ticks the oldest scheduled light update has been waiting for. Always 0 on the client.
+     */
+    public long getLightUpdateBacklogAge() {
+        return scheduler == null ? 0 : scheduler.getBacklogAge(world.getTotalWorldTime());
+    }
+
     private enum UpdateType {
         IMMEDIATE, QUEUED
     }
@@ -219,19 +299,65 @@ public class LightingManager implements ILightingManager {
         private final Cube cube;
         private final boolean[] toUpdateColumns = new boolean[Cube.SIZE * Cube.SIZE];
         private boolean hasUpdates;
+        // managed by LightUpdateScheduler
+        boolean scheduled;
+        long scheduledTime;
 
         public CubeLightUpdateInfo(Cube cube) {
             this.cube = cube;
         }
 
+        Cube getCube() {
+            return cube;
+        }
+
         void markBlockColumnForUpdate(int localX, int localZ) {
             toUpdateColumns[index(localX, localZ)] = true;
             hasUpdates = true;
+            schedule();
+        }
+
+        /**
+         * Schedules processing of pending updates of this cube on the server. Has no effect on the client, where cubes process their
+         * updates when they are ticked.
+         */
+        public void schedule() {
+            if (cube == null) {
+                return; // BlankCube
+            }
+            World world = cube.getWorld();
+            LightUpdateScheduler scheduler = ((ICubicWorldInternal) world).getLightingManager().scheduler;
+            if (scheduler != null && cube.isCubeLoaded()) {
+                scheduler.schedule(this, world.getTotalWorldTime());
+            }
+        }
+
+        /**
+         * Removes this cube from the server light update schedule, called when it's unloaded.
+         */
+        public void unschedule() {
+            if (cube == null) {
+                return; // BlankCube
+            }
+            World world = cube.getWorld();
+            LightUpdateScheduler scheduler = ((ICubicWorldInternal) world).getLightingManager().scheduler;
+            if (scheduler != null) {
+                scheduler.unschedule(this);
+            }
         }
 
         public void tick() {
+            tick(() -> false);
+        }
+
+        /**
+         * Processes pending updates of this cube until all of them are done or {@code stop} returns true.
+         *
+         * @return true if all updates that can currently be done are done, false if some were left for later
+         */
+        boolean tick(BooleanSupplier stop) {
             if (NO_SUNLIGHT_PROPAGATION) {
-                return;
+                return true;
             }
             ICubicWorldInternal cubicWorld = cube.getWorld();
             LightingManager manager = cubicWorld.getLightingManager();
@@ -247,6 +373,9 @@ public class LightingManager implements ILightingManager {
                             cpos.getZ() + dir.getFrontOffsetZ());
                     if (loadedCube == null)
                         continue;
+                    if (stop.getAsBoolean()) {
+                        return false;
+                    }
 
                     int fromBlockX = cpos.getMinBlockX();
                     int fromBlockY = cpos.getMinBlockY();
@@ -295,13 +424,16 @@ public class LightingManager implements ILightingManager {
                 }
             }
             if (!this.hasUpdates) {
-                return;
+                return true;
             }
             for (int localX = 0; localX < Cube.SIZE; localX++) {
                 for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
                     if (!toUpdateColumns[index(localX, localZ)]) {
                         continue;
                     }
+                    if (stop.getAsBoolean()) {
+                        return false;
+                    }
                     manager.relightMultiBlock(
                             new BlockPos(localToBlock(cube.getX(), localX), cubeToMinBlock(cube.getY()), localToBlock(cube.getZ(), localZ)),
                             new BlockPos(localToBlock(cube.getX(), localX), cubeToMaxBlock(cube.getY()), localToBlock(cube.getZ(), localZ)),
@@ -316,6 +448,7 @@ public class LightingManager implements ILightingManager {
                 }
             }
             this.hasUpdates = false;
+            return true;
         }
 
         private int index(int x, int z) {
@@ -134,7 +134,7 @@ public class ClientHandler implements INetHandler {
             worldClient.invalidateBlockReceiveRegion(pos.getX(), pos.getY(), pos.getZ(), pos.getX(), pos.getY(), pos.getZ());
             worldClient.setBlockState(pos, packet.blockStates[i], 3);
         }
-        cube.getTileEntityMap().values().forEach(TileEntity::updateContainingBlockInfo);
+        cube.getTileEntityMapView().values().forEach(TileEntity::updateContainingBlockInfo);
     }
 
     public void handle(PacketHeightMapUpdate message) {
@@ -183,9 +183,20 @@ public class ClientHandler implements INetHandler {
         WorldClient worldClient = Minecraft.getMinecraft().world;
         CubeProviderClient cubeCache = (CubeProviderClient) worldClient.getChunkProvider();
 
-        // get the cube
-        Cube cube = cubeCache.getCube(message.getCubePos());
-        if (message.getData() == null) {
+        for (PacketCubeSkyLightUpdates.Entry entry : message.getEntries()) {
+            // get the cube
+            Cube cube = cubeCache.getCube(entry.getCubePos());
+            if (cube instanceof BlankCube) {
+                // not received yet, it will be sent with its current light
+                continue;
+            }
+            handleSkyLightUpdate(worldClient, cube, entry);
+        }
+    }
+
+    private void handleSkyLightUpdate(WorldClient worldClient, Cube cube, PacketCubeSkyLightUpdates.Entry entry) {
+        byte[] data = entry.getData();
+        if (data == null) {
             // this means the EBS was null serverside. So it needs to be null clientside
             cube.setStorage(Chunk.NULL_BLOCK_STORAGE);
             return;
@@ -195,12 +206,12 @@ public class ClientHandler implements INetHandler {
             cube.setStorage(storage = new ExtendedBlockStorage(cube.getY(), worldClient.provider.hasSkyLight()));
         }
         assert storage != null;
-        if (message.isFullRelight()) {
-            storage.setSkyLight(new NibbleArray(message.getData()));
+        if (entry.isFullRelight()) {
+            storage.setSkyLight(new NibbleArray(data));
         } else {
-            for (int i = 0; i < message.updateCount(); i++) {
-                int packed1 = message.getData()[i * 2] & 0xFF;
-                int packed2 = message.getData()[i * 2 + 1] & 0xFF;
+            for (int i = 0; i < entry.updateCount(); i++) {
+                int packed1 = data[i * 2] & 0xFF;
+                int packed2 = data[i * 2 + 1] & 0xFF;
                 storage.setSkyLight(Bits.unpackUnsigned(packed1, 4, 0), Bits.unpackUnsigned(packed1, 4, 4),
                         Bits.unpackUnsigned(packed2, 4, 0), Bits.unpackUnsigned(packed2, 4, 4));
             }
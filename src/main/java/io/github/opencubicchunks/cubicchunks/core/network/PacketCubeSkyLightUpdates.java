@@ -23,104 +23,161 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.network;
 
-import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
 import io.github.opencubicchunks.cubicchunks.api.util.Bits;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
-import gnu.trove.list.TShortList;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.NibbleArrays;
 import io.netty.buffer.ByteBuf;
+import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.world.chunk.NibbleArray;
 import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * Sky light changes of any amount of cubes, sent to each player at most once per tick. For each cube, either the changed values or the
+ * whole light array are sent.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
 public class PacketCubeSkyLightUpdates implements IMessage {
 
-    private CubePos cube;
-    private boolean isFullRelight;
-    private byte[] data;
+    /**
+     * Size of the whole light array of a cube, in bytes. Each changed value takes 2 bytes.
+     */
+    public static final int FULL_RELIGHT_BYTES = Cube.SIZE * Cube.SIZE * Cube.SIZE / 2;
 
-    public PacketCubeSkyLightUpdates() {
-    }
+    private List<Entry> entries;
 
-    public PacketCubeSkyLightUpdates(Cube cube, TShortList updates) {
-        if (cube.getStorage() == null) {
-            // no light
-            this.isFullRelight = true;
-            this.data = null;
-            return;
-        }
-        this.cube = cube.getCoords();
-        this.data = new byte[updates.size() * 2];
-        for (int i = 0; i < updates.size(); i++) {
-            short packed = updates.get(i);
-            int localX = AddressTools.getLocalX(packed);
-            int localY = AddressTools.getLocalY(packed);
-            int localZ = AddressTools.getLocalZ(packed);
-            int value = cube.getStorage().getSkyLight(localX, localY, localZ);
-            byte byte1 = (byte) (Bits.packUnsignedToInt(localX, 4, 0) | Bits.packUnsignedToInt(localY, 4, 4));
-            byte byte2 = (byte) (Bits.packUnsignedToInt(localZ, 4, 0) | Bits.packUnsignedToInt(value, 4, 4));
-            this.data[i * 2] = byte1;
-            this.data[i * 2 + 1] = byte2;
-        }
+    public PacketCubeSkyLightUpdates() {
     }
 
-    public PacketCubeSkyLightUpdates(Cube cube) {
-        this.isFullRelight = true;
-        if (cube.getStorage() == null) {
-            // no light
-            this.data = null;
-            return;
-        }
-        this.cube = cube.getCoords();
-        this.data = Arrays.copyOf(cube.getStorage().getSkyLight().getData(), Cube.SIZE * Cube.SIZE * Cube.SIZE / 2);
+    public PacketCubeSkyLightUpdates(List<Entry> entries) {
+        this.entries = entries;
     }
 
     @Override
     public void fromBytes(ByteBuf buf) {
-        this.cube = new CubePos(buf.readInt(), buf.readInt(), buf.readInt());
-        this.isFullRelight = buf.readBoolean();
-        boolean hasData = buf.readBoolean();
-        if (hasData) {
-            int size = ByteBufUtils.readVarInt(buf, 3);
-            this.data = new byte[size];
-            buf.readBytes(this.data);
+        int count = ByteBufUtils.readVarInt(buf, 5);
+        this.entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CubePos cube = new CubePos(buf.readInt(), buf.readInt(), buf.readInt());
+            boolean isFullRelight = buf.readBoolean();
+            byte[] data = null;
+            if (buf.readBoolean()) {
+                int size = ByteBufUtils.readVarInt(buf, 3);
+                data = new byte[size];
+                buf.readBytes(data);
+            }
+            this.entries.add(new Entry(cube, isFullRelight, data));
         }
     }
 
     @Override
     public void toBytes(ByteBuf buf) {
-        buf.writeInt(this.cube.getX());
-        buf.writeInt(this.cube.getY());
-        buf.writeInt(this.cube.getZ());
-
-        buf.writeBoolean(this.isFullRelight);
-        buf.writeBoolean(this.data != null);
-
-        if (this.data != null) {
-            ByteBufUtils.writeVarInt(buf, this.data.length, 3);
-            buf.writeBytes(this.data);
+        ByteBufUtils.writeVarInt(buf, this.entries.size(), 5);
+        for (Entry entry : this.entries) {
+            buf.writeInt(entry.cube.getX());
+            buf.writeInt(entry.cube.getY());
+            buf.writeInt(entry.cube.getZ());
+
+            buf.writeBoolean(entry.isFullRelight);
+            buf.writeBoolean(entry.data != null);
+
+            if (entry.data != null) {
+                ByteBufUtils.writeVarInt(buf, entry.data.length, 3);
+                buf.writeBytes(entry.data);
+            }
         }
     }
 
-    CubePos getCubePos() {
-        return cube;
+    public List<Entry> getEntries() {
+        return entries;
     }
 
-    boolean isFullRelight() {
-        return isFullRelight;
-    }
+    /**
+     * Light changes of one cube. The same entry can be sent to multiple players.
+     */
+    public static class Entry {
 
-    byte[] getData() {
-        return data;
-    }
+        private final CubePos cube;
+        private final boolean isFullRelight;
+        @Nullable private final byte[] data;
+
+        Entry(CubePos cube, boolean isFullRelight, @Nullable byte[] data) {
+            this.cube = cube;
+            this.isFullRelight = isFullRelight;
+            this.data = data;
+        }
+
+        /**
+         * Creates an entry with the current values at the given positions of the cube
+         *
+         * @param cube position of the cube
+         * @param skyLight sky light of the cube, null if the cube has no block storage
+         * @param changed bits of changed positions, at index {@code y << 8 | z << 4 | x}
+         * @param count the amount of set bits
+         */
+        public static Entry update(CubePos cube, @Nullable NibbleArray skyLight, long[] changed, int count) {
+            if (skyLight == null) {
+                // no light
+                return new Entry(cube, true, null);
+            }
+            byte[] data = new byte[count * 2];
+            int i = 0;
+            for (int word = 0; word < changed.length; word++) {
+                long bits = changed[word];
+                while (bits != 0) {
+                    int index = word << 6 | Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    int localX = index & 0xF;
+                    int localZ = index >> 4 & 0xF;
+                    int localY = index >> 8;
+                    int value = skyLight.get(localX, localY, localZ);
+                    data[i++] = (byte) (Bits.packUnsignedToInt(localX, 4, 0) | Bits.packUnsignedToInt(localY, 4, 4));
+                    data[i++] = (byte) (Bits.packUnsignedToInt(localZ, 4, 0) | Bits.packUnsignedToInt(value, 4, 4));
+                }
+            }
+            assert i == data.length;
+            return new Entry(cube, false, data);
+        }
+
+        /**
+         * Creates an entry with the whole light array of the cube
+         *
+         * @param cube position of the cube
+         * @param skyLight sky light of the cube, null if the cube has no block storage
+         */
+        public static Entry fullRelight(CubePos cube, @Nullable NibbleArray skyLight) {
+            if (skyLight == null) {
+                // no light
+                return new Entry(cube, true, null);
+            }
+            return new Entry(cube, true, NibbleArrays.copyOf(skyLight).getData());
+        }
+
+        public CubePos getCubePos() {
+            return cube;
+        }
+
+        public boolean isFullRelight() {
+            return isFullRelight;
+        }
 
-    public int updateCount() {
-        return data.length / 2;
+        @Nullable public byte[] getData() {
+            return data;
+        }
+
+        public int updateCount() {
+            return data == null ? 0 : data.length / 2;
+        }
     }
 
     public static class Handler extends AbstractClientMessageHandler<PacketCubeSkyLightUpdates> {
@@ -131,4 +188,4 @@ public class PacketCubeSkyLightUpdates implements IMessage {
             return null;
         }
     }
-}
\ No newline at end of file
+}
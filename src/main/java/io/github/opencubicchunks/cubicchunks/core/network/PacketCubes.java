@@ -72,7 +72,7 @@ public class PacketCubes implements IMessage {
         this.tileEntityTags = new ArrayList<>();
 
         cubes.forEach(cube ->
-                tileEntityTags.add(cube.getTileEntityMap().values().stream().map(TileEntity::getUpdateTag).collect(Collectors.toList()))
+                tileEntityTags.add(cube.getTileEntityMapView().values().stream().map(TileEntity::getUpdateTag).collect(Collectors.toList()))
         );
     }
 
@@ -176,9 +176,10 @@ class WorldEncoder {
                 size += cube.getStorage().getData().getSerializedSize();
             }
             if (cube.getStorage() != null) {
-                size += cube.getStorage().getBlockLight().getData().length;
+                // not using getData().length, off-heap light arrays return a copy
+                size += Cube.SIZE * Cube.SIZE * Cube.SIZE / 2;
                 if (cube.getWorld().provider.hasSkyLight()) {
-                    size += cube.getStorage().getSkyLight().getData().length;
+                    size += Cube.SIZE * Cube.SIZE * Cube.SIZE / 2;
                 }
             }
         }
@@ -93,6 +93,7 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
         }
 
         this.getPlayers().add(player);
+        this.playerCubeMap.priorityChanged(this);
 
         //always sent to players, no need to check it
 
@@ -111,6 +112,7 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
         }
         if (this.getChunk() == null) {
             this.getPlayers().remove(player);
+            this.playerCubeMap.priorityChanged(this);
             if (this.getPlayers().isEmpty()) {
                 if (isLoading()) {
                     AsyncWorldIOExecutor.dropQueuedColumnLoad(
@@ -126,6 +128,7 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
         }
 
         this.getPlayers().remove(player);
+        this.playerCubeMap.priorityChanged(this);
 
         MinecraftForge.EVENT_BUS.post(new ChunkWatchEvent.UnWatch(this.getPos(), player));
 
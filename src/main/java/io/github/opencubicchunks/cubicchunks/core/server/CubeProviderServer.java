@@ -23,6 +23,9 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.server;
 
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+
+import io.github.opencubicchunks.cubicchunks.core.lighting.FirstLightProcessor;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.RegionCubeIO;
@@ -38,16 +41,20 @@ import io.github.opencubicchunks.cubicchunks.core.server.chunkio.RegionCubeIO;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import io.github.opencubicchunks.cubicchunks.api.util.Box;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
-import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZLongMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.material.Material;
+import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.profiler.Profiler;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.NextTickListEntry;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.biome.Biome;
@@ -57,9 +64,12 @@ import net.minecraftforge.common.ForgeChunkManager;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import javax.annotation.Detainted;
@@ -84,10 +94,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     @Nonnull private ICubeIO cubeIO;
 
     // TODO: Use a better hash map!
-    @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    @Nonnull private XYZLongMap<Cube> cubeMap = new XYZLongMap<>(0.7f, 8000);
 
     @Nonnull private ICubeGenerator cubeGen;
     @Nonnull private Profiler profiler;
+    @Nonnull private ScheduledTickWheel scheduledTicks;
     private final boolean doRandomBlockTicksHere;
 
     public CubeProviderServer(WorldServer worldServer, ICubeGenerator cubeGen) {
@@ -98,6 +109,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         this.cubeGen = cubeGen;
         this.worldServer = worldServer;
         this.profiler = ((WorldServer) worldServer).profiler;
+        this.scheduledTicks = new ScheduledTickWheel(worldServer.getTotalWorldTime());
         try {
             this.cubeIO = new RegionCubeIO(worldServer);
         } catch (IOException e) {
@@ -179,9 +191,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
     @Override
     public boolean saveChunks(boolean alwaysTrue) {
+        // light changes don't mark cubes as modified, update it before the cubes changed this tick are saved
+        ((ICubicWorldInternal) worldServer).getLightingManager().flushLightUpdates();
         for (Cube cube : cubeMap) { // save cubes
             if (cube.needsSaving()) {
-                this.cubeIO.saveCube(cube);
+                this.cubeIO.saveCube(cube, false);
             }
         }
         for (Chunk chunk : id2ChunkMap.values()) { // save columns
@@ -201,6 +215,9 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         long i = System.currentTimeMillis();
         int randomTickSpeed = this.world.getGameRules().getInt("randomTickSpeed");
         Random rand = this.world.rand;
+        profiler.startSection("scheduledTicks");
+        scheduledTicks.tick(this.world.getTotalWorldTime(), entry -> runScheduledTick(entry, rand));
+        profiler.endSection();
         PlayerCubeMap playerCubeMap = ((PlayerCubeMap) this.world.getPlayerChunkMap());
         Iterator<Cube> watchersIterator = playerCubeMap.getCubeIterator();
         while (watchersIterator.hasNext()) {
@@ -216,6 +233,22 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return false;
     }
 
+    private boolean runScheduledTick(NextTickListEntry entry, Random rand) {
+        BlockPos pos = entry.position;
+        Cube cube = getLoadedCube(blockToCube(pos.getX()), blockToCube(pos.getY()), blockToCube(pos.getZ()));
+        if (cube == null) {
+            return true; // the cube has been unloaded by an earlier tick, its ticks have been saved with it
+        }
+        if (!cube.isFullyPopulated()) {
+            return false;
+        }
+        IBlockState state = cube.getBlockState(pos);
+        if (state.getMaterial() != Material.AIR && Block.isEqualTo(state.getBlock(), entry.getBlock())) {
+            state.getBlock().updateTick(this.world, pos, state, rand);
+        }
+        return true;
+    }
+
     @Override
     public String makeString() {
         return "CubeProviderServer: " + this.id2ChunkMap.size() + " columns, "
@@ -382,9 +415,9 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         if (!cube.isFullyPopulated()) {
             // forced full population of this cube
             populateCube(cube);
-            if (req == Requirement.POPULATE) {
-                return cube;
-            }
+        }
+        if (req == Requirement.POPULATE) {
+            return cube;
         }
 
         //TODO: Direct skylight might have changed and even Cubes that have there
@@ -459,6 +492,34 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             cube.setInitialLightingDone(true);
             return;
         }
+        generateLightingNeighbors(cube);
+        ((ICubicWorldInternal.Server) this.worldServer).getFirstLightProcessor().diffuseSkylight(cube);
+    }
+
+    /**
+     * Initialize skylight for the given fully populated cubes, generating surrounding cubes as needed. Cubes that don't affect each
+     * other's lighting may be lit in parallel, see {@link FirstLightProcessor#diffuseSkylight(List)}.
+     *
+     * @param cubes The cubes to light up
+     */
+    public void calculateDiffuseSkylight(List<Cube> cubes) {
+        List<Cube> toLight = new ArrayList<>(cubes.size());
+        Set<Cube> added = new HashSet<>();
+        for (Cube cube : cubes) {
+            if (cube.isInitialLightingDone() || !added.add(cube)) {
+                continue;
+            }
+            if (LightingManager.NO_SUNLIGHT_PROPAGATION) {
+                cube.setInitialLightingDone(true);
+                continue;
+            }
+            generateLightingNeighbors(cube);
+            toLight.add(cube);
+        }
+        ((ICubicWorldInternal.Server) this.worldServer).getFirstLightProcessor().diffuseSkylight(toLight);
+    }
+
+    private void generateLightingNeighbors(Cube cube) {
         int cubeX = cube.getX();
         int cubeY = cube.getY();
         int cubeZ = cube.getZ();
@@ -473,7 +534,6 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
                 }
             }
         }
-        ((ICubicWorldInternal.Server) this.worldServer).getFirstLightProcessor().diffuseSkylight(cube);
     }
 
 
@@ -581,6 +641,10 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return cubeIO;
     }
 
+    public ScheduledTickWheel getScheduledTicks() {
+        return scheduledTicks;
+    }
+
     Iterator<Cube> cubesIterator() {
         return cubeMap.iterator();
     }
@@ -598,12 +662,15 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             return false; // There are tickets
         }
 
+        // scheduled ticks don't mark the cube as modified, but they would be lost if the cube isn't saved.
+        // The cube is saved before unloading it, as unloading releases off-heap light
+        if (cube.needsSaving() || scheduledTicks.hasTicks(cube.getX(), cube.getY(), cube.getZ())) {
+            this.cubeIO.saveCube(cube, true);
+        }
+
         // unload the Cube!
         cube.onUnload();
-
-        if (cube.needsSaving()) { // save the Cube, if it needs saving
-            this.cubeIO.saveCube(cube);
-        }
+        scheduledTicks.removeCube(cube.getX(), cube.getY(), cube.getZ());
 
         if (cube.getColumn().removeCube(cube.getY()) == null) {
             throw new RuntimeException();
@@ -108,6 +108,7 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
             this.previousWorldTime = this.getWorldTime();
         }
         this.players.put(player.getEntityId(), new WatcherPlayerEntry(player));
+        this.playerCubeMap.priorityChanged(this);
 
         if (this.sentToPlayers) {
             this.sendToPlayer(player);
@@ -124,6 +125,7 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         // If we haven't loaded yet don't load the chunk just so we can clean it up
         if (this.cube == null) {
             this.players.remove(player.getEntityId());
+            this.playerCubeMap.priorityChanged(this);
 
             if (this.players.isEmpty()) {
                 if (loading) {
@@ -141,6 +143,7 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         }
 
         this.players.remove(player.getEntityId());
+        this.playerCubeMap.priorityChanged(this);
         MinecraftForge.EVENT_BUS.post(new CubeUnWatchEvent(cube, cubePos, this, player));
 
         if (this.players.isEmpty()) {
@@ -150,6 +153,14 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
     // CHECKED: 1.10.2-12.18.1.2092
     boolean providePlayerCube(boolean canGenerate) {
+        return providePlayerCube(canGenerate, true);
+    }
+
+    /**
+     * @param light if false, a generated cube that doesn't have initial lighting done yet is only populated and false is returned, so
+     * that the caller can light it together with other cubes
+     */
+    boolean providePlayerCube(boolean canGenerate, boolean light) {
         if (loading) {
             return false;
         }
@@ -162,13 +173,18 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
         playerCubeMap.getWorldServer().profiler.startSection("getCube");
         if (canGenerate) {
-            this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, ICubeProviderServer.Requirement.LIGHT);
+            this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ,
+                    light ? ICubeProviderServer.Requirement.LIGHT : ICubeProviderServer.Requirement.POPULATE);
         } else {
             this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, ICubeProviderServer.Requirement.LOAD);
         }
         if (this.cube != null) {
             this.cube.getTickets().add(this);
         }
+        if (!light && canGenerate && this.cube != null && !this.cube.isInitialLightingDone()) {
+            playerCubeMap.getWorldServer().profiler.endSection();
+            return false;
+        }
         playerCubeMap.getWorldServer().profiler.endStartSection("light");
         if (this.cube != null) {
             LightingManager.CubeLightUpdateInfo info = this.cube.getCubeLightUpdateInfo();
@@ -205,6 +221,8 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         this.dirtyBlocks.clear();
         //set to true before adding to queue so that sendToPlayer can actually add it
         this.sentToPlayers = true;
+        // the cube is sent with its current light, light changes until now don't need to be sent separately
+        ((ICubicWorldInternal) playerCubeMap.getWorldServer()).getLightingManager().onCubeSentToPlayers(this.cubePos);
 
         for (WatcherPlayerEntry playerEntry : this.players.valueCollection()) {
             MinecraftForge.EVENT_BUS.post(new CubeWatchEvent(cube, cubePos, this, playerEntry.player));
@@ -296,6 +314,15 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         sendPacketToAllPlayers(packet);
     }
 
+    /**
+     * Calls the given action for each player watching this cube
+     */
+    public void forEachPlayer(Consumer<EntityPlayerMP> action) {
+        for (WatcherPlayerEntry entry : this.players.valueCollection()) {
+            action.accept(entry.player);
+        }
+    }
+
     boolean containsPlayer(EntityPlayerMP player) {
         return this.players.containsKey(player.getEntityId());
     }
@@ -29,7 +29,6 @@ import static net.minecraft.util.math.MathHelper.clamp;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
@@ -37,7 +36,7 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubes;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
-import io.github.opencubicchunks.cubicchunks.core.util.WatchersSortingList;
+import io.github.opencubicchunks.cubicchunks.core.util.WatcherPriorityQueue;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CubeSelector;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
@@ -46,7 +45,7 @@ import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubes;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
-import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZLongMap;
 import io.github.opencubicchunks.cubicchunks.api.util.XZMap;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CubeSelector;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
@@ -69,13 +68,13 @@ import net.minecraftforge.common.ForgeChunkManager.Ticket;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.ToIntFunction;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -95,22 +94,20 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             (!player.isSpectator() || player.getServerWorld().getGameRules().getBoolean("spectatorsGenerateChunks"));
 
     /**
-     * Comparator that specifies order in which cubes will be generated and sent to clients
+     * Amount of different priorities in which cubes and columns are generated and sent to clients. Priority is the distance to the closest
+     * player in cubes, everything further away than the view distance limit has the lowest priority.
      */
-    private static final Comparator<CubeWatcher> CUBE_ORDER = (watcher1, watcher2) ->
-            ComparisonChain.start().compare(
-                    watcher1.getClosestPlayerDistance(),
-                    watcher2.getClosestPlayerDistance()
-            ).result();
+    private static final int PRIORITY_BUCKETS = 64;
 
     /**
-     * Comparator that specifies order in which columns will be generated and sent to clients
+     * Specifies order in which cubes will be generated and sent to clients
      */
-    private static final Comparator<ColumnWatcher> COLUMN_ORDER = (watcher1, watcher2) ->
-            ComparisonChain.start().compare(
-                    watcher1.getClosestPlayerDistance(),
-                    watcher2.getClosestPlayerDistance()
-            ).result();
+    private static final ToIntFunction<CubeWatcher> CUBE_PRIORITY = watcher -> distancePriority(watcher.getClosestPlayerDistance());
+
+    /**
+     * Specifies order in which columns will be generated and sent to clients
+     */
+    private static final ToIntFunction<ColumnWatcher> COLUMN_PRIORITY = watcher -> distancePriority(watcher.getClosestPlayerDistance());
 
     /**
      * Cube selector is used to find which cube positions need to be loaded/unloaded
@@ -127,7 +124,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Mapping of Cube positions to CubeWatchers (Cube equivalent of PlayerManager.PlayerInstance).
      * Contains cube positions of all cubes loaded by players.
      */
-    private final XYZMap<CubeWatcher> cubeWatchers = new XYZMap<>(0.7f, 25 * 25 * 25);
+    private final XYZLongMap<CubeWatcher> cubeWatchers = new XYZLongMap<>(0.7f, 25 * 25 * 25);
 
     /**
      * Mapping of Column positions to ColumnWatchers.
@@ -154,7 +151,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Note that this is not the same as cubesToGenerate list.
      * Cube can be loaded while not being fully generated yet (not in the last GeneratorStageRegistry stage).
      */
-    private final WatchersSortingList<CubeWatcher> cubesToSendToClients = new WatchersSortingList<CubeWatcher>(CUBE_ORDER);
+    private final WatcherPriorityQueue<CubeWatcher> cubesToSendToClients = new WatcherPriorityQueue<>(CUBE_PRIORITY, PRIORITY_BUCKETS);
 
     /**
      * Contains all CubeWatchers that still need to be loaded/generated.
@@ -162,7 +159,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Technically it can generate it, using the world's IGeneratorPipeline,
      * but spectator players can't generate chunks if spectatorsGenerateChunks gamerule is set.
      */
-    private final WatchersSortingList<CubeWatcher> cubesToGenerate = new WatchersSortingList<CubeWatcher>(CUBE_ORDER);
+    private final WatcherPriorityQueue<CubeWatcher> cubesToGenerate = new WatcherPriorityQueue<>(CUBE_PRIORITY, PRIORITY_BUCKETS);
 
     /**
      * Contains all ColumnWatchers that need to be sent to clients,
@@ -171,13 +168,13 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Note that this is not the same as columnsToGenerate list.
      * Columns can be loaded while not being fully generated yet
      */
-    private final WatchersSortingList<ColumnWatcher> columnsToSendToClients = new WatchersSortingList<ColumnWatcher>(COLUMN_ORDER);
+    private final WatcherPriorityQueue<ColumnWatcher> columnsToSendToClients = new WatcherPriorityQueue<>(COLUMN_PRIORITY, PRIORITY_BUCKETS);
 
     /**
      * Contains all ColumnWatchers that still need to be loaded/generated.
      * ColumnWatcher constructor attempts to load column from disk, but it won't generate it.
      */
-    private final WatchersSortingList<ColumnWatcher> columnsToGenerate = new WatchersSortingList<ColumnWatcher>(COLUMN_ORDER);
+    private final WatcherPriorityQueue<ColumnWatcher> columnsToGenerate = new WatcherPriorityQueue<>(COLUMN_PRIORITY, PRIORITY_BUCKETS);
 
     private int horizontalViewDistance;
     private int verticalViewDistance;
@@ -187,8 +184,11 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      */
     private long previousWorldTime = 0;
 
-    private boolean toGenerateNeedSort = true;
-    private boolean toSendToClientNeedSort = true;
+    /**
+     * Set when players move to a different cube. Priorities of watchers are updated when their players change, but moving players change
+     * distances to all of them.
+     */
+    private boolean needPriorityUpdate = true;
 
     private final CubeProviderServer cubeCache;
 
@@ -271,19 +271,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         this.columnWatchersToUpdate.forEach(ColumnWatcher::update);
         this.columnWatchersToUpdate.clear();
 
-        getWorldServer().profiler.endStartSection("sortToGenerate");
-        //sort toLoadPending if needed, but at most every 4 ticks
-        if (this.toGenerateNeedSort && currentTime % 4L == 0L) {
-            this.toGenerateNeedSort = false;
-            this.cubesToGenerate.sort();
-            this.columnsToGenerate.sort();
-        }
-        getWorldServer().profiler.endStartSection("sortToSend");
-        //sort cubesToSendToClients every other 4 ticks
-        if (this.toSendToClientNeedSort && currentTime % 4L == 2L) {
-            this.toSendToClientNeedSort = false;
-            this.cubesToSendToClients.sort();
-            this.columnsToSendToClients.sort();
+        getWorldServer().profiler.endStartSection("updatePriorities");
+        //update priorities after players moved, but at most every 4 ticks
+        if (this.needPriorityUpdate && currentTime % 4L == 0L) {
+            this.needPriorityUpdate = false;
+            this.cubesToGenerate.updateAll();
+            this.columnsToGenerate.updateAll();
+            this.cubesToSendToClients.updateAll();
+            this.columnsToSendToClients.updateAll();
         }
 
         getWorldServer().profiler.endStartSection("generate");
@@ -320,6 +315,11 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
             long stopTime = System.nanoTime() + 50000000L;
             int chunksToGenerate = CubicChunksConfig.maxGeneratedCubesPerTick;
+            // don't generate new cubes faster than they can be saved, existing cubes can still be loaded
+            boolean saveQueueFull = this.cubeCache.getCubeIO().isSaveQueueFull();
+            // with parallel first light, cubes are lit all at once after the loop
+            boolean lightLater = CubicChunksConfig.firstLightThreads > 0;
+            List<CubeWatcher> toLight = new ArrayList<>();
             Iterator<CubeWatcher> iterator = this.cubesToGenerate.iterator();
 
             while (iterator.hasNext() && chunksToGenerate >= 0 && System.nanoTime() < stopTime) {
@@ -331,18 +331,19 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 boolean success = watcher.getCube() != null && watcher.getCube().isFullyPopulated() && watcher.getCube().isInitialLightingDone() &&
                         !watcher.getCube().hasLightUpdates();
                 if (!success) {
-                    boolean canGenerate = watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS);
+                    boolean canGenerate = !saveQueueFull && watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS);
                     getWorldServer().profiler.startSection("generate");
-                    success = watcher.providePlayerCube(canGenerate);
+                    success = watcher.providePlayerCube(canGenerate, !lightLater);
                     getWorldServer().profiler.endSection();
+                    if (!success && lightLater && canGenerate && watcher.getCube() != null) {
+                        toLight.add(watcher);
+                        --chunksToGenerate;
+                    }
                 }
 
                 if (success) {
-                    CubeWatcher.SendToPlayersResult state = watcher.sendToPlayers();
-                    if (state == CubeWatcher.SendToPlayersResult.WAITING || state == CubeWatcher.SendToPlayersResult.CUBE_SENT
-                            || state == CubeWatcher.SendToPlayersResult.ALREADY_DONE) {
+                    if (sendGeneratedCube(watcher)) {
                         iterator.remove();
-                        this.cubesToSendToClients.remove(watcher);
                     }
 
                     --chunksToGenerate;
@@ -351,6 +352,21 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 getWorldServer().profiler.endSection();//chunk[x, y, z]
             }
 
+            if (!toLight.isEmpty()) {
+                getWorldServer().profiler.startSection("light");
+                List<Cube> cubes = new ArrayList<>(toLight.size());
+                for (CubeWatcher watcher : toLight) {
+                    cubes.add(watcher.getCube());
+                }
+                this.cubeCache.calculateDiffuseSkylight(cubes);
+                for (CubeWatcher watcher : toLight) {
+                    if (watcher.providePlayerCube(true) && sendGeneratedCube(watcher)) {
+                        this.cubesToGenerate.remove(watcher);
+                    }
+                }
+                getWorldServer().profiler.endSection(); // light
+            }
+
             getWorldServer().profiler.endSection(); // chunks
         }
         getWorldServer().profiler.endStartSection("send");
@@ -373,9 +389,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                     it.remove();
                     --toSend;
                 } else if (state == CubeWatcher.SendToPlayersResult.WAITING_LIGHT) {
-                    if (!cubesToGenerate.contains(playerInstance)) {
-                        cubesToGenerate.appendToStart(playerInstance);
-                    }
+                    cubesToGenerate.add(playerInstance);
                 }
             }
             getWorldServer().profiler.endSection(); // cubes
@@ -406,6 +420,23 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         getWorldServer().profiler.endSection();//playerCubeMapTick
     }
 
+    /**
+     * Sends a cube that has just been generated to players, and removes it from cubesToSendToClients if no longer needed there.
+     *
+     * @param watcher the watcher of the generated cube
+     *
+     * @return true if the cube is done and should be removed from cubesToGenerate by the caller
+     */
+    private boolean sendGeneratedCube(CubeWatcher watcher) {
+        CubeWatcher.SendToPlayersResult state = watcher.sendToPlayers();
+        if (state == CubeWatcher.SendToPlayersResult.WAITING || state == CubeWatcher.SendToPlayersResult.CUBE_SENT
+                || state == CubeWatcher.SendToPlayersResult.ALREADY_DONE) {
+            this.cubesToSendToClients.remove(watcher);
+            return true;
+        }
+        return false;
+    }
+
     // CHECKED: 1.10.2-12.18.1.2092
     @Override
     public boolean contains(int cubeX, int cubeZ) {
@@ -435,14 +466,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             if (cubeWatcher.getCube() == null ||
                     !cubeWatcher.getCube().isFullyPopulated() ||
                     !cubeWatcher.getCube().isInitialLightingDone()) {
-                this.cubesToGenerate.appendToEnd(cubeWatcher);
+                this.cubesToGenerate.add(cubeWatcher);
             }
             // vanilla has the below check, which causes the cubes to be sent to client too early and sometimes in too big amounts
             // if they are sent too earlu, client won't have the right player position and renderer positions are wrong
             // which cause some cubes to not be rendered
             // DO NOT make it the same as vanilla until it's confirmed that Mojang fixed MC-120079
             //if (!cubeWatcher.sendToPlayers()) {
-                this.cubesToSendToClients.appendToEnd(cubeWatcher);
+                this.cubesToSendToClients.add(cubeWatcher);
             //}
         }
         return cubeWatcher;
@@ -458,10 +489,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             columnWatcher = new ColumnWatcher(this, chunkPos);
             this.columnWatchers.put(columnWatcher);
             if (columnWatcher.getChunk() == null) {
-                this.columnsToGenerate.appendToEnd(columnWatcher);
+                this.columnsToGenerate.add(columnWatcher);
             }
             if (!columnWatcher.sendToPlayers()) {
-                this.columnsToSendToClients.appendToEnd(columnWatcher);
+                this.columnsToSendToClients.add(columnWatcher);
             }
         }
         return columnWatcher;
@@ -521,7 +552,6 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             cubeWatcher.addPlayer(player);
         });
         this.players.put(player.getEntityId(), playerWrapper);
-        this.setNeedSort();
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -556,7 +586,6 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             }
         });
         this.players.remove(player.getEntityId());
-        this.setNeedSort();
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -580,51 +609,34 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         this.updatePlayer(playerWrapper, playerWrapper.getManagedCubePos(), CubePos.fromEntity(player));
         playerWrapper.updateManagedPos();
-        this.setNeedSort();
+        this.setNeedPriorityUpdate();
     }
 
     private void updatePlayer(PlayerWrapper entry, CubePos oldPos, CubePos newPos) {
         getWorldServer().profiler.startSection("updateMovedPlayer");
-        Set<CubePos> cubesToRemove = new HashSet<>();
-        Set<CubePos> cubesToLoad = new HashSet<>();
-        Set<ChunkPos> columnsToRemove = new HashSet<>();
-        Set<ChunkPos> columnsToLoad = new HashSet<>();
-
-        getWorldServer().profiler.startSection("findChanges");
-        // calculate new visibility
-        this.cubeSelector.findChanged(oldPos, newPos, horizontalViewDistance, verticalViewDistance, cubesToRemove, cubesToLoad, columnsToRemove,
-                columnsToLoad);
-
-        getWorldServer().profiler.endStartSection("createColumns");
-        //order is important, columns first
-        columnsToLoad.forEach(pos -> {
-            ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos);
-            assert columnWatcher.getPos().equals(pos);
-            columnWatcher.addPlayer(entry.playerEntity);
-        });
-        getWorldServer().profiler.endStartSection("createCubes");
-        cubesToLoad.forEach(pos -> {
-            CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(pos);
-            assert cubeWatcher.getCubePos().equals(pos);
-            cubeWatcher.addPlayer(entry.playerEntity);
-        });
-        getWorldServer().profiler.endStartSection("removeCubes");
-        cubesToRemove.forEach(pos -> {
-            CubeWatcher cubeWatcher = this.getCubeWatcher(pos);
-            if (cubeWatcher != null) {
-                assert cubeWatcher.getCubePos().equals(pos);
-                cubeWatcher.removePlayer(entry.playerEntity);
-            }
-        });
-        getWorldServer().profiler.endStartSection("removeColumns");
-        columnsToRemove.forEach(pos -> {
-            ColumnWatcher columnWatcher = this.getColumnWatcher(pos);
-            if (columnWatcher != null) {
-                assert columnWatcher.getPos().equals(pos);
-                columnWatcher.removePlayer(entry.playerEntity);
-            }
-        });
-        getWorldServer().profiler.endSection();//removeColumns
+        EntityPlayerMP player = entry.playerEntity;
+        // the selector calls these in the right order, columns are loaded before cubes and removed after them
+        this.cubeSelector.findChanged(oldPos, newPos, horizontalViewDistance, verticalViewDistance,
+                (cubeX, cubeY, cubeZ) -> {
+                    CubeWatcher cubeWatcher = this.cubeWatchers.get(cubeX, cubeY, cubeZ);
+                    if (cubeWatcher != null) {
+                        cubeWatcher.removePlayer(player);
+                    }
+                },
+                (cubeX, cubeY, cubeZ) -> {
+                    CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(new CubePos(cubeX, cubeY, cubeZ));
+                    cubeWatcher.addPlayer(player);
+                },
+                (cubeX, cubeZ) -> {
+                    ColumnWatcher columnWatcher = this.columnWatchers.get(cubeX, cubeZ);
+                    if (columnWatcher != null) {
+                        columnWatcher.removePlayer(player);
+                    }
+                },
+                (cubeX, cubeZ) -> {
+                    ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(new ChunkPos(cubeX, cubeZ));
+                    columnWatcher.addPlayer(player);
+                });
         getWorldServer().profiler.endSection();//updateMovedPlayer
     }
 
@@ -724,12 +736,27 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         this.horizontalViewDistance = newHorizontalViewDistance;
         this.verticalViewDistance = newVerticalViewDistance;
-        this.setNeedSort();
     }
 
-    private void setNeedSort() {
-        this.toGenerateNeedSort = true;
-        this.toSendToClientNeedSort = true;
+    private void setNeedPriorityUpdate() {
+        this.needPriorityUpdate = true;
+    }
+
+    private static int distancePriority(double distanceSq) {
+        return Math.min((int) Math.sqrt(distanceSq), Integer.MAX_VALUE - 1) >> 4;
+    }
+
+    /**
+     * Called when players of the watcher change, to update its position in the generate and send queues
+     */
+    void priorityChanged(CubeWatcher cubeWatcher) {
+        this.cubesToGenerate.update(cubeWatcher);
+        this.cubesToSendToClients.update(cubeWatcher);
+    }
+
+    void priorityChanged(ColumnWatcher columnWatcher) {
+        this.columnsToGenerate.update(columnWatcher);
+        this.columnsToSendToClients.update(columnWatcher);
     }
 
     @Override
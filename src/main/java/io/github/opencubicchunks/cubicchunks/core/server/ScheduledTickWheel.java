@@ -0,0 +1,381 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZLongMap;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.NextTickListEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Scheduled block ticks of a world, stored in a hierarchical timing wheel.
+ * <p>
+ * Ticks scheduled within the current block of 256 ticks are stored in one of 256 lists of the first level, one list per tick. Ticks
+ * scheduled within the next 255 blocks of 256 ticks are stored in the second level, one list per block, and are moved to the first level
+ * when their block starts. Ticks scheduled even later are kept in an overflow list, which is checked every 65536 ticks. Scheduling and
+ * cancelling ticks doesn't depend on the amount of scheduled ticks, and only the ticks of the current tick are sorted by priority.
+ * <p>
+ * Ticks are also indexed by cube, so that they can be saved with the cube and removed when the cube is unloaded. Only used from the server
+ * thread.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class ScheduledTickWheel {
+
+    private static final int LEVEL_BITS = 8;
+    private static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+    private static final int LEVEL_MASK = LEVEL_SIZE - 1;
+    /** Same as vanilla, the remaining ticks are delayed to the next tick */
+    private static final int MAX_TICKS_PER_TICK = 65536;
+
+    private final Node[] level0 = createLists(LEVEL_SIZE);
+    private final Node[] level1 = createLists(LEVEL_SIZE);
+    private final Node overflow = createList();
+
+    private final Map<NextTickListEntry, Node> nodes = new HashMap<>();
+    private final XYZLongMap<CubeTicks> cubes = new XYZLongMap<>(0.7f, 1024);
+    /** Ticks taken out of the wheel to run in the current tick, that haven't been run yet */
+    private final Set<NextTickListEntry> runningThisTick = new HashSet<>();
+
+    /** All ticks scheduled before this time have already been run */
+    private long time;
+
+    public ScheduledTickWheel(long worldTime) {
+        this.time = worldTime;
+    }
+
+    /**
+     * Schedules a block tick, unless the same block already has a tick scheduled at the same position.
+     *
+     * @param pos position of the block
+     * @param block the block that will be ticked, the tick is skipped if the block has changed in the meantime
+     * @param scheduledTime world time at which the tick should run
+     * @param priority ticks with lower priority values are run first within one tick
+     * @return true if the tick has been scheduled
+     */
+    public boolean schedule(BlockPos pos, Block block, long scheduledTime, int priority) {
+        if (pos instanceof BlockPos.MutableBlockPos || pos instanceof BlockPos.PooledMutableBlockPos) {
+            pos = new BlockPos(pos);
+            CubicChunks.LOGGER.warn("Tried to assign a mutable BlockPos to tick data...", new Error(pos.getClass().toString()));
+        }
+        NextTickListEntry entry = new NextTickListEntry(pos, block);
+        if (nodes.containsKey(entry)) {
+            return false;
+        }
+        entry.setScheduledTime(scheduledTime);
+        entry.setPriority(priority);
+        add(entry);
+        return true;
+    }
+
+    /**
+     * Cancels the tick scheduled for the block at the given position.
+     *
+     * @return true if there was a scheduled tick
+     */
+    public boolean cancel(BlockPos pos, Block block) {
+        Node node = nodes.get(new NextTickListEntry(pos, block));
+        if (node == null) {
+            return false;
+        }
+        remove(node);
+        return true;
+    }
+
+    /**
+     * @return true if the block at the given position has a scheduled tick that hasn't been taken out to run yet
+     */
+    public boolean isScheduled(BlockPos pos, Block block) {
+        return nodes.containsKey(new NextTickListEntry(pos, block));
+    }
+
+    /**
+     * @return true if the block at the given position has a tick that will be run later in the current tick
+     */
+    public boolean isRunningThisTick(BlockPos pos, Block block) {
+        return runningThisTick.contains(new NextTickListEntry(pos, block));
+    }
+
+    /**
+     * @return true if any ticks are scheduled in the given cube
+     */
+    public boolean hasTicks(int cubeX, int cubeY, int cubeZ) {
+        return cubes.contains(cubeX, cubeY, cubeZ);
+    }
+
+    /**
+     * Returns all ticks scheduled in the given cube, including the ones that haven't been run yet in the current tick.
+     */
+    public List<NextTickListEntry> getTicks(int cubeX, int cubeY, int cubeZ) {
+        CubeTicks cubeTicks = cubes.get(cubeX, cubeY, cubeZ);
+        List<NextTickListEntry> ticks = new ArrayList<>(cubeTicks == null ? 0 : cubeTicks.nodes.size());
+        if (cubeTicks != null) {
+            for (Node node : cubeTicks.nodes) {
+                ticks.add(node.entry);
+            }
+        }
+        for (NextTickListEntry entry : runningThisTick) {
+            if (blockToCube(entry.position.getX()) == cubeX && blockToCube(entry.position.getY()) == cubeY
+                    && blockToCube(entry.position.getZ()) == cubeZ) {
+                ticks.add(entry);
+            }
+        }
+        return ticks;
+    }
+
+    /**
+     * Removes all ticks scheduled in the given cube, used when the cube is unloaded. The ticks should be saved with the cube first.
+     */
+    public void removeCube(int cubeX, int cubeY, int cubeZ) {
+        CubeTicks cubeTicks = cubes.remove(cubeX, cubeY, cubeZ);
+        if (cubeTicks == null) {
+            return;
+        }
+        for (Node node : cubeTicks.nodes) {
+            node.unlink();
+            nodes.remove(node.entry);
+        }
+    }
+
+    /**
+     * Runs all ticks scheduled up to the given world time, in order of scheduled time, priority and the order in which they were scheduled.
+     *
+     * @param worldTime the current world time
+     * @param runner runs the tick, returns false if it can't be run yet, in which case it's scheduled again for the next tick
+     */
+    public void tick(long worldTime, Predicate<NextTickListEntry> runner) {
+        if (worldTime - time > LEVEL_SIZE * LEVEL_SIZE) {
+            // the world time jumped, don't go through all the ticks in between
+            rebuild(worldTime);
+        }
+        List<NextTickListEntry> toRun = new ArrayList<>();
+        while (time <= worldTime) {
+            if ((time & LEVEL_MASK) == 0) {
+                cascade();
+            }
+            takeAll(level0[(int) (time & LEVEL_MASK)], toRun);
+            time++;
+        }
+        if (toRun.isEmpty()) {
+            return;
+        }
+        Collections.sort(toRun);
+        int count = Math.min(toRun.size(), MAX_TICKS_PER_TICK);
+        for (int i = count; i < toRun.size(); i++) {
+            add(toRun.get(i));
+        }
+        List<NextTickListEntry> batch = toRun.subList(0, count);
+        runningThisTick.addAll(batch);
+        try {
+            for (NextTickListEntry entry : batch) {
+                runningThisTick.remove(entry);
+                if (!runner.test(entry) && !nodes.containsKey(entry)) {
+                    entry.setScheduledTime(worldTime + 1);
+                    add(entry);
+                }
+            }
+        } finally {
+            // if a tick throws, the remaining ticks are kept
+            for (NextTickListEntry entry : runningThisTick) {
+                if (!nodes.containsKey(entry)) {
+                    add(entry);
+                }
+            }
+            runningThisTick.clear();
+        }
+    }
+
+    private void add(NextTickListEntry entry) {
+        Node node = new Node(entry);
+        nodes.put(entry, node);
+        BlockPos pos = entry.position;
+        int cubeX = blockToCube(pos.getX());
+        int cubeY = blockToCube(pos.getY());
+        int cubeZ = blockToCube(pos.getZ());
+        CubeTicks cubeTicks = cubes.get(cubeX, cubeY, cubeZ);
+        if (cubeTicks == null) {
+            cubeTicks = new CubeTicks(cubeX, cubeY, cubeZ);
+            cubes.put(cubeTicks);
+        }
+        node.cube = cubeTicks;
+        node.cubeIndex = cubeTicks.nodes.size();
+        cubeTicks.nodes.add(node);
+        place(node);
+    }
+
+    private void remove(Node node) {
+        node.unlink();
+        nodes.remove(node.entry);
+        CubeTicks cubeTicks = node.cube;
+        assert cubeTicks != null;
+        List<Node> cubeNodes = cubeTicks.nodes;
+        Node last = cubeNodes.remove(cubeNodes.size() - 1);
+        if (last != node) {
+            cubeNodes.set(node.cubeIndex, last);
+            last.cubeIndex = node.cubeIndex;
+        }
+        if (cubeNodes.isEmpty()) {
+            cubes.remove(cubeTicks);
+        }
+    }
+
+    /**
+     * Puts the node into the list it belongs to, depending on its scheduled time. Ticks scheduled in the past are run next tick.
+     */
+    private void place(Node node) {
+        long scheduled = Math.max(node.entry.scheduledTime, time);
+        long block = scheduled >> LEVEL_BITS;
+        long currentBlock = time >> LEVEL_BITS;
+        if (block == currentBlock) {
+            node.linkBefore(level0[(int) (scheduled & LEVEL_MASK)]);
+        } else if (block - currentBlock < LEVEL_SIZE) {
+            node.linkBefore(level1[(int) (block & LEVEL_MASK)]);
+        } else {
+            node.linkBefore(overflow);
+        }
+    }
+
+    /**
+     * Called when a new block of 256 ticks starts, moves ticks of that block to the first level.
+     */
+    private void cascade() {
+        long block = time >> LEVEL_BITS;
+        if ((block & LEVEL_MASK) == 0) {
+            replaceAll(overflow);
+        }
+        replaceAll(level1[(int) (block & LEVEL_MASK)]);
+    }
+
+    private void replaceAll(Node list) {
+        Node node = list.next;
+        list.next = list.prev = list;
+        while (node != list) {
+            Node next = node.next;
+            place(node);
+            node = next;
+        }
+    }
+
+    private void takeAll(Node list, List<NextTickListEntry> out) {
+        Node node;
+        while ((node = list.next) != list) {
+            remove(node);
+            out.add(node.entry);
+        }
+    }
+
+    private void rebuild(long worldTime) {
+        List<Node> all = new ArrayList<>(nodes.values());
+        for (Node node : all) {
+            node.unlink();
+        }
+        time = worldTime;
+        for (Node node : all) {
+            place(node);
+        }
+    }
+
+    private static Node[] createLists(int count) {
+        Node[] lists = new Node[count];
+        for (int i = 0; i < count; i++) {
+            lists[i] = createList();
+        }
+        return lists;
+    }
+
+    private static Node createList() {
+        Node head = new Node(null);
+        head.next = head.prev = head;
+        return head;
+    }
+
+    /**
+     * A node in a circular doubly linked list. Each list has a head node without entry.
+     */
+    private static final class Node {
+
+        @Nullable final NextTickListEntry entry;
+        Node prev, next;
+        @Nullable CubeTicks cube;
+        int cubeIndex;
+
+        Node(@Nullable NextTickListEntry entry) {
+            this.entry = entry;
+        }
+
+        void linkBefore(Node head) {
+            this.next = head;
+            this.prev = head.prev;
+            head.prev.next = this;
+            head.prev = this;
+        }
+
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = next = this;
+        }
+    }
+
+    private static final class CubeTicks implements XYZAddressable {
+
+        private final int x, y, z;
+        final List<Node> nodes = new ArrayList<>();
+
+        CubeTicks(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
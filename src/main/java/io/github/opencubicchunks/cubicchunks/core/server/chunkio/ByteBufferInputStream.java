@@ -21,39 +21,52 @@
  *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
  *  THE SOFTWARE.
  */
-package io.github.opencubicchunks.cubicchunks.core.util;
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
 
-import com.google.common.base.Throwables;
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.world.NextTickListEntry;
-import net.minecraft.world.WorldServer;
 
-import java.lang.invoke.MethodHandle;
-import java.util.HashSet;
-import java.util.List;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
-@ParametersAreNonnullByDefault
+/**
+ * InputStream reading the remaining bytes of a ByteBuffer, without copying it into a byte array first.
+ */
 @MethodsReturnNonnullByDefault
-public class WorldServerAccess {
+@ParametersAreNonnullByDefault
+class ByteBufferInputStream extends InputStream {
 
-    private static final MethodHandle ws_pendingTickListEntriesHashSet = ReflectionUtil.getFieldGetterHandle(WorldServer.class, "field_73064_N");
-    private static final MethodHandle ws_pendingTickListEntriesThisTick = ReflectionUtil.getFieldGetterHandle(WorldServer.class, "field_94579_S");
+    private final ByteBuffer buf;
 
-    public static List<NextTickListEntry> getPendingTickListEntriesThisTick(WorldServer ws) {
-        try {
-            return (List<NextTickListEntry>) ws_pendingTickListEntriesThisTick.invoke(ws);
-        } catch (Throwable throwable) {
-            throw new RuntimeException(throwable);
-        }
+    ByteBufferInputStream(ByteBuffer buf) {
+        // don't change the position of the original buffer
+        this.buf = buf.duplicate();
+    }
+
+    @Override public int read() {
+        return buf.hasRemaining() ? buf.get() & 0xFF : -1;
     }
 
-    public static HashSet<NextTickListEntry> getPendingTickListEntriesHashSet(WorldServer ws) {
-        try {
-            return (HashSet<NextTickListEntry>) ws_pendingTickListEntriesHashSet.invoke(ws);
-        } catch (Throwable throwable) {
-            throw new RuntimeException(throwable);
+    @Override public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
         }
+        if (!buf.hasRemaining()) {
+            return -1;
+        }
+        int toRead = Math.min(len, buf.remaining());
+        buf.get(b, off, toRead);
+        return toRead;
+    }
+
+    @Override public long skip(long n) {
+        int toSkip = (int) Math.max(0, Math.min(n, buf.remaining()));
+        buf.position(buf.position() + toSkip);
+        return toSkip;
+    }
+
+    @Override public int available() {
+        return buf.remaining();
     }
 }
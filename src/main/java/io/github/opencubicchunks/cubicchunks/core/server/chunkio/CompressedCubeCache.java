@@ -0,0 +1,135 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A memory bounded LRU cache of recently written cubes, in the same compressed form as they are stored on disk.
+ * <p>
+ * Cubes in this cache are always in the current DataVersion, so when they are loaded again reading the region file and running the
+ * DataFixer can be skipped.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CompressedCubeCache {
+
+    // rough estimate of the memory used by map entry, key and array header
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final LinkedHashMap<CubePos, byte[]> cubes = new LinkedHashMap<>(256, 0.75f, true);
+    private final long maxBytes;
+    private long usedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes memory budget of this cache. Nothing is cached if it's 0
+     */
+    CompressedCubeCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Nullable synchronized byte[] get(CubePos pos) {
+        byte[] data = cubes.get(pos);
+        if (data == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return data;
+    }
+
+    synchronized void put(CubePos pos, byte[] data) {
+        long size = sizeOf(data);
+        if (size > maxBytes) {
+            remove(pos);
+            return;
+        }
+        byte[] old = cubes.put(pos, data);
+        if (old != null) {
+            usedBytes -= sizeOf(old);
+        }
+        usedBytes += size;
+
+        Iterator<Map.Entry<CubePos, byte[]>> it = cubes.entrySet().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            usedBytes -= sizeOf(it.next().getValue());
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    synchronized void remove(CubePos pos) {
+        byte[] old = cubes.remove(pos);
+        if (old != null) {
+            usedBytes -= sizeOf(old);
+        }
+    }
+
+    synchronized void clear() {
+        cubes.clear();
+        usedBytes = 0;
+    }
+
+    synchronized int size() {
+        return cubes.size();
+    }
+
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    private static long sizeOf(byte[] data) {
+        return data.length + ENTRY_OVERHEAD;
+    }
+
+    @Override public String toString() {
+        return String.format("CompressedCubeCache{cubes=%d, used=%dk, max=%dk, hits=%d, misses=%d, evictions=%d}",
+                size(), getUsedBytes() / 1024, maxBytes / 1024, getHits(), getMisses(), getEvictions());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICopyOnWriteStorage;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.common.util.Constants;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Immutable state of a cube at the time it has been saved. Taking a snapshot is cheap, as block and light data is shared with the cube until
+ * it's modified (see {@link ICopyOnWriteStorage}), which allows the actual serialization to be done outside of the world thread.
+ * <p>
+ * Entities, tile entities and scheduled ticks can't be accessed safely from other threads, so they are written to NBT when the snapshot is
+ * taken.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CubeSnapshot {
+
+    private static final int BASE_SIZE = 128;
+    // block data is usually stored with 4 to 8 bits per block
+    private static final int BLOCK_DATA_SIZE = 4096;
+    private static final int LIGHT_DATA_SIZE = 2048;
+    private static final int NBT_ENTRY_SIZE = 256;
+
+    final int x, y, z;
+    final boolean isPopulated;
+    final boolean isSurfaceTracked;
+    final boolean isFullyPopulated;
+    final boolean isInitialLightingDone;
+    final byte edgeNeedSkyLightUpdate;
+    final boolean hasSkyLight;
+    final int[] heightMap;
+    @Nullable final ExtendedBlockStorage storage;
+    /**
+     * Contains Entities, TileEntities and TileTicks tags
+     */
+    final NBTTagCompound entityData;
+
+    private CubeSnapshot(Cube cube) {
+        this.x = cube.getX();
+        this.y = cube.getY();
+        this.z = cube.getZ();
+        this.isPopulated = cube.isPopulated();
+        this.isSurfaceTracked = cube.isSurfaceTracked();
+        this.isFullyPopulated = cube.isFullyPopulated();
+        this.isInitialLightingDone = cube.isInitialLightingDone();
+        byte edges = 0;
+        for (int i = 0; i < cube.edgeNeedSkyLightUpdate.length; i++) {
+            if (cube.edgeNeedSkyLightUpdate[i]) {
+                edges |= 1 << i;
+            }
+        }
+        this.edgeNeedSkyLightUpdate = edges;
+        this.hasSkyLight = cube.getWorld().provider.hasSkyLight();
+        this.heightMap = cube.getColumn().getHeightMap().clone();
+
+        ExtendedBlockStorage ebs = cube.getStorage();
+        this.storage = ebs == null ? null : ((ICopyOnWriteStorage) ebs).snapshot();
+
+        this.entityData = new NBTTagCompound();
+        IONbtWriter.writeEntities(cube, entityData);
+        IONbtWriter.writeTileEntities(cube, entityData);
+        IONbtWriter.writeScheduledTicks(cube, entityData);
+    }
+
+    /**
+     * Returns rough estimate of the amount of memory retained by this snapshot, used to limit the size of the save queue. Block and light data
+     * is counted even when it's still shared with a loaded cube.
+     */
+    long estimateSize() {
+        long size = BASE_SIZE + heightMap.length * Integer.BYTES;
+        if (storage != null) {
+            size += BLOCK_DATA_SIZE + LIGHT_DATA_SIZE;
+            if (hasSkyLight) {
+                size += LIGHT_DATA_SIZE;
+            }
+        }
+        int nbtEntries = entityData.getTagList("Entities", Constants.NBT.TAG_COMPOUND).tagCount()
+                + entityData.getTagList("TileEntities", Constants.NBT.TAG_COMPOUND).tagCount()
+                + entityData.getTagList("TileTicks", Constants.NBT.TAG_COMPOUND).tagCount();
+        return size + (long) nbtEntries * NBT_ENTRY_SIZE;
+    }
+
+    /**
+     * Takes a snapshot of the cube. This needs to be called from the world thread.
+     */
+    static CubeSnapshot of(Cube cube) {
+        return new CubeSnapshot(cube);
+    }
+}
@@ -31,20 +31,68 @@ import java.io.IOException;
 
 import javax.annotation.Nullable;
 
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 
 public interface ICubeIO extends IThreadedFileIO {
 	void flush() throws IOException;
 
+	/**
+	 * Saves everything still queued and closes the underlying storage. Called when the world is unloaded, nothing can be loaded or saved
+	 * after this.
+	 */
+	void close() throws IOException;
+
 	@Nullable Chunk loadColumn(int chunkX, int chunkZ) throws IOException;
 
 	@Nullable PartialCubeData loadCubeAsyncPart(Chunk column, int cubeY) throws IOException;
 
+	/**
+	 * Loads the async part of multiple cubes in the same column at once. Implementations can use it to read the cubes more efficiently than
+	 * one by one.
+	 *
+	 * @param column the column of the cubes
+	 * @param cubeYs y positions of the cubes
+	 * @return the loaded cubes, in the same order as cubeYs. Cubes that don't exist or failed to load are null
+	 */
+	default PartialCubeData[] loadCubesAsyncPart(Chunk column, int[] cubeYs) {
+		PartialCubeData[] cubes = new PartialCubeData[cubeYs.length];
+		for (int i = 0; i < cubeYs.length; i++) {
+			try {
+				cubes[i] = loadCubeAsyncPart(column, cubeYs[i]);
+			} catch (IOException e) {
+				CubicChunks.LOGGER.error("Could not load cube in column {} at y={}", column, cubeYs[i], e);
+			}
+		}
+		return cubes;
+	}
+
 	void loadCubeSyncPart(PartialCubeData info);
 
 	void saveColumn(Chunk column);
 
-	void saveCube(Cube cube);
+	/**
+	 * Queues the cube to be saved.
+	 *
+	 * @param cube the cube
+	 * @param unloading true if the cube is about to be unloaded. Such cubes are written first, so that their data doesn't stay in memory.
+	 */
+	void saveCube(Cube cube, boolean unloading);
+
+	/**
+	 * Returns true when the data waiting to be saved is over the configured memory limit. While it's full, no new cubes should be generated,
+	 * so that the save queue can catch up.
+	 */
+	boolean isSaveQueueFull();
+
+	int getPendingColumnCount();
+
+	int getPendingCubeCount();
+
+	/**
+	 * @return estimated amount of memory, in bytes, used by columns and cubes waiting to be saved
+	 */
+	long getPendingSaveBytes();
 
 	/**
 	 * Stores partially read cube, before sync read but after async read
@@ -0,0 +1,70 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.util.CheckedConsumer;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Storage of compressed cube and column data used by {@link RegionCubeIO}.
+ * <p>
+ * Writes are done from a single thread, reads can be done from any thread. The buffers returned by the load methods are not affected by
+ * later writes or by closing the storage.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+interface ICubeStorage extends Closeable {
+
+    Optional<ByteBuffer> load(EntryLocation2D location) throws IOException;
+
+    Optional<ByteBuffer> load(EntryLocation3D location) throws IOException;
+
+    void save2d(EntryLocation2D location, ByteBuffer data) throws IOException;
+
+    void save3d(EntryLocation3D location, ByteBuffer data) throws IOException;
+
+    /**
+     * Makes sure everything written so far is on disk. The storage can still be used after this.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Calls the consumer with the location of every column in this storage. Nothing should be written while this is running.
+     */
+    void forEachColumn(CheckedConsumer<? super EntryLocation2D, IOException> consumer) throws IOException;
+
+    /**
+     * Calls the consumer with the location of every cube in this storage. Nothing should be written while this is running.
+     */
+    void forEachCube(CheckedConsumer<? super EntryLocation3D, IOException> consumer) throws IOException;
+}
@@ -0,0 +1,259 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import static io.github.opencubicchunks.cubicchunks.core.server.chunkio.IOBinaryWriter.FLAG_FULLY_POPULATED;
+import static io.github.opencubicchunks.cubicchunks.core.server.chunkio.IOBinaryWriter.FLAG_INIT_LIGHT_DONE;
+import static io.github.opencubicchunks.cubicchunks.core.server.chunkio.IOBinaryWriter.FLAG_POPULATED;
+import static io.github.opencubicchunks.cubicchunks.core.server.chunkio.IOBinaryWriter.FLAG_SURFACE_TRACKED;
+import static io.github.opencubicchunks.cubicchunks.core.server.chunkio.IOBinaryWriter.LIGHT_ARRAY_SIZE;
+import static io.github.opencubicchunks.cubicchunks.core.server.chunkio.IOBinaryWriter.MAGIC;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.UniformStorages;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Reads cubes written by {@link IOBinaryWriter}.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class IOBinaryReader {
+
+    /**
+     * Checks whether the data read from disk is in binary cube format. Anything else is assumed to be gzipped NBT.
+     */
+    static boolean isBinary(ByteBuffer data) {
+        if (data.remaining() < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data.get(data.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte[] decompress(ByteBuffer data) throws IOException {
+        ByteBuffer compressed = data.duplicate();
+        compressed.position(compressed.position() + MAGIC.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.remaining() * 4);
+        try (InputStream in = new GZIPInputStream(new ByteBufferInputStream(compressed))) {
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                out.write(buf, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the async part of a cube from uncompressed binary data. The returned {@link ICubeIO.PartialCubeData} contains NBT in the same
+     * layout as the NBT cube format, so that the sync part can be read by {@link IONbtReader#readCubeSyncPart}.
+     */
+    @Nullable
+    static ICubeIO.PartialCubeData readCubeAsyncPart(Chunk column, int cubeX, int cubeY, int cubeZ, byte[] data) throws IOException {
+        if (column.x != cubeX || column.z != cubeZ) {
+            throw new IllegalArgumentException(String.format("Invalid column (%d, %d) for cube at (%d, %d, %d)",
+                    column.x, column.z, cubeX, cubeY, cubeZ));
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+        NBTTagCompound nbt = readVersion(in);
+
+        int xCheck = in.readInt();
+        int yCheck = in.readInt();
+        int zCheck = in.readInt();
+        if (xCheck != cubeX || yCheck != cubeY || zCheck != cubeZ) {
+            CubicChunks.LOGGER.error(String
+                    .format("Cube is corrupted! Expected (%d,%d,%d) but got (%d,%d,%d). Cube will be regenerated.", cubeX, cubeY, cubeZ, xCheck,
+                            yCheck, zCheck));
+            return null;
+        }
+
+        Cube cube = new Cube(column, cubeY);
+        int flags = in.readUnsignedByte();
+        cube.setPopulated((flags & FLAG_POPULATED) != 0);
+        cube.setSurfaceTracked((flags & FLAG_SURFACE_TRACKED) != 0);
+        cube.setFullyPopulated((flags & FLAG_FULLY_POPULATED) != 0);
+        cube.setInitialLightingDone((flags & FLAG_INIT_LIGHT_DONE) != 0);
+        byte edgeNeedSkyLightUpdate = in.readByte();
+
+        in.readInt(); // blocks section length
+        readBlocks(in, cube);
+
+        int[] heightMap = new int[in.readInt()];
+        for (int i = 0; i < heightMap.length; i++) {
+            heightMap[i] = in.readInt();
+        }
+
+        NBTTagCompound level = readNbtSection(in);
+
+        NBTTagCompound lightingInfo = new NBTTagCompound();
+        lightingInfo.setIntArray("LastHeightMap", heightMap);
+        lightingInfo.setByte("EdgeNeedSkyLightUpdate", edgeNeedSkyLightUpdate);
+        level.setTag("LightingInfo", lightingInfo);
+
+        nbt.setTag("Level", level);
+        // only entities, tile entities and scheduled ticks are stored as NBT, so they are the only thing that can be fixed
+        return new ICubeIO.PartialCubeData(cube, IONbtReader.fixData(nbt));
+    }
+
+    /**
+     * Runs the DataFixer on uncompressed binary cube data, unless it's already up to date. Only the NBT section is fixed, everything else
+     * is copied as it is, so this doesn't need a world.
+     *
+     * @return the fixed data, uncompressed, or null if it's already up to date
+     */
+    @Nullable
+    static byte[] fixData(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        NBTTagCompound nbt = readVersion(in);
+        if (IONbtReader.isDataVersionCurrent(nbt)) {
+            return null;
+        }
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length);
+        DataOutputStream out = new DataOutputStream(buf);
+        IOBinaryWriter.writeVersion(out);
+
+        // x, y, z, flags and EdgeNeedSkyLightUpdate
+        copy(in, out, 3 * 4 + 2);
+        int blocksLength = in.readInt();
+        out.writeInt(blocksLength);
+        copy(in, out, blocksLength);
+        int heightMapLength = in.readInt();
+        out.writeInt(heightMapLength);
+        copy(in, out, heightMapLength * 4);
+
+        nbt.setTag("Level", readNbtSection(in));
+        nbt = IONbtReader.fixData(nbt);
+        IOBinaryWriter.writeNbtSection(nbt.getCompoundTag("Level"), out);
+
+        out.close();
+        return buf.toByteArray();
+    }
+
+    /**
+     * Reads the format version and returns the data version as NBT, in the same layout as {@link IONbtWriter#writeDataVersion} writes it
+     */
+    private static NBTTagCompound readVersion(DataInputStream in) throws IOException {
+        byte version = in.readByte();
+        if (version != IOBinaryWriter.FORMAT_VERSION) {
+            throw new IllegalArgumentException("Cube has wrong binary format version! " + version);
+        }
+        return readNbtSection(in);
+    }
+
+    private static NBTTagCompound readNbtSection(DataInputStream in) throws IOException {
+        byte[] nbtData = new byte[in.readInt()];
+        in.readFully(nbtData);
+        return CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(nbtData)), NBTSizeTracker.INFINITE);
+    }
+
+    private static void copy(DataInputStream in, DataOutputStream out, int length) throws IOException {
+        byte[] buf = new byte[length];
+        in.readFully(buf);
+        out.write(buf);
+    }
+
+    private static void readBlocks(DataInputStream in, Cube cube) throws IOException {
+        if (in.readByte() == 0) {
+            return;
+        }
+        boolean hasSky = cube.getWorld().provider.hasSkyLight();
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()), hasSky);
+
+        IBlockState[] palette = new IBlockState[in.readInt()];
+        for (int i = 0; i < palette.length; i++) {
+            IBlockState state = Block.BLOCK_STATE_IDS.getByValue(in.readInt());
+            palette[i] = state == null ? Blocks.AIR.getDefaultState() : state;
+        }
+        int bits = in.readUnsignedByte();
+        long[] packed = new long[in.readInt()];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = in.readLong();
+        }
+
+        BlockStateContainer container = ebs.getData();
+        if (bits == 0) {
+            IBlockState state = palette[0];
+            if (state != Blocks.AIR.getDefaultState()) {
+                for (int i = 0; i < Cube.SIZE * Cube.SIZE * Cube.SIZE; i++) {
+                    container.set(i & 0xF, i >> 8, (i >> 4) & 0xF, state);
+                }
+            }
+        } else {
+            int perLong = 64 / bits;
+            long mask = (1L << bits) - 1;
+            for (int i = 0; i < Cube.SIZE * Cube.SIZE * Cube.SIZE; i++) {
+                int idx = (int) ((packed[i / perLong] >>> ((i % perLong) * bits)) & mask);
+                container.set(i & 0xF, i >> 8, (i >> 4) & 0xF, palette[idx]);
+            }
+        }
+
+        byte[] blockLight = new byte[LIGHT_ARRAY_SIZE];
+        in.readFully(blockLight);
+        ebs.setBlockLight(new NibbleArray(blockLight));
+
+        if (in.readByte() != 0) {
+            byte[] skyLight = new byte[LIGHT_ARRAY_SIZE];
+            in.readFully(skyLight);
+            if (hasSky) {
+                ebs.setSkyLight(new NibbleArray(skyLight));
+            }
+        }
+
+        ebs.recalculateRefCounts();
+        if (bits == 0) {
+            ebs = UniformStorages.tryShare(ebs, hasSky);
+        }
+        cube.setStorage(ebs);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Writes cubes in the binary cube format. Block states, light and the height map are written as raw length-prefixed sections,
+ * only entities, tile entities and scheduled ticks are stored as NBT.
+ * <p>
+ * Layout of the uncompressed data:
+ * <pre>
+ * byte    format version
+ * int     version NBT length, followed by an uncompressed NBT compound with DataVersion and ForgeDataVersion
+ * int     x, y, z
+ * byte    flags (populated, surfaceTracked, fullyPopulated, initLightDone)
+ * byte    EdgeNeedSkyLightUpdate
+ * int     blocks section length, followed by the blocks section (see {@link #writeBlocks})
+ * int     height map length, followed by the height map
+ * int     NBT section length, followed by an uncompressed NBT compound with Entities, TileEntities and TileTicks
+ * </pre>
+ * On disk the data is gzip compressed and prefixed with {@link #MAGIC}, which allows to tell it apart from gzipped NBT.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class IOBinaryWriter {
+
+    static final byte[] MAGIC = {'C', 'C', 'B', 'F'};
+    static final byte FORMAT_VERSION = 2;
+
+    static final int FLAG_POPULATED = 1;
+    static final int FLAG_SURFACE_TRACKED = 1 << 1;
+    static final int FLAG_FULLY_POPULATED = 1 << 2;
+    static final int FLAG_INIT_LIGHT_DONE = 1 << 3;
+
+    static final int LIGHT_ARRAY_SIZE = Cube.SIZE * Cube.SIZE * Cube.SIZE / 2;
+
+    static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length / 2 + MAGIC.length);
+        buf.write(MAGIC);
+        try (GZIPOutputStream out = new GZIPOutputStream(buf)) {
+            out.write(data);
+        }
+        return buf.toByteArray();
+    }
+
+    /**
+     * Writes the cube snapshot into uncompressed binary cube format. This can be called from any thread.
+     */
+    static byte[] write(CubeSnapshot cube) {
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(4 * LIGHT_ARRAY_SIZE);
+            DataOutputStream out = new DataOutputStream(buf);
+
+            writeBaseCube(cube, out);
+            writeBlocks(cube, out);
+            writeHeightMap(cube, out);
+            writeNbt(cube, out);
+
+            out.close();
+            return buf.toByteArray();
+        } catch (IOException e) {
+            // can't happen when writing to ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeBaseCube(CubeSnapshot cube, DataOutputStream out) throws IOException {
+        writeVersion(out);
+
+        out.writeInt(cube.x);
+        out.writeInt(cube.y);
+        out.writeInt(cube.z);
+
+        int flags = 0;
+        if (cube.isPopulated) {
+            flags |= FLAG_POPULATED;
+        }
+        if (cube.isSurfaceTracked) {
+            flags |= FLAG_SURFACE_TRACKED;
+        }
+        if (cube.isFullyPopulated) {
+            flags |= FLAG_FULLY_POPULATED;
+        }
+        if (cube.isInitialLightingDone) {
+            flags |= FLAG_INIT_LIGHT_DONE;
+        }
+        out.writeByte(flags);
+        out.writeByte(cube.edgeNeedSkyLightUpdate);
+    }
+
+    /**
+     * Writes the format version and the current version of Minecraft and of all mods that have data fixers
+     */
+    static void writeVersion(DataOutputStream out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        NBTTagCompound version = new NBTTagCompound();
+        IONbtWriter.writeDataVersion(version);
+        writeNbtSection(version, out);
+    }
+
+    /**
+     * Writes the blocks section, preceded by its length in bytes as an int, not including the length itself. The section is:
+     * <pre>
+     * byte    1 if the cube has block storage, 0 otherwise. Nothing else is written for empty cubes.
+     * int     palette size
+     * int[]   palette, global block state IDs
+     * byte    bits per block
+     * int     packed data length, 0 when bits per block is 0
+     * long[]  packed palette indices, entries don't span across longs
+     * byte[]  block light
+     * byte    1 if sky light is present, 0 otherwise
+     * byte[]  sky light
+     * </pre>
+     */
+    private static void writeBlocks(CubeSnapshot cube, DataOutputStream out) throws IOException {
+        ExtendedBlockStorage ebs = cube.storage;
+        if (ebs == null) {
+            out.writeInt(1);
+            out.writeByte(0);
+            return;
+        }
+        BlockStateContainer container = ebs.getData();
+
+        Map<IBlockState, Integer> paletteIndices = new IdentityHashMap<>();
+        int[] palette = new int[16];
+        int[] indices = new int[Cube.SIZE * Cube.SIZE * Cube.SIZE];
+        for (int i = 0; i < indices.length; i++) {
+            IBlockState state = container.get(i & 0xF, i >> 8, (i >> 4) & 0xF);
+            Integer idx = paletteIndices.get(state);
+            if (idx == null) {
+                idx = paletteIndices.size();
+                paletteIndices.put(state, idx);
+                if (idx == palette.length) {
+                    int[] newPalette = new int[palette.length * 2];
+                    System.arraycopy(palette, 0, newPalette, 0, palette.length);
+                    palette = newPalette;
+                }
+                int id = Block.BLOCK_STATE_IDS.get(state);
+                palette[idx] = id < 0 ? 0 : id;
+            }
+            indices[i] = idx;
+        }
+        int paletteSize = paletteIndices.size();
+        int bits = MathHelper.log2DeeplyNested(paletteSize);
+        long[] packed = pack(indices, bits);
+        byte[] skyLight = !cube.hasSkyLight || ebs.getSkyLight() == null ? null : ebs.getSkyLight().getData();
+
+        int length = 1 + 4 + paletteSize * 4 + 1 + 4 + packed.length * 8 + LIGHT_ARRAY_SIZE + 1 + (skyLight == null ? 0 : LIGHT_ARRAY_SIZE);
+        out.writeInt(length);
+
+        out.writeByte(1);
+        out.writeInt(paletteSize);
+        for (int i = 0; i < paletteSize; i++) {
+            out.writeInt(palette[i]);
+        }
+        out.writeByte(bits);
+        out.writeInt(packed.length);
+        for (long l : packed) {
+            out.writeLong(l);
+        }
+        out.write(ebs.getBlockLight().getData());
+        if (skyLight == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            out.write(skyLight);
+        }
+    }
+
+    private static void writeHeightMap(CubeSnapshot cube, DataOutputStream out) throws IOException {
+        int[] heightMap = cube.heightMap;
+        out.writeInt(heightMap.length);
+        for (int h : heightMap) {
+            out.writeInt(h);
+        }
+    }
+
+    private static void writeNbt(CubeSnapshot cube, DataOutputStream out) throws IOException {
+        writeNbtSection(cube.entityData, out);
+    }
+
+    static void writeNbtSection(NBTTagCompound nbt, DataOutputStream out) throws IOException {
+        ByteArrayOutputStream nbtBuf = new ByteArrayOutputStream();
+        try (DataOutputStream nbtOut = new DataOutputStream(nbtBuf)) {
+            CompressedStreamTools.write(nbt, nbtOut);
+        }
+        out.writeInt(nbtBuf.size());
+        nbtBuf.writeTo(out);
+    }
+
+    static long[] pack(int[] values, int bits) {
+        if (bits == 0) {
+            return new long[0];
+        }
+        int perLong = 64 / bits;
+        long[] packed = new long[(values.length + perLong - 1) / perLong];
+        for (int i = 0; i < values.length; i++) {
+            packed[i / perLong] |= ((long) values[i]) << ((i % perLong) * bits);
+        }
+        return packed;
+    }
+}
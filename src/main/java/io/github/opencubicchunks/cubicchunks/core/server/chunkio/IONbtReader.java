@@ -30,11 +30,15 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.server.ScheduledTickWheel;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.UniformStorages;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.tileentity.TileEntity;
@@ -44,7 +48,9 @@ import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraft.util.datafix.FixTypes;
 import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.fml.common.FMLCommonHandler;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -53,6 +59,37 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class IONbtReader {
 
+    // versions don't change while the game is running, but mods register their data fixers while loading, so these are set on first use
+    private static volatile int currentDataVersion;
+    @Nullable private static volatile NBTTagCompound currentForgeDataVersion;
+
+    /**
+     * Returns true if the column or cube has been written with the current version of Minecraft and of all mods that have data fixers. Running
+     * the DataFixer on it wouldn't change anything.
+     */
+    static boolean isDataVersionCurrent(NBTTagCompound nbt) {
+        NBTTagCompound forgeDataVersion = currentForgeDataVersion;
+        if (forgeDataVersion == null) {
+            NBTTagCompound current = new NBTTagCompound();
+            IONbtWriter.writeDataVersion(current);
+            currentDataVersion = current.getInteger("DataVersion");
+            // written after the int, so that seeing it set means both are set
+            forgeDataVersion = current.getCompoundTag("ForgeDataVersion");
+            currentForgeDataVersion = forgeDataVersion;
+        }
+        return nbt.getInteger("DataVersion") == currentDataVersion && nbt.getCompoundTag("ForgeDataVersion").equals(forgeDataVersion);
+    }
+
+    /**
+     * Runs the DataFixer on column or cube NBT, unless it's already up to date
+     */
+    static NBTTagCompound fixData(NBTTagCompound nbt) {
+        if (isDataVersionCurrent(nbt)) {
+            return nbt;
+        }
+        return FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, nbt);
+    }
+
     @Nullable
     static Chunk readColumn(World world, int x, int z, NBTTagCompound nbt) {
         NBTTagCompound level = nbt.getCompoundTag("Level");
@@ -175,6 +212,11 @@ public class IONbtReader {
             NBTTagList sectionList = nbt.getTagList("Sections", 10);
             nbt = sectionList.getCompoundTagAt(0);
 
+            if (nbt.hasKey("UniformState", Constants.NBT.TAG_INT)) {
+                cube.setStorage(readUniformBlocks(nbt, world, cube));
+                return;
+            }
+
             ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()), cube.getWorld().provider.hasSkyLight());
 
             byte[] abyte = nbt.getByteArray("Blocks");
@@ -194,6 +236,17 @@ public class IONbtReader {
         }
     }
 
+    private static ExtendedBlockStorage readUniformBlocks(NBTTagCompound nbt, WorldServer world, Cube cube) {
+        IBlockState state = Block.BLOCK_STATE_IDS.getByValue(nbt.getInteger("UniformState"));
+        if (state == null) {
+            state = Blocks.AIR.getDefaultState();
+        }
+        boolean hasSkyLight = world.provider.hasSkyLight();
+        int blockLight = nbt.getByte("UniformBlockLight") & 0xF;
+        int skyLight = hasSkyLight ? nbt.getByte("UniformSkyLight") & 0xF : 0;
+        return UniformStorages.create(Coords.cubeToMinBlock(cube.getY()), state, blockLight, skyLight, hasSkyLight);
+    }
+
     private static void readEntities(NBTTagCompound nbt, WorldServer world, Cube cube) {// entities
         cube.getEntityContainer().readFromNbt(nbt, "Entities", world, entity -> {
             // make sure this entity is really in the chunk
@@ -228,6 +281,9 @@ public class IONbtReader {
     }
 
     private static void readScheduledBlockTicks(NBTTagCompound nbt, WorldServer world) {
+        // the cube isn't in the cube map yet, so the ticks go directly to the world's scheduled ticks
+        ScheduledTickWheel scheduledTicks = ((ICubicWorldInternal.Server) world).getCubeCache().getScheduledTicks();
+        long time = world.getTotalWorldTime();
         NBTTagList nbtScheduledTicks = nbt.getTagList("TileTicks", 10);
         for (int i = 0; i < nbtScheduledTicks.tagCount(); i++) {
             NBTTagCompound nbtScheduledTick = nbtScheduledTicks.getCompoundTagAt(i);
@@ -240,14 +296,14 @@ public class IONbtReader {
             if (block == null) {
                 continue;
             }
-            world.scheduleBlockUpdate(
+            scheduledTicks.schedule(
                     new BlockPos(
                             nbtScheduledTick.getInteger("x"),
                             nbtScheduledTick.getInteger("y"),
                             nbtScheduledTick.getInteger("z")
                     ),
                     block,
-                    nbtScheduledTick.getInteger("t"),
+                    time + nbtScheduledTick.getInteger("t"),
                     nbtScheduledTick.getInteger("p")
             );
         }
@@ -23,23 +23,22 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
 
-import static io.github.opencubicchunks.cubicchunks.core.util.WorldServerAccess.getPendingTickListEntriesHashSet;
-import static io.github.opencubicchunks.cubicchunks.core.util.WorldServerAccess.getPendingTickListEntriesThisTick;
-
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.UniformStorages;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
 import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.world.NextTickListEntry;
-import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
@@ -49,10 +48,6 @@ import net.minecraftforge.fml.common.FMLCommonHandler;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.stream.Collectors;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -70,8 +65,7 @@ class IONbtWriter {
         NBTTagCompound columnNbt = new NBTTagCompound();
         NBTTagCompound level = new NBTTagCompound();
         columnNbt.setTag("Level", level);
-        columnNbt.setInteger("DataVersion", FMLCommonHandler.instance().getDataFixer().version);
-        FMLCommonHandler.instance().getDataFixer().writeVersionData(columnNbt);
+        writeDataVersion(columnNbt);
         writeBaseColumn(column, level);
         writeBiomes(column, level);
         writeOpacityIndex(column, level);
@@ -79,22 +73,31 @@ class IONbtWriter {
         return columnNbt;
     }
 
-    static NBTTagCompound write(final Cube cube) {
+    /**
+     * Writes the cube snapshot to NBT. Unlike columns, this can be called from any thread.
+     */
+    static NBTTagCompound write(final CubeSnapshot cube) {
         NBTTagCompound cubeNbt = new NBTTagCompound();
         //Added to preserve compatibility with vanilla NBT chunk format.
         NBTTagCompound level = new NBTTagCompound();
         cubeNbt.setTag("Level", level);
-        cubeNbt.setInteger("DataVersion", FMLCommonHandler.instance().getDataFixer().version);
-        FMLCommonHandler.instance().getDataFixer().writeVersionData(cubeNbt);
+        writeDataVersion(cubeNbt);
         writeBaseCube(cube, level);
         writeBlocks(cube, level);
-        writeEntities(cube, level);
-        writeTileEntities(cube, level);
-        writeScheduledTicks(cube, level);
+        // entities, tile entities and scheduled ticks have been written when the snapshot was taken
+        level.merge(cube.entityData);
         writeLightingInfo(cube, level);
         return cubeNbt;
     }
 
+    /**
+     * Writes the current version of Minecraft and of all mods that have data fixers
+     */
+    static void writeDataVersion(NBTTagCompound nbt) {
+        nbt.setInteger("DataVersion", FMLCommonHandler.instance().getDataFixer().version);
+        FMLCommonHandler.instance().getDataFixer().writeVersionData(nbt);
+    }
+
     private static void writeBaseColumn(Chunk column, NBTTagCompound nbt) {// coords
         nbt.setInteger("x", column.x);
         nbt.setInteger("z", column.z);
@@ -121,24 +124,24 @@ class IONbtWriter {
         nbt.setByteArray("OpacityIndex", ((ServerHeightMap) ((IColumn) column).getOpacityIndex()).getData());
     }
 
-    private static void writeBaseCube(Cube cube, NBTTagCompound cubeNbt) {
+    private static void writeBaseCube(CubeSnapshot cube, NBTTagCompound cubeNbt) {
         cubeNbt.setByte("v", (byte) 1);
 
         // coords
-        cubeNbt.setInteger("x", cube.getX());
-        cubeNbt.setInteger("y", cube.getY());
-        cubeNbt.setInteger("z", cube.getZ());
+        cubeNbt.setInteger("x", cube.x);
+        cubeNbt.setInteger("y", cube.y);
+        cubeNbt.setInteger("z", cube.z);
 
         // save the worldgen stage and the target stage
-        cubeNbt.setBoolean("populated", cube.isPopulated());
-        cubeNbt.setBoolean("isSurfaceTracked", cube.isSurfaceTracked());
-        cubeNbt.setBoolean("fullyPopulated", cube.isFullyPopulated());
+        cubeNbt.setBoolean("populated", cube.isPopulated);
+        cubeNbt.setBoolean("isSurfaceTracked", cube.isSurfaceTracked);
+        cubeNbt.setBoolean("fullyPopulated", cube.isFullyPopulated);
 
-        cubeNbt.setBoolean("initLightDone", cube.isInitialLightingDone());
+        cubeNbt.setBoolean("initLightDone", cube.isInitialLightingDone);
     }
 
-    private static void writeBlocks(Cube cube, NBTTagCompound cubeNbt) {
-        ExtendedBlockStorage ebs = cube.getStorage();
+    private static void writeBlocks(CubeSnapshot cube, NBTTagCompound cubeNbt) {
+        ExtendedBlockStorage ebs = cube.storage;
         if (ebs == null) {
             return; // no data to save anyway
         }
@@ -146,6 +149,9 @@ class IONbtWriter {
         NBTTagCompound section = new NBTTagCompound();
         sectionList.appendTag(section);
         cubeNbt.setTag("Sections", sectionList);
+        if (writeUniformBlocks(cube, ebs, section)) {
+            return;
+        }
         byte[] abyte = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE];
         NibbleArray data = new NibbleArray();
         NibbleArray add = ebs.getData().getDataForNBT(abyte, data);
@@ -157,14 +163,45 @@ class IONbtWriter {
             section.setByteArray("Add", add.getData());
         }
 
-        section.setByteArray("BlockLight", ebs.getBlockLight().getData());
+        // the light arrays are shared with the snapshot, copy them so that a cube read back from this NBT doesn't modify the snapshot
+        section.setByteArray("BlockLight", ebs.getBlockLight().getData().clone());
+
+        if (cube.hasSkyLight) {
+            section.setByteArray("SkyLight", ebs.getSkyLight().getData().clone());
+        }
+    }
 
-        if (cube.getWorld().provider.hasSkyLight()) {
-            section.setByteArray("SkyLight", ebs.getSkyLight().getData());
+    /**
+     * Cubes made of a single block state, with constant block and sky light (most often air in the sky or stone underground) are written
+     * as just the block state and the light values, instead of full block and light arrays.
+     *
+     * @return true if the cube is uniform and has been written
+     */
+    private static boolean writeUniformBlocks(CubeSnapshot cube, ExtendedBlockStorage ebs, NBTTagCompound section) {
+        int blockLight = UniformStorages.getUniformLight(ebs.getBlockLight());
+        if (blockLight < 0) {
+            return false;
+        }
+        int skyLight = 0;
+        if (cube.hasSkyLight) {
+            skyLight = UniformStorages.getUniformLight(ebs.getSkyLight());
+            if (skyLight < 0) {
+                return false;
+            }
+        }
+        IBlockState state = UniformStorages.getUniformState(ebs.getData());
+        if (state == null) {
+            return false;
         }
+        section.setInteger("UniformState", Block.BLOCK_STATE_IDS.get(state));
+        section.setByte("UniformBlockLight", (byte) blockLight);
+        if (cube.hasSkyLight) {
+            section.setByte("UniformSkyLight", (byte) skyLight);
+        }
+        return true;
     }
 
-    private static void writeEntities(Cube cube, NBTTagCompound cubeNbt) {// entities
+    static void writeEntities(Cube cube, NBTTagCompound cubeNbt) {// entities
         cube.getEntityContainer().writeToNbt(cubeNbt, "Entities", entity -> {
             // make sure this entity is really in the chunk
             int cubeX = Coords.getCubeXForEntity(entity);
@@ -181,18 +218,19 @@ class IONbtWriter {
         });
     }
 
-    private static void writeTileEntities(Cube cube, NBTTagCompound cubeNbt) {// tile entities
+    static void writeTileEntities(Cube cube, NBTTagCompound cubeNbt) {// tile entities
         NBTTagList nbtTileEntities = new NBTTagList();
         cubeNbt.setTag("TileEntities", nbtTileEntities);
-        for (TileEntity blockEntity : cube.getTileEntityMap().values()) {
+        for (TileEntity blockEntity : cube.getTileEntityMapView().values()) {
             NBTTagCompound nbtTileEntity = new NBTTagCompound();
             blockEntity.writeToNBT(nbtTileEntity);
             nbtTileEntities.appendTag(nbtTileEntity);
         }
     }
 
-    private static void writeScheduledTicks(Cube cube, NBTTagCompound cubeNbt) {// scheduled block ticks
-        Iterable<NextTickListEntry> scheduledTicks = getScheduledTicks(cube);
+    static void writeScheduledTicks(Cube cube, NBTTagCompound cubeNbt) {// scheduled block ticks
+        Iterable<NextTickListEntry> scheduledTicks = ((ICubicWorldInternal.Server) cube.getWorld()).getCubeCache().getScheduledTicks()
+                .getTicks(cube.getX(), cube.getY(), cube.getZ());
         long time = cube.getWorld().getTotalWorldTime();
 
         NBTTagList nbtTicks = new NBTTagList();
@@ -210,37 +248,11 @@ class IONbtWriter {
         }
     }
 
-    private static void writeLightingInfo(Cube cube, NBTTagCompound cubeNbt) {
+    private static void writeLightingInfo(CubeSnapshot cube, NBTTagCompound cubeNbt) {
         NBTTagCompound lightingInfo = new NBTTagCompound();
         cubeNbt.setTag("LightingInfo", lightingInfo);
 
-        int[] lastHeightmap = cube.getColumn().getHeightMap();
-        lightingInfo.setIntArray("LastHeightMap", lastHeightmap); //TODO: why are we storing the height map on a Cube???
-        byte edgeNeedSkyLightUpdate = 0;
-        for (int i = 0; i < cube.edgeNeedSkyLightUpdate.length; i++) {
-            if (cube.edgeNeedSkyLightUpdate[i])
-                edgeNeedSkyLightUpdate |= 1 << i;
-        }
-        lightingInfo.setByte("EdgeNeedSkyLightUpdate", edgeNeedSkyLightUpdate);
-    }
-
-    private static List<NextTickListEntry> getScheduledTicks(Cube cube) {
-        ArrayList<NextTickListEntry> out = new ArrayList<>();
-
-        // make sure this is a server
-        if (!(cube.getWorld() instanceof WorldServer)) {
-            throw new Error("Column is not on the server!");
-        }
-        WorldServer worldServer = (WorldServer) cube.getWorld();
-
-        // copy the ticks for this cube
-        copyScheduledTicks(out, getPendingTickListEntriesHashSet(worldServer), cube);
-        copyScheduledTicks(out, getPendingTickListEntriesThisTick(worldServer), cube);
-
-        return out;
-    }
-
-    private static void copyScheduledTicks(ArrayList<NextTickListEntry> out, Collection<NextTickListEntry> scheduledTicks, Cube cube) {
-        out.addAll(scheduledTicks.stream().filter(scheduledTick -> cube.containsBlockPos(scheduledTick.position)).collect(Collectors.toList()));
+        lightingInfo.setIntArray("LastHeightMap", cube.heightMap); //TODO: why are we storing the height map on a Cube???
+        lightingInfo.setByte("EdgeNeedSkyLightUpdate", cube.edgeNeedSkyLightUpdate);
     }
 }
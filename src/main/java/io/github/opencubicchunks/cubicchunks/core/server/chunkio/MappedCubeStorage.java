@@ -0,0 +1,222 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.util.CheckedConsumer;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Cube storage using memory mapped region files. Columns are stored in 32x32 regions, cubes in 16x16x16 regions.
+ * <p>
+ * Loading copies the entry out of the mapped file, the entries are small compressed data.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class MappedCubeStorage implements ICubeStorage {
+
+    static final String DIR_2D = "region2d_mapped";
+    static final String DIR_3D = "region3d_mapped";
+
+    private static final int REGION_BITS_2D = 5;
+    private static final int REGION_BITS_3D = 4;
+    private static final int REGION_MASK_2D = (1 << REGION_BITS_2D) - 1;
+    private static final int REGION_MASK_3D = (1 << REGION_BITS_3D) - 1;
+
+    @Nonnull private final Path dir2d;
+    @Nonnull private final Path dir3d;
+    @Nonnull private final Map<RegionKey, MappedRegionFile> regions2d = new ConcurrentHashMap<>();
+    @Nonnull private final Map<RegionKey, MappedRegionFile> regions3d = new ConcurrentHashMap<>();
+
+    MappedCubeStorage(Path path) throws IOException {
+        this.dir2d = path.resolve(DIR_2D);
+        this.dir3d = path.resolve(DIR_3D);
+        Files.createDirectories(dir2d);
+        Files.createDirectories(dir3d);
+    }
+
+    @Override public Optional<ByteBuffer> load(EntryLocation2D location) throws IOException {
+        return region2d(location).read(index2d(location));
+    }
+
+    @Override public Optional<ByteBuffer> load(EntryLocation3D location) throws IOException {
+        return region3d(location).read(index3d(location));
+    }
+
+    @Override public void save2d(EntryLocation2D location, ByteBuffer data) throws IOException {
+        region2d(location).write(index2d(location), data);
+    }
+
+    @Override public void save3d(EntryLocation3D location, ByteBuffer data) throws IOException {
+        region3d(location).write(index3d(location), data);
+    }
+
+    @Override public void flush() {
+        regions2d.values().forEach(MappedRegionFile::force);
+        regions3d.values().forEach(MappedRegionFile::force);
+    }
+
+    @Override public void forEachColumn(CheckedConsumer<? super EntryLocation2D, IOException> consumer) throws IOException {
+        for (Path file : listRegions(dir2d, "2dm", 2)) {
+            String[] parts = file.getFileName().toString().split("\\.");
+            int regionX = Integer.parseInt(parts[1]);
+            int regionZ = Integer.parseInt(parts[2]);
+            BitSet entries = getRegion(regions2d, new RegionKey(regionX, 0, regionZ), file, 1 << (REGION_BITS_2D * 2)).getExistingEntries();
+            for (int i = entries.nextSetBit(0); i >= 0; i = entries.nextSetBit(i + 1)) {
+                consumer.accept(new EntryLocation2D(
+                        regionX << REGION_BITS_2D | i >>> REGION_BITS_2D,
+                        regionZ << REGION_BITS_2D | i & REGION_MASK_2D));
+            }
+        }
+    }
+
+    @Override public void forEachCube(CheckedConsumer<? super EntryLocation3D, IOException> consumer) throws IOException {
+        for (Path file : listRegions(dir3d, "3dm", 3)) {
+            String[] parts = file.getFileName().toString().split("\\.");
+            int regionX = Integer.parseInt(parts[1]);
+            int regionY = Integer.parseInt(parts[2]);
+            int regionZ = Integer.parseInt(parts[3]);
+            BitSet entries = getRegion(regions3d, new RegionKey(regionX, regionY, regionZ), file, 1 << (REGION_BITS_3D * 3))
+                    .getExistingEntries();
+            for (int i = entries.nextSetBit(0); i >= 0; i = entries.nextSetBit(i + 1)) {
+                consumer.accept(new EntryLocation3D(
+                        regionX << REGION_BITS_3D | i >>> (REGION_BITS_3D * 2),
+                        regionY << REGION_BITS_3D | (i >>> REGION_BITS_3D) & REGION_MASK_3D,
+                        regionZ << REGION_BITS_3D | i & REGION_MASK_3D));
+            }
+        }
+    }
+
+    /**
+     * Writes everything to disk and unmaps all region files.
+     */
+    @Override public void close() {
+        regions2d.values().forEach(MappedRegionFile::close);
+        regions3d.values().forEach(MappedRegionFile::close);
+        regions2d.clear();
+        regions3d.clear();
+    }
+
+    private MappedRegionFile region2d(EntryLocation2D loc) throws IOException {
+        RegionKey key = new RegionKey(loc.getEntryX() >> REGION_BITS_2D, 0, loc.getEntryZ() >> REGION_BITS_2D);
+        return getRegion(regions2d, key, dir2d.resolve("r." + key.x + "." + key.z + ".2dm"), 1 << (REGION_BITS_2D * 2));
+    }
+
+    private MappedRegionFile region3d(EntryLocation3D loc) throws IOException {
+        RegionKey key = new RegionKey(loc.getEntryX() >> REGION_BITS_3D, loc.getEntryY() >> REGION_BITS_3D, loc.getEntryZ() >> REGION_BITS_3D);
+        return getRegion(regions3d, key, dir3d.resolve("r." + key.x + "." + key.y + "." + key.z + ".3dm"), 1 << (REGION_BITS_3D * 3));
+    }
+
+    /**
+     * Lists region files with the given extension and amount of coordinates in the name, skipping anything else in the directory
+     */
+    private static List<Path> listRegions(Path dir, String extension, int coords) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "r.*." + extension)) {
+            for (Path file : stream) {
+                String[] parts = file.getFileName().toString().split("\\.");
+                if (parts.length != coords + 2) {
+                    continue;
+                }
+                try {
+                    for (int i = 1; i <= coords; i++) {
+                        Integer.parseInt(parts[i]);
+                    }
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static MappedRegionFile getRegion(Map<RegionKey, MappedRegionFile> regions, RegionKey key, Path file, int entries)
+            throws IOException {
+        try {
+            return regions.computeIfAbsent(key, k -> {
+                try {
+                    return MappedRegionFile.open(file, entries);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static int index2d(EntryLocation2D loc) {
+        return (loc.getEntryX() & REGION_MASK_2D) << REGION_BITS_2D | (loc.getEntryZ() & REGION_MASK_2D);
+    }
+
+    private static int index3d(EntryLocation3D loc) {
+        return ((loc.getEntryX() & REGION_MASK_3D) << REGION_BITS_3D | (loc.getEntryY() & REGION_MASK_3D)) << REGION_BITS_3D
+                | (loc.getEntryZ() & REGION_MASK_3D);
+    }
+
+    private static final class RegionKey {
+
+        private final int x, y, z;
+
+        RegionKey(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public boolean equals(@Nullable Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RegionKey)) {
+                return false;
+            }
+            RegionKey other = (RegionKey) o;
+            return x == other.x && y == other.y && z == other.z;
+        }
+
+        @Override public int hashCode() {
+            return (x * 31 + y) * 31 + z;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Optional;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A region file accessed through a memory mapping.
+ * <p>
+ * The file starts with a header containing sector offset and length in bytes of each entry, as two ints. Entries are stored in
+ * consecutive {@link #SECTOR_SIZE} byte sectors after the header. Used sectors are tracked in a bitmap built when the file is opened. An
+ * entry is rewritten in place if it still fits in the sectors it already uses, otherwise it's moved to the first free range that is big
+ * enough, growing the file if needed.
+ * <p>
+ * The file channel is only kept open while the file is being mapped, so open regions don't use file handles. The mappings are released by
+ * {@link #close()}. If the JVM doesn't allow that, they are only released when they are garbage collected, and until then the file can't
+ * be moved or deleted on Windows.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class MappedRegionFile {
+
+    static final int SECTOR_SIZE = 512;
+    private static final int HEADER_ENTRY_SIZE = 8;
+    private static final int MIN_GROW_SECTORS = 64;
+    // takes a MappedByteBuffer and unmaps it, null if the JVM doesn't allow it
+    @Nullable private static final MethodHandle UNMAP = findUnmap();
+
+    @Nonnull private final Path path;
+    private final int entryCount;
+    private final int headerSectors;
+    @Nonnull private final BitSet usedSectors = new BitSet();
+    @Nonnull private MappedByteBuffer mapping;
+    private int sectorCount;
+    private boolean closed;
+
+    private MappedRegionFile(Path path, int entryCount) throws IOException {
+        this.path = path;
+        this.entryCount = entryCount;
+        this.headerSectors = sectorsFor(entryCount * HEADER_ENTRY_SIZE);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            // a new file is extended to the header size, which zero-fills it
+            int sectors = Math.max(headerSectors, sectorsFor(channel.size()));
+            this.mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) sectors * SECTOR_SIZE);
+            this.sectorCount = sectors;
+        }
+
+        usedSectors.set(0, headerSectors);
+        for (int i = 0; i < entryCount; i++) {
+            int offset = mapping.getInt(i * HEADER_ENTRY_SIZE);
+            int length = mapping.getInt(i * HEADER_ENTRY_SIZE + 4);
+            if (length > 0) {
+                usedSectors.set(offset, offset + sectorsFor(length));
+            }
+        }
+    }
+
+    static MappedRegionFile open(Path path, int entryCount) throws IOException {
+        return new MappedRegionFile(path, entryCount);
+    }
+
+    /**
+     * @return copy of the entry. Entries are copied because they can be rewritten in place, and the mapping unmapped, while they are
+     * decoded
+     */
+    synchronized Optional<ByteBuffer> read(int index) {
+        checkOpen();
+        checkIndex(index);
+        int offset = mapping.getInt(index * HEADER_ENTRY_SIZE);
+        int length = mapping.getInt(index * HEADER_ENTRY_SIZE + 4);
+        if (length <= 0) {
+            return Optional.empty();
+        }
+        byte[] data = new byte[length];
+        ByteBuffer buf = mapping.duplicate();
+        buf.position(offset * SECTOR_SIZE);
+        buf.get(data);
+        return Optional.of(ByteBuffer.wrap(data));
+    }
+
+    synchronized void write(int index, ByteBuffer data) throws IOException {
+        checkOpen();
+        checkIndex(index);
+        int length = data.remaining();
+        if (length <= 0) {
+            throw new IllegalArgumentException("Can't write empty entry");
+        }
+        int needed = sectorsFor(length);
+        int offset = mapping.getInt(index * HEADER_ENTRY_SIZE);
+        int oldLength = mapping.getInt(index * HEADER_ENTRY_SIZE + 4);
+        int oldSectors = oldLength <= 0 ? 0 : sectorsFor(oldLength);
+
+        if (oldLength > 0 && needed <= oldSectors) {
+            // still fits, rewrite in place and release the sectors that are no longer used
+            usedSectors.clear(offset + needed, offset + oldSectors);
+        } else {
+            if (oldLength > 0) {
+                usedSectors.clear(offset, offset + oldSectors);
+            }
+            offset = findFree(needed);
+            ensureCapacity(offset + needed);
+            usedSectors.set(offset, offset + needed);
+        }
+
+        ByteBuffer dst = mapping.duplicate();
+        dst.position(offset * SECTOR_SIZE);
+        dst.put(data.duplicate());
+
+        // update the header only after the data is written
+        mapping.putInt(index * HEADER_ENTRY_SIZE, offset);
+        mapping.putInt(index * HEADER_ENTRY_SIZE + 4, length);
+    }
+
+    /**
+     * @return indexes of all entries that exist in this region
+     */
+    synchronized BitSet getExistingEntries() {
+        checkOpen();
+        BitSet entries = new BitSet(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            if (mapping.getInt(i * HEADER_ENTRY_SIZE + 4) > 0) {
+                entries.set(i);
+            }
+        }
+        return entries;
+    }
+
+    synchronized void force() {
+        checkOpen();
+        mapping.force();
+    }
+
+    /**
+     * Writes everything to disk and releases the mapping.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        mapping.force();
+        closed = true;
+        unmap(mapping);
+    }
+
+    /**
+     * @return the amount of sectors not used by any entry, including the free space at the end of the file
+     */
+    synchronized int getFreeSectors() {
+        return sectorCount - usedSectors.cardinality();
+    }
+
+    private int findFree(int sectors) {
+        int start = headerSectors;
+        while (true) {
+            int free = usedSectors.nextClearBit(start);
+            int nextUsed = usedSectors.nextSetBit(free);
+            if (nextUsed < 0 || nextUsed - free >= sectors) {
+                return free;
+            }
+            start = nextUsed;
+        }
+    }
+
+    private void ensureCapacity(int sectors) throws IOException {
+        if (sectors <= sectorCount) {
+            return;
+        }
+        // grow in bigger steps, remapping is expensive
+        int newSectorCount = Math.max(sectors, sectorCount + Math.max(MIN_GROW_SECTORS, sectorCount / 4));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer oldMapping = this.mapping;
+            this.mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) newSectorCount * SECTOR_SIZE);
+            this.sectorCount = newSectorCount;
+            // reads copy the data while holding the lock, so nothing uses the old mapping anymore
+            unmap(oldMapping);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Region file " + path + " has been closed");
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= entryCount) {
+            throw new IndexOutOfBoundsException("Entry " + index + " out of range for region with " + entryCount + " entries");
+        }
+    }
+
+    private static int sectorsFor(long bytes) {
+        return (int) ((bytes + SECTOR_SIZE - 1) / SECTOR_SIZE);
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (UNMAP == null) {
+            return;
+        }
+        try {
+            UNMAP.invoke(buffer);
+        } catch (Throwable t) {
+            CubicChunks.LOGGER.warn("Unable to unmap region file, it will be released when garbage collected", t);
+        }
+    }
+
+    /**
+     * Java has no public API to unmap a file. Java 9 and newer have Unsafe.invokeCleaner, Java 8 has a cleaner in each mapped buffer.
+     */
+    @Nullable private static MethodHandle findUnmap() {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return lookup.unreflect(invokeCleaner).bindTo(theUnsafe.get(null))
+                    .asType(MethodType.methodType(void.class, MappedByteBuffer.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            MethodHandle getCleaner = lookup.unreflect(cleaner).asType(MethodType.methodType(Object.class, MappedByteBuffer.class));
+            MethodHandle doClean = lookup.unreflect(clean).asType(MethodType.methodType(void.class, Object.class));
+            return MethodHandles.filterReturnValue(getCleaner, doClean);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            CubicChunks.LOGGER.warn("Unable to find a way to unmap files, memory mapped region files will be released when garbage "
+                    + "collected", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Command line tool that compacts the region files of a cubic chunks save. All columns and cubes are copied into new region files, one
+ * region at a time, in order of column position and then cube y position. This removes unused sectors left behind by entries that have
+ * grown, and places cubes of the same column next to each other.
+ * <p>
+ * The server must not be running on the save. Usage:
+ * <pre>
+ * java -cp &lt;classpath&gt; io.github.opencubicchunks.cubicchunks.core.server.chunkio.RegionCompactor [--threads N] &lt;dimension directory&gt;...
+ * </pre>
+ * Dimension directory is the directory containing region2d and region3d directories, for the overworld it's the world directory.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class RegionCompactor {
+
+    private static final String TMP_DIR = "compact_tmp";
+    private static final String OLD_DIR = "compact_old";
+
+    private static final Comparator<EntryLocation2D> COLUMN_ORDER = Comparator
+            .comparingInt(EntryLocation2D::getEntryX)
+            .thenComparingInt(EntryLocation2D::getEntryZ);
+    private static final Comparator<EntryLocation3D> CUBE_ORDER = Comparator
+            .comparingInt(EntryLocation3D::getEntryX)
+            .thenComparingInt(EntryLocation3D::getEntryZ)
+            .thenComparingInt(EntryLocation3D::getEntryY);
+
+    private final Path dimensionDir;
+    private final StorageFormat format;
+    private final int threads;
+
+    private RegionCompactor(Path dimensionDir, StorageFormat format, int threads) {
+        this.dimensionDir = dimensionDir;
+        this.format = format;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> dirs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            } else {
+                dirs.add(Paths.get(args[i]));
+            }
+        }
+        if (dirs.isEmpty()) {
+            System.err.println("Usage: RegionCompactor [--threads N] <dimension directory>...");
+            System.exit(1);
+        }
+        for (Path dir : dirs) {
+            boolean found = false;
+            for (StorageFormat format : StorageFormat.values()) {
+                if (Files.isDirectory(dir.resolve(format.dir2d)) || Files.isDirectory(dir.resolve(format.dir3d))) {
+                    found = true;
+                    new RegionCompactor(dir, format, threads).run();
+                }
+            }
+            if (!found) {
+                System.err.println("No cubic chunks region files found in " + dir);
+            }
+        }
+    }
+
+    private void run() throws IOException {
+        Path tmp = dimensionDir.resolve(TMP_DIR);
+        Path old = dimensionDir.resolve(OLD_DIR);
+        if (Files.exists(tmp) || Files.exists(old)) {
+            throw new IOException(tmp + " or " + old + " already exists, a previous run may have been interrupted");
+        }
+        System.out.println("Compacting " + format.name().toLowerCase() + " regions in " + dimensionDir);
+        long sizeBefore = size(dimensionDir.resolve(format.dir2d)) + size(dimensionDir.resolve(format.dir3d));
+
+        try (ICubeStorage source = format.open(dimensionDir)) {
+            List<EntryLocation2D> columns = new ArrayList<>();
+            source.forEachColumn(columns::add);
+            List<EntryLocation3D> cubes = new ArrayList<>();
+            source.forEachCube(cubes::add);
+
+            // entries are sorted first, so regions are in order of their first entry
+            Map<Long, List<EntryLocation2D>> columnRegions = new LinkedHashMap<>();
+            columns.sort(COLUMN_ORDER);
+            for (EntryLocation2D loc : columns) {
+                columnRegions.computeIfAbsent(regionKey(loc.getEntryX() >> 5, 0, loc.getEntryZ() >> 5), k -> new ArrayList<>()).add(loc);
+            }
+            Map<Long, List<EntryLocation3D>> cubeRegions = new LinkedHashMap<>();
+            cubes.sort(CUBE_ORDER);
+            for (EntryLocation3D loc : cubes) {
+                cubeRegions.computeIfAbsent(regionKey(loc.getEntryX() >> 4, loc.getEntryY() >> 4, loc.getEntryZ() >> 4),
+                        k -> new ArrayList<>()).add(loc);
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                AtomicInteger done = new AtomicInteger();
+                int total = columnRegions.size() + cubeRegions.size();
+                List<Future<?>> tasks = new ArrayList<>(total);
+                // every region is written by its own storage instance, so that different threads never write to the same region file
+                for (List<EntryLocation2D> region : columnRegions.values()) {
+                    tasks.add(pool.submit(() -> copyRegion(tmp, region, source::load, ICubeStorage::save2d, done, total)));
+                }
+                for (List<EntryLocation3D> region : cubeRegions.values()) {
+                    tasks.add(pool.submit(() -> copyRegion(tmp, region, source::load, ICubeStorage::save3d, done, total)));
+                }
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException e) {
+                stopAndDelete(pool, tmp);
+                Thread.currentThread().interrupt();
+                throw new IOException("Compacting " + dimensionDir + " was interrupted, the original files have not been modified", e);
+            } catch (ExecutionException e) {
+                stopAndDelete(pool, tmp);
+                throw new IOException("Compacting " + dimensionDir + " failed, the original files have not been modified", e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+            System.out.println("Copied " + columns.size() + " columns and " + cubes.size() + " cubes");
+        }
+
+        long sizeAfter = size(tmp.resolve(format.dir2d)) + size(tmp.resolve(format.dir3d));
+
+        // swap the directories, the old files are deleted only after the new ones are in place. Both storages are closed at this point, so
+        // no file is still open or mapped, which would make moving them fail on Windows
+        Files.createDirectories(old);
+        List<String> movedIn = new ArrayList<>();
+        try {
+            for (String dir : new String[]{format.dir2d, format.dir3d}) {
+                if (Files.exists(dimensionDir.resolve(dir))) {
+                    Files.move(dimensionDir.resolve(dir), old.resolve(dir));
+                }
+                if (Files.exists(tmp.resolve(dir))) {
+                    Files.move(tmp.resolve(dir), dimensionDir.resolve(dir));
+                    movedIn.add(dir);
+                }
+            }
+        } catch (IOException e) {
+            try {
+                restore(tmp, old, movedIn);
+            } catch (IOException restoreException) {
+                e.addSuppressed(restoreException);
+                throw new IOException("Compacting " + dimensionDir + " failed while replacing the region directories, and they could not "
+                        + "be restored. The original files are in " + old + ", the compacted ones in " + tmp, e);
+            }
+            delete(tmp);
+            delete(old);
+            throw new IOException("Compacting " + dimensionDir + " failed while replacing the region directories, the original files have "
+                    + "been restored", e);
+        }
+        delete(old);
+        delete(tmp);
+
+        System.out.printf("Done: %d kB -> %d kB, reclaimed %d kB%n", sizeBefore / 1024, sizeAfter / 1024, (sizeBefore - sizeAfter) / 1024);
+    }
+
+    /**
+     * Stops the remaining copy tasks and deletes the partially written regions. The tasks are waited for first, so that none of them is
+     * still writing to the directory while it's deleted.
+     */
+    private static void stopAndDelete(ExecutorService pool, Path tmp) throws IOException {
+        pool.shutdownNow();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Waiting for region copy tasks to stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for region copy tasks to stop, " + tmp + " has to be deleted manually", e);
+        }
+        delete(tmp);
+    }
+
+    /**
+     * Moves the original region directories back from {@code old}, after the swap failed part way through
+     */
+    private void restore(Path tmp, Path old, List<String> movedIn) throws IOException {
+        for (String dir : movedIn) {
+            Files.move(dimensionDir.resolve(dir), tmp.resolve(dir));
+        }
+        for (String dir : new String[]{format.dir2d, format.dir3d}) {
+            if (Files.exists(old.resolve(dir))) {
+                Files.move(old.resolve(dir), dimensionDir.resolve(dir));
+            }
+        }
+    }
+
+    private <T> void copyRegion(Path target, List<T> region, Loader<T> loader, Saver<T> saver, AtomicInteger done, int total) {
+        try (ICubeStorage out = format.open(target)) {
+            for (T loc : region) {
+                Optional<ByteBuffer> data = loader.load(loc);
+                if (data.isPresent()) {
+                    saver.save(out, loc, data.get());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int count = done.incrementAndGet();
+        if (count % 100 == 0 || count == total) {
+            System.out.println("Regions: " + count + "/" + total);
+        }
+    }
+
+    private static long regionKey(int x, int y, int z) {
+        // 21 bits per coordinate is enough for region coordinates in a world limited to 30 million blocks in each direction
+        return ((long) (x & 0x1FFFFF) << 42) | ((long) (y & 0x1FFFFF) << 21) | (z & 0x1FFFFF);
+    }
+
+    private static long size(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            // delete the contents before the directories containing them
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private enum StorageFormat {
+        REGIONLIB("region2d", "region3d") {
+            @Override ICubeStorage open(Path path) throws IOException {
+                return new RegionLibCubeStorage(path);
+            }
+        },
+        MAPPED(MappedCubeStorage.DIR_2D, MappedCubeStorage.DIR_3D) {
+            @Override ICubeStorage open(Path path) throws IOException {
+                return new MappedCubeStorage(path);
+            }
+        };
+
+        private final String dir2d;
+        private final String dir3d;
+
+        StorageFormat(String dir2d, String dir3d) {
+            this.dir2d = dir2d;
+            this.dir3d = dir3d;
+        }
+
+        abstract ICubeStorage open(Path path) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Loader<T> {
+
+        Optional<ByteBuffer> load(T location) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Saver<T> {
+
+        void save(ICubeStorage storage, T location, ByteBuffer data) throws IOException;
+    }
+}
@@ -24,31 +24,43 @@
 package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
 
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import cubicchunks.regionlib.api.region.key.IKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
-import cubicchunks.regionlib.impl.SaveCubeColumns;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.world.WorldSavedCubicChunksData;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.util.datafix.FixTypes;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.WorldProvider;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.storage.ThreadedFileIOBase;
-import net.minecraftforge.fml.common.FMLCommonHandler;
 import org.apache.logging.log4j.Logger;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -58,32 +70,72 @@ public class RegionCubeIO implements ICubeIO {
     private static final long kB = 1024;
     private static final long MB = kB * 1024;
     private static final Logger LOGGER = CubicChunks.LOGGER;
+    // column NBT is mostly biomes and the height map, the exact size isn't known until it's compressed
+    private static final long COLUMN_SIZE_ESTIMATE = 4 * kB;
+
+    private static final AtomicInteger compressionThreadCounter = new AtomicInteger();
+    // shared between all worlds, compression doesn't depend on the save it's written to
+    private static final ThreadPoolExecutor compressionPool = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> {
+                Thread thread = new Thread(r, "Cube Compression Thread #" + compressionThreadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
 
     @Nonnull private WorldServer world;
-    @Nonnull private SaveCubeColumns save;
+    @Nonnull private ICubeStorage save;
     @Nonnull private ConcurrentMap<ChunkPos, SaveEntry<EntryLocation2D>> columnsToSave;
     @Nonnull private ConcurrentMap<CubePos, SaveEntry<EntryLocation3D>> cubesToSave;
+    // positions of columns and cubes that have been unloaded, they are saved first so that their data can be freed sooner
+    // these may contain positions that have already been saved, or appear more than once
+    @Nonnull private final Queue<ChunkPos> unloadedColumnsToSave = new ConcurrentLinkedQueue<>();
+    @Nonnull private final Queue<CubePos> unloadedCubesToSave = new ConcurrentLinkedQueue<>();
+    // estimated amount of memory used by everything in the save queues
+    @Nonnull private final AtomicLong pendingSaveBytes = new AtomicLong();
+    private final boolean binaryCubeFormat;
+    @Nonnull private final CompressedCubeCache cubeCache;
+    private volatile boolean closed;
     
     public RegionCubeIO(WorldServer world) throws IOException {
         this.world = world;
 
-        initSave();
+        WorldSavedCubicChunksData savedData =
+                (WorldSavedCubicChunksData) world.getPerWorldStorage().getOrLoadData(WorldSavedCubicChunksData.class, "cubicChunksData");
+        this.binaryCubeFormat = savedData != null && savedData.binaryCubeFormat;
+
+        initSave(savedData != null && savedData.memoryMappedRegions);
+
+        if (savedData != null && CubicChunksConfig.upgradeOutdatedWorlds && !IONbtReader.isDataVersionCurrent(savedData.dataVersions)) {
+            LOGGER.info("Upgrading cubic chunks save of dimension {}", world.provider.getDimension());
+            new WorldUpgrader(this.save, Runtime.getRuntime().availableProcessors()).upgrade();
+            NBTTagCompound versions = new NBTTagCompound();
+            IONbtWriter.writeDataVersion(versions);
+            savedData.dataVersions = versions;
+            savedData.markDirty();
+        }
 
         // init chunk save queue
         this.columnsToSave = new ConcurrentHashMap<>();
         this.cubesToSave = new ConcurrentHashMap<>();
+        this.cubeCache = new CompressedCubeCache(Math.max(0, CubicChunksConfig.compressedCubeCacheSize) * MB);
     }
 
-    private void initSave() throws IOException {
+    private void initSave(boolean memoryMappedRegions) throws IOException {
         WorldProvider prov = world.provider;
         Path path = this.world.getSaveHandler().getWorldDirectory().toPath();
         if (prov.getSaveFolder() != null) {
             path = path.resolve(prov.getSaveFolder());
         }
-        this.save = SaveCubeColumns.create(path);
+        this.save = memoryMappedRegions ? new MappedCubeStorage(path) : new RegionLibCubeStorage(path);
     }
 
     @Override public void flush() throws IOException {
+        if (closed) {
+            // Forge unloads the world before flushing it, everything has already been written by close()
+            return;
+        }
         if (columnsToSave.size() != 0 || cubesToSave.size() != 0) {
             LOGGER.error("Attempt to flush() CubeIO when there are remaining cubes to save! Saving remaining cubes to avoid corruption");
             while (this.writeNextIO()) {
@@ -91,17 +143,25 @@ public class RegionCubeIO implements ICubeIO {
             }
         }
 
+        this.save.flush();
+    }
+
+    @Override public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        // the IO thread may still be writing, only one thread can write to the storage
         try {
-            this.save.close();
-        } catch(IllegalStateException alreadyClosed) {
-            // ignore
-        } catch (Exception ex) {
-            CubicChunks.LOGGER.catching(ex);
+            ThreadedFileIOBase.getThreadedIOInstance().waitForFinish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the IO thread", e);
+        }
+        while (this.writeNextIO()) {
+            ;
         }
-        // TODO: hack! fix this properly in RegionLib by adding flush()
-        // this avoids Already closed exceptions when vanilla calls flush without the intent to actually close anything
-        // This also needs a lot of testing on windows
-        this.initSave();
+        this.closed = true;
+        this.save.close();
     }
 
     @Override @Nullable public Chunk loadColumn(int chunkX, int chunkZ) throws IOException {
@@ -115,24 +175,76 @@ public class RegionCubeIO implements ICubeIO {
             if (!buf.isPresent()) {
                 return null;
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+            nbt = IONbtReader.fixData(CompressedStreamTools.readCompressed(new ByteBufferInputStream(buf.get())));
         }
         return IONbtReader.readColumn(world, chunkX, chunkZ, nbt);
     }
 
     @Override @Nullable public ICubeIO.PartialCubeData loadCubeAsyncPart(Chunk column, int cubeY) throws IOException {
+        return decodeCube(column, cubeY, readCube(column.x, cubeY, column.z));
+    }
 
-        NBTTagCompound nbt;
+    @Override public ICubeIO.PartialCubeData[] loadCubesAsyncPart(Chunk column, int[] cubeYs) {
+        // read all the data first, sequentially, as all these cubes are most likely in the same region file
+        RawCube[] rawCubes = new RawCube[cubeYs.length];
+        for (int i = 0; i < cubeYs.length; i++) {
+            try {
+                rawCubes[i] = readCube(column.x, cubeYs[i], column.z);
+            } catch (IOException e) {
+                LOGGER.error(String.format("Could not read cube %d, %d, %d", column.x, cubeYs[i], column.z), e);
+            }
+        }
+        // decompressing and decoding is where most of the time is spent, do it in parallel
+        ICubeIO.PartialCubeData[] cubes = new ICubeIO.PartialCubeData[cubeYs.length];
+        IntStream.range(0, cubeYs.length).parallel().forEach(i -> {
+            try {
+                cubes[i] = decodeCube(column, cubeYs[i], rawCubes[i]);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error(String.format("Could not load cube %d, %d, %d", column.x, cubeYs[i], column.z), e);
+            }
+        });
+        return cubes;
+    }
+
+    @Nullable private RawCube readCube(int cubeX, int cubeY, int cubeZ) throws IOException {
+        CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
         SaveEntry<EntryLocation3D> saveEntry;
-        if ((saveEntry = this.cubesToSave.get(new CubePos(column.x, cubeY, column.z))) != null) {
-            nbt = saveEntry.nbt;
+        if ((saveEntry = this.cubesToSave.get(pos)) != null) {
+            return new RawCube(saveEntry);
+        }
+        // recently written cubes are cached in memory, and are already in the current DataVersion
+        byte[] data = this.cubeCache.get(pos);
+        if (data != null) {
+            return new RawCube(ByteBuffer.wrap(data), false);
+        }
+        // does the database have the cube?
+        Optional<ByteBuffer> buf = this.save.load(new EntryLocation3D(cubeX, cubeY, cubeZ));
+        return buf.map(byteBuffer -> new RawCube(byteBuffer, true)).orElse(null);
+    }
+
+    @Nullable private ICubeIO.PartialCubeData decodeCube(Chunk column, int cubeY, @Nullable RawCube raw) throws IOException {
+        if (raw == null) {
+            return null;
+        }
+        NBTTagCompound nbt;
+        SaveEntry<EntryLocation3D> saveEntry = raw.queued;
+        if (saveEntry != null) {
+            // the cube may not have been written yet, do it here. The snapshot is never modified so this is safe
+            if (saveEntry.binary) {
+                return IOBinaryReader.readCubeAsyncPart(column, column.x, cubeY, column.z, IOBinaryWriter.write(saveEntry.cube));
+            }
+            nbt = IONbtWriter.write(saveEntry.cube);
         } else {
-            // does the database have the cube?
-            Optional<ByteBuffer> buf = this.save.load(new EntryLocation3D(column.x, cubeY, column.z));
-            if (!buf.isPresent()) {
-                return null;
+            ByteBuffer data = raw.data;
+            // both formats can be read regardless of the format used by this world,
+            // cubes are converted to the world's format when they are saved again
+            if (IOBinaryReader.isBinary(data)) {
+                return IOBinaryReader.readCubeAsyncPart(column, column.x, cubeY, column.z, IOBinaryReader.decompress(data));
+            }
+            nbt = CompressedStreamTools.readCompressed(new ByteBufferInputStream(data));
+            if (raw.needsFixing) {
+                nbt = IONbtReader.fixData(nbt);
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
         }
 
         // restore the cube - async part
@@ -154,24 +266,60 @@ public class RegionCubeIO implements ICubeIO {
         // with concurrent access to world data structures
 
         // add the column to the save queue
-        this.columnsToSave
-                .put(column.getPos(), new SaveEntry<>(new EntryLocation2D(column.x, column.z), IONbtWriter.write(column)));
+        SaveEntry<EntryLocation2D> entry = new SaveEntry<>(new EntryLocation2D(column.x, column.z), IONbtWriter.write(column),
+                COLUMN_SIZE_ESTIMATE, column.unloadQueued);
+        enqueue(this.columnsToSave, this.unloadedColumnsToSave, column.getPos(), entry);
         column.setModified(false);
 
         // signal the IO thread to process the save queue
         ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
     }
 
-    @Override public void saveCube(Cube cube) {
+    @Override public void saveCube(Cube cube, boolean unloading) {
         // NOTE: this function blocks the world thread, so make it fast
+        // only a copy-on-write snapshot is taken here, the cube is serialized on the compression threads
 
-        this.cubesToSave.put(cube.getCoords(), new SaveEntry<>(new EntryLocation3D(cube.getX(), cube.getY(), cube.getZ()), IONbtWriter.write(cube)));
+        EntryLocation3D pos = new EntryLocation3D(cube.getX(), cube.getY(), cube.getZ());
+        SaveEntry<EntryLocation3D> entry = new SaveEntry<>(pos, CubeSnapshot.of(cube), binaryCubeFormat, unloading);
+        enqueue(this.cubesToSave, this.unloadedCubesToSave, cube.getCoords(), entry);
         cube.markSaved();
 
         // signal the IO thread to process the save queue
         ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
     }
 
+    @Override public boolean isSaveQueueFull() {
+        long limit = CubicChunksConfig.saveQueueMemoryLimit * MB;
+        return limit > 0 && this.pendingSaveBytes.get() > limit;
+    }
+
+    @Override public int getPendingColumnCount() {
+        return this.columnsToSave.size();
+    }
+
+    @Override public int getPendingCubeCount() {
+        return this.cubesToSave.size();
+    }
+
+    @Override public long getPendingSaveBytes() {
+        return this.pendingSaveBytes.get();
+    }
+
+    private <K, T extends IKey<?>> void enqueue(ConcurrentMap<K, SaveEntry<T>> queue, Queue<K> unloadedQueue, K key, SaveEntry<T> entry) {
+        SaveEntry<T> old = queue.put(key, entry);
+        this.pendingSaveBytes.addAndGet(entry.size - (old == null ? 0 : old.size));
+        if (entry.unloaded) {
+            unloadedQueue.add(key);
+        }
+    }
+
+    private <K, T extends IKey<?>> void dequeue(ConcurrentMap<K, SaveEntry<T>> queue, K key, SaveEntry<T> entry) {
+        // if it has been queued again in the meantime, keep the newer entry. It's accounted for when it's removed
+        if (queue.remove(key, entry)) {
+            this.pendingSaveBytes.addAndGet(-entry.size);
+        }
+    }
+
     @Override
     public boolean writeNextIO() {
         try {
@@ -188,73 +336,193 @@ public class RegionCubeIO implements ICubeIO {
             int numCubeBytesSaved = 0;
             long start = System.currentTimeMillis();
 
+            updateCompressionPoolSize();
+
+            // compress a batch of columns and cubes in parallel, the results are written below in the same order
+            CompressedBatch<ChunkPos, EntryLocation2D> columnBatch = compressBatch(columnsToSave, unloadedColumnsToSave, ColumnsBatchSize);
+            CompressedBatch<CubePos, EntryLocation3D> cubeBatch = compressBatch(cubesToSave, unloadedCubesToSave, CubesBatchSize);
+
             // save a batch of columns
-            Iterator<SaveEntry<EntryLocation2D>> colIt = columnsToSave.values().iterator();
-            for (SaveEntry<EntryLocation2D> entry; colIt.hasNext() && numColumnsSaved < ColumnsBatchSize; numColumnsSaved++) {
-                entry = colIt.next();
+            for (PendingWrite<ChunkPos, EntryLocation2D> write : columnBatch.writes) {
+                SaveEntry<EntryLocation2D> entry = write.entry;
                 try {
                     // save the column
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
+                    byte[] data = write.data.get();
                     this.save.save2d(entry.pos, ByteBuffer.wrap(data));
                     //column can be removed from toSave queue only after writing to disk
                     //to avoid race conditions
-                    colIt.remove();
+                    dequeue(columnsToSave, write.key, entry);
                     numColumnBytesSaved += data.length;
+                    numColumnsSaved++;
                 } catch (Throwable t) {
                     LOGGER.error(String.format("Unable to write column (%d, %d)", entry.pos.getEntryX(), entry.pos.getEntryZ()), t);
                 }
             }
 
-            boolean hasMoreColumns = colIt.hasNext();
-
-            Iterator<SaveEntry<EntryLocation3D>> cubeIt = cubesToSave.values().iterator();
             // save a batch of cubes
-
-            for (SaveEntry<EntryLocation3D> entry; cubeIt.hasNext() && numCubesSaved < CubesBatchSize; numCubesSaved++) {
-                entry = cubeIt.next();
+            for (PendingWrite<CubePos, EntryLocation3D> write : cubeBatch.writes) {
+                SaveEntry<EntryLocation3D> entry = write.entry;
                 try {
                     // save the cube
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
+                    byte[] data = write.data.get();
                     try {
                         this.save.save3d(entry.pos, ByteBuffer.wrap(data));
+                        // cache before removing from the queue, so that loading never misses the latest data
+                        this.cubeCache.put(write.key, data);
                     } finally {
                         //cube can be removed from toSave queue only after writing to disk
                         //to avoid race conditions
-                        cubeIt.remove();
+                        dequeue(cubesToSave, write.key, entry);
                     }
 
                     numCubeBytesSaved += data.length;
+                    numCubesSaved++;
                 } catch (Throwable t) {
                     LOGGER.error(
                             String.format("Unable to write cube %d, %d, %d", entry.pos.getEntryX(), entry.pos.getEntryY(), entry.pos.getEntryZ()), t);
                 }
             }
-            boolean hasMoreCubes = cubeIt.hasNext();
 
             numColumnsRemaining = this.columnsToSave.size();
             numCubesRemaining = this.cubesToSave.size();
 
             long diff = System.currentTimeMillis() - start;
-            LOGGER.debug("Wrote {} columns ({} remaining) ({}k) and {} cubes ({} remaining) ({}k) in {} ms",
+            LOGGER.debug("Wrote {} columns ({} remaining) ({}k) and {} cubes ({} remaining) ({}k) in {} ms, ~{}k queued, {}",
                     numColumnsSaved, numColumnsRemaining, numColumnBytesSaved / 1024,
-                    numCubesSaved, numCubesRemaining, numCubeBytesSaved / 1024, diff
+                    numCubesSaved, numCubesRemaining, numCubeBytesSaved / 1024, diff, pendingSaveBytes.get() / 1024, cubeCache
             );
 
-            return hasMoreColumns || hasMoreCubes;
+            return columnBatch.hasMore || cubeBatch.hasMore;
         } catch (Throwable t) {
             LOGGER.error("Exception occurred when saving cubes", t);
             return cubesToSave.size() != 0 || columnsToSave.size() != 0;
         }
     }
 
+    /**
+     * Submits up to batchSize entries from the given save queue to the compression thread pool. Entries of unloaded cubes and columns are
+     * submitted first. The entries are not removed from the queue.
+     */
+    private static <K, T extends IKey<?>> CompressedBatch<K, T> compressBatch(ConcurrentMap<K, SaveEntry<T>> queue, Queue<K> unloadedQueue,
+            int batchSize) {
+        List<PendingWrite<K, T>> writes = new ArrayList<>(Math.min(batchSize, queue.size()));
+        Set<K> submitted = new HashSet<>();
+        K key;
+        while (writes.size() < batchSize && (key = unloadedQueue.poll()) != null) {
+            SaveEntry<T> entry = queue.get(key);
+            // null if it's already been saved
+            if (entry != null && submitted.add(key)) {
+                writes.add(new PendingWrite<>(key, entry, compressionPool.submit(entry::compress)));
+            }
+        }
+        Iterator<Map.Entry<K, SaveEntry<T>>> it = queue.entrySet().iterator();
+        while (it.hasNext() && writes.size() < batchSize) {
+            Map.Entry<K, SaveEntry<T>> mapEntry = it.next();
+            if (!submitted.add(mapEntry.getKey())) {
+                continue;
+            }
+            SaveEntry<T> entry = mapEntry.getValue();
+            Future<byte[]> data = compressionPool.submit(entry::compress);
+            writes.add(new PendingWrite<>(mapEntry.getKey(), entry, data));
+        }
+        return new CompressedBatch<>(writes, it.hasNext() || !unloadedQueue.isEmpty());
+    }
+
+    private static synchronized void updateCompressionPoolSize() {
+        int threads = Math.max(1, CubicChunksConfig.ioCompressionThreads);
+        if (threads == compressionPool.getMaximumPoolSize()) {
+            return;
+        }
+        // the order matters, core pool size can't be above maximum pool size
+        if (threads > compressionPool.getMaximumPoolSize()) {
+            compressionPool.setMaximumPoolSize(threads);
+            compressionPool.setCorePoolSize(threads);
+        } else {
+            compressionPool.setCorePoolSize(threads);
+            compressionPool.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Cube data as read from the save queue, cache or disk, before decoding
+     */
+    private static class RawCube {
+
+        @Nullable private final SaveEntry<EntryLocation3D> queued;
+        @Nullable private final ByteBuffer data;
+        private final boolean needsFixing;
+
+        RawCube(SaveEntry<EntryLocation3D> queued) {
+            this.queued = queued;
+            this.data = null;
+            this.needsFixing = false;
+        }
+
+        RawCube(ByteBuffer data, boolean needsFixing) {
+            this.queued = null;
+            this.data = data;
+            this.needsFixing = needsFixing;
+        }
+    }
+
+    private static class CompressedBatch<K, T extends IKey<?>> {
+
+        private final List<PendingWrite<K, T>> writes;
+        private final boolean hasMore;
+
+        CompressedBatch(List<PendingWrite<K, T>> writes, boolean hasMore) {
+            this.writes = writes;
+            this.hasMore = hasMore;
+        }
+    }
+
+    private static class PendingWrite<K, T extends IKey<?>> {
+
+        private final K key;
+        private final SaveEntry<T> entry;
+        private final Future<byte[]> data;
+
+        PendingWrite(K key, SaveEntry<T> entry, Future<byte[]> data) {
+            this.key = key;
+            this.entry = entry;
+            this.data = data;
+        }
+    }
+
     private static class SaveEntry<T extends IKey<?>> {
 
         private final T pos;
-        private final NBTTagCompound nbt;
-
-        SaveEntry(T pos, NBTTagCompound nbt) {
+        // columns are written to NBT in the world thread, cubes are only snapshotted
+        @Nullable private final NBTTagCompound nbt;
+        @Nullable private final CubeSnapshot cube;
+        private final boolean binary;
+        // estimated memory used by this entry
+        private final long size;
+        private final boolean unloaded;
+
+        SaveEntry(T pos, NBTTagCompound nbt, long size, boolean unloaded) {
             this.pos = pos;
             this.nbt = nbt;
+            this.cube = null;
+            this.binary = false;
+            this.size = size;
+            this.unloaded = unloaded;
+        }
+
+        SaveEntry(T pos, CubeSnapshot cube, boolean binary, boolean unloaded) {
+            this.pos = pos;
+            this.nbt = null;
+            this.cube = cube;
+            this.binary = binary;
+            this.size = cube.estimateSize();
+            this.unloaded = unloaded;
+        }
+
+        byte[] compress() throws IOException {
+            if (cube == null) {
+                return IONbtWriter.writeNbtBytes(nbt);
+            }
+            return binary ? IOBinaryWriter.compress(IOBinaryWriter.write(cube)) : IONbtWriter.writeNbtBytes(IONbtWriter.write(cube));
         }
     }
 
@@ -0,0 +1,97 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.impl.SaveCubeColumns;
+import cubicchunks.regionlib.util.CheckedConsumer;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Cube storage using RegionLib region files
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class RegionLibCubeStorage implements ICubeStorage {
+
+    @Nonnull private final Path path;
+    @Nonnull private SaveCubeColumns save;
+
+    RegionLibCubeStorage(Path path) throws IOException {
+        this.path = path;
+        this.save = SaveCubeColumns.create(path);
+    }
+
+    @Override public Optional<ByteBuffer> load(EntryLocation2D location) throws IOException {
+        return save.load(location);
+    }
+
+    @Override public Optional<ByteBuffer> load(EntryLocation3D location) throws IOException {
+        return save.load(location);
+    }
+
+    @Override public void save2d(EntryLocation2D location, ByteBuffer data) throws IOException {
+        save.save2d(location, data);
+    }
+
+    @Override public void save3d(EntryLocation3D location, ByteBuffer data) throws IOException {
+        save.save3d(location, data);
+    }
+
+    @Override public void flush() throws IOException {
+        close();
+        // TODO: hack! fix this properly in RegionLib by adding flush()
+        // this avoids Already closed exceptions when vanilla calls flush without the intent to actually close anything
+        // This also needs a lot of testing on windows
+        this.save = SaveCubeColumns.create(path);
+    }
+
+    @Override public void forEachColumn(CheckedConsumer<? super EntryLocation2D, IOException> consumer) throws IOException {
+        save.getSaveSection2D().forAllKeys(consumer);
+    }
+
+    @Override public void forEachCube(CheckedConsumer<? super EntryLocation3D, IOException> consumer) throws IOException {
+        save.getSaveSection3D().forAllKeys(consumer);
+    }
+
+    @Override public void close() {
+        try {
+            this.save.close();
+        } catch(IllegalStateException alreadyClosed) {
+            // ignore
+        } catch (Exception ex) {
+            CubicChunks.LOGGER.catching(ex);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Rewrites all columns and cubes of a world that have been saved with older versions of Minecraft or of mods with data fixers, so that the
+ * DataFixer doesn't have to run when they are loaded in game.
+ * <p>
+ * This is meant to be run before the world is used. Reading and writing is done by the calling thread, in batches, while decompressing,
+ * fixing and compressing is done by a thread pool.
+ * <p>
+ * Only the NBT part of cubes in binary cube format is fixed, the rest of the binary data is copied unchanged.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class WorldUpgrader {
+
+    private static final Logger LOGGER = CubicChunks.LOGGER;
+    private static final int BATCH_SIZE = 1024;
+
+    @Nonnull private final ICubeStorage storage;
+    private final int threads;
+
+    WorldUpgrader(ICubeStorage storage, int threads) {
+        this.storage = storage;
+        this.threads = threads;
+    }
+
+    void upgrade() throws IOException {
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "World Upgrade Thread #" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<EntryLocation2D> columns = new ArrayList<>();
+            storage.forEachColumn(columns::add);
+            upgrade("columns", columns, storage::load, storage::save2d, pool);
+
+            List<EntryLocation3D> cubes = new ArrayList<>();
+            storage.forEachCube(cubes::add);
+            upgrade("cubes", cubes, storage::load, storage::save3d, pool);
+
+            storage.flush();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T extends IKey<?>> void upgrade(String name, List<T> locations, Loader<T> loader, Saver<T> saver, ExecutorService pool)
+            throws IOException {
+        LOGGER.info("Upgrading {} {}", locations.size(), name);
+        int upgraded = 0;
+        long lastLog = System.currentTimeMillis();
+        for (int start = 0; start < locations.size(); start += BATCH_SIZE) {
+            List<T> batch = locations.subList(start, Math.min(locations.size(), start + BATCH_SIZE));
+
+            List<Future<byte[]>> results = new ArrayList<>(batch.size());
+            for (T location : batch) {
+                Optional<ByteBuffer> data = loader.load(location);
+                results.add(data.isPresent() ? pool.submit(() -> upgradeEntry(data.get())) : null);
+            }
+            // written in the same thread as everything is read, buffers returned by the storage may be views of the data being written
+            for (int i = 0; i < batch.size(); i++) {
+                Future<byte[]> result = results.get(i);
+                byte[] data;
+                try {
+                    data = result == null ? null : result.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while upgrading " + name, e);
+                } catch (ExecutionException e) {
+                    LOGGER.error("Unable to upgrade " + batch.get(i), e.getCause());
+                    continue;
+                }
+                if (data != null) {
+                    saver.save(batch.get(i), ByteBuffer.wrap(data));
+                    upgraded++;
+                }
+            }
+
+            if (System.currentTimeMillis() - lastLog > 5000) {
+                lastLog = System.currentTimeMillis();
+                LOGGER.info("Upgrading {}: {}/{} checked, {} upgraded", name, start + batch.size(), locations.size(), upgraded);
+            }
+        }
+        LOGGER.info("Done upgrading {}: {} of {} needed upgrading", name, upgraded, locations.size());
+    }
+
+    /**
+     * @return the upgraded data, or null if it's already up to date
+     */
+    @Nullable private static byte[] upgradeEntry(ByteBuffer data) throws IOException {
+        if (IOBinaryReader.isBinary(data)) {
+            byte[] fixed = IOBinaryReader.fixData(IOBinaryReader.decompress(data));
+            return fixed == null ? null : IOBinaryWriter.compress(fixed);
+        }
+        NBTTagCompound nbt = CompressedStreamTools.readCompressed(new ByteBufferInputStream(data));
+        if (IONbtReader.isDataVersionCurrent(nbt)) {
+            return null;
+        }
+        nbt = IONbtReader.fixData(nbt);
+        IONbtWriter.writeDataVersion(nbt);
+        return IONbtWriter.writeNbtBytes(nbt);
+    }
+
+    @FunctionalInterface
+    private interface Loader<T> {
+
+        Optional<ByteBuffer> load(T location) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Saver<T> {
+
+        void save(T location, ByteBuffer data) throws IOException;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.Chunk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Loads the async part of all queued cubes of one column at once. Cubes can be added until the batch starts running, so the more loads
+ * are queued, the bigger the batches get.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class AsyncCubeBatchLoader implements Runnable {
+
+    @Nonnull private final QueuedColumn column;
+    @Nonnull private final ICubeIO loader;
+    @Nonnull private final Consumer<AsyncCubeBatchLoader> onStart;
+
+    private final List<AsyncCubeIOProvider> tasks = new ArrayList<>();
+    private boolean started = false;
+
+    /**
+     * @param onStart called when the batch starts loading, after which no more cubes can be added
+     */
+    AsyncCubeBatchLoader(QueuedColumn column, ICubeIO loader, Consumer<AsyncCubeBatchLoader> onStart) {
+        this.column = column;
+        this.loader = loader;
+        this.onStart = onStart;
+    }
+
+    /**
+     * Add a cube to this batch
+     *
+     * @return false if this batch has already started, and the task has to be loaded in a different batch
+     */
+    synchronized boolean add(AsyncCubeIOProvider task) {
+        if (started) {
+            return false;
+        }
+        task.setBatch(this);
+        tasks.add(task);
+        return true;
+    }
+
+    /**
+     * Remove a cube from this batch
+     *
+     * @return false if this batch has already started, and the task will be loaded
+     */
+    synchronized boolean remove(AsyncCubeIOProvider task) {
+        if (started) {
+            return false;
+        }
+        tasks.remove(task);
+        task.setBatch(null);
+        return true;
+    }
+
+    @Override
+    public void run() {
+        List<AsyncCubeIOProvider> toLoad;
+        synchronized (this) {
+            started = true;
+            toLoad = new ArrayList<>(tasks);
+        }
+        onStart.accept(this);
+        if (toLoad.isEmpty()) {
+            return;
+        }
+
+        try {
+            load(toLoad);
+        } finally {
+            // when loading fails, tasks that haven't been finished yet would block anyone waiting for them forever
+            for (AsyncCubeIOProvider task : toLoad) {
+                if (!task.isFinished()) {
+                    task.finish(null);
+                }
+            }
+        }
+    }
+
+    private void load(List<AsyncCubeIOProvider> toLoad) {
+        Chunk chunk;
+        try {
+            chunk = toLoad.get(0).getColumn();
+        } catch (InterruptedException e) {
+            throw new Error(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        if (chunk == null) {
+            CubicChunks.LOGGER.error("Could not load cubes in {} @ ({}, {}), column doesn't exist", column.world, column.x, column.z);
+            // all tasks are finished with no cube by run()
+            return;
+        }
+
+        List<AsyncCubeIOProvider> batched = new ArrayList<>(toLoad.size());
+        for (AsyncCubeIOProvider task : toLoad) {
+            Chunk taskColumn;
+            try {
+                taskColumn = task.getColumn();
+            } catch (InterruptedException e) {
+                throw new Error(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+            if (taskColumn == chunk) {
+                batched.add(task);
+            } else {
+                // the column has been reloaded in the meantime, this one can't be batched
+                task.run();
+            }
+        }
+
+        int[] cubeYs = new int[batched.size()];
+        for (int i = 0; i < cubeYs.length; i++) {
+            cubeYs[i] = batched.get(i).getCubeY();
+        }
+        ICubeIO.PartialCubeData[] cubes = loader.loadCubesAsyncPart(chunk, cubeYs);
+        for (int i = 0; i < cubeYs.length; i++) {
+            batched.get(i).finish(cubes[i]);
+        }
+    }
+}
@@ -45,6 +45,8 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
 
     @Nonnull private CompletableFuture<Chunk> futureColumn = new CompletableFuture<>();
     @Nullable private ICubeIO.PartialCubeData cubeData;
+    // the batch that will load this cube, null when it's loaded directly
+    @Nullable private volatile AsyncCubeBatchLoader batch;
 
     AsyncCubeIOProvider(QueuedCube cube, ICubeIO loader) {
         this.cubeInfo = cube;
@@ -68,6 +70,34 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
         }
     }
 
+    /**
+     * Finish the async part with cube data loaded by {@link AsyncCubeBatchLoader}
+     */
+    synchronized void finish(@Nullable ICubeIO.PartialCubeData cubeData) {
+        this.cubeData = cubeData;
+        this.finished = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Waits for the column of this cube to be loaded
+     */
+    @Nullable Chunk getColumn() throws InterruptedException, ExecutionException {
+        return futureColumn.get();
+    }
+
+    int getCubeY() {
+        return cubeInfo.y;
+    }
+
+    @Nullable AsyncCubeBatchLoader getBatch() {
+        return batch;
+    }
+
+    void setBatch(@Nullable AsyncCubeBatchLoader batch) {
+        this.batch = batch;
+    }
+
     // sync stuff
     @Override
     public void runSynchronousPart() {
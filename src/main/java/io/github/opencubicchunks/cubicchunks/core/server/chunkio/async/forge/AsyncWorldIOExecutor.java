@@ -65,6 +65,8 @@ public class AsyncWorldIOExecutor {
 
     private static final Map<QueuedCube, AsyncCubeIOProvider> cubeTasks = Maps.newConcurrentMap();
     private static final Map<QueuedColumn, AsyncColumnIOProvider> columnTasks = Maps.newConcurrentMap();
+    // cube loads are grouped by column, cubes can be added to a batch until it starts loading
+    private static final Map<QueuedColumn, AsyncCubeBatchLoader> cubeBatches = Maps.newConcurrentMap();
 
     private static final AtomicInteger threadCounter = new AtomicInteger();
     private static final ThreadPoolExecutor cubeThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
@@ -153,7 +155,13 @@ public class AsyncWorldIOExecutor {
      * Runs the async part in current thread or blocks until already running async part is finished
      */
     private static void runTask(AsyncCubeIOProvider task) {
-        runTask(cubeThreadPool, task);
+        AsyncCubeBatchLoader batch = task.getBatch();
+        if (batch == null || batch.remove(task)) {
+            // the batch didn't start yet, so we still need to load the Cube
+            task.run();
+        } else {
+            waitForTask(task);
+        }
     }
 
     /**
@@ -171,23 +179,30 @@ public class AsyncWorldIOExecutor {
     private static void runTask(ThreadPoolExecutor executor, AsyncIOProvider task) {
         if (!executor.remove(task)) // If it wasn't in the pool, and run hasn't isFinished, then wait for the async thread.
         {
-            synchronized (task) // Warn incorrect - task shared via map
-            {
-                while (!task.isFinished()) {
-                    try {
-                        task.wait();
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        throw new RuntimeException("Failed to wait for cube/column load", e);
-                    }
-                }
-            }
+            waitForTask(task);
         } else {
             // If the task was not run yet we still need to load the Cube
             task.run();
         }
     }
 
+    /**
+     * Blocks until the async part of the task is finished
+     */
+    private static void waitForTask(AsyncIOProvider task) {
+        synchronized (task) // Warn incorrect - task shared via map
+        {
+            while (!task.isFinished()) {
+                try {
+                    task.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Failed to wait for cube/column load", e);
+                }
+            }
+        }
+    }
+
     //Queue the Cube to be loaded, and call the runnable when isFinished
     // Sponge: Runnable -> Consumer<Cube>
 
@@ -217,7 +232,7 @@ public class AsyncWorldIOExecutor {
             task.addCallback(runnable); // Add before calling execute for thread safety
             task.addCallback(c -> loadingCubesColumnMap.remove(columnKey, key));// add only the first time
             cubeTasks.put(key, task);
-            cubeThreadPool.execute(task);
+            queueInBatch(columnKey, loader, task);
         } else {
             task.addCallback(runnable);
         }
@@ -232,6 +247,19 @@ public class AsyncWorldIOExecutor {
 
     }
 
+    /**
+     * Adds the cube task to the not yet started batch of it's column, or starts a new batch
+     */
+    private static void queueInBatch(QueuedColumn columnKey, ICubeIO loader, AsyncCubeIOProvider task) {
+        AsyncCubeBatchLoader batch = cubeBatches.get(columnKey);
+        if (batch == null || !batch.add(task)) {
+            batch = new AsyncCubeBatchLoader(columnKey, loader, started -> cubeBatches.remove(columnKey, started));
+            batch.add(task);
+            cubeBatches.put(columnKey, batch);
+            cubeThreadPool.execute(batch);
+        }
+    }
+
     /**
      * Queue a column load, running the specified callback when the load has finished
      *
@@ -276,7 +304,10 @@ public class AsyncWorldIOExecutor {
         // TODO this is not threadsafe
         if (!task.hasCallbacks()) {
             cubeTasks.remove(key);
-            cubeThreadPool.remove(task);
+            AsyncCubeBatchLoader batch = task.getBatch();
+            if (batch != null) {
+                batch.remove(task);
+            }
         }
     }
 
@@ -38,7 +38,11 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class ClassInheritanceMultiMapFactory {
 
-    public static final ClassInheritanceMultiMap<Entity>[] EMPTY_ARR = new ClassInheritanceMultiMap[]{new BlankEntityContainer.BlankEntityMap()};
+    /**
+     * Empty entity map that ignores all modifications
+     */
+    public static final ClassInheritanceMultiMap<Entity> EMPTY = new BlankEntityContainer.BlankEntityMap();
+    public static final ClassInheritanceMultiMap<Entity>[] EMPTY_ARR = new ClassInheritanceMultiMap[]{EMPTY};
 
     /**
      * Creates new ClassInheritanceMultiMap without possibility of ConcurrentModificationException
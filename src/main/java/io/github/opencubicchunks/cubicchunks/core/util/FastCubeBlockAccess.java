@@ -240,6 +240,14 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
                 CubePos.fromBlockCoords(startPos), CubePos.fromBlockCoords(endPos));
     }
 
+    /**
+     * Block access for the given block region, that only contains cubes that are already loaded. Unlike
+     * {@link #forBlockRegion(ICubeProviderInternal, BlockPos, BlockPos)}, this never loads or generates any cubes.
+     */
+    public static ILightBlockAccess forLoadedBlockRegion(ICubicWorld world, ICubeProviderInternal prov, BlockPos startPos, BlockPos endPos) {
+        return new FastCubeBlockAccess(world, prov, CubePos.fromBlockCoords(startPos), CubePos.fromBlockCoords(endPos));
+    }
+
     private interface GetLoadedChunksProxy {
 
         Iterable<Chunk> getLoadedChunks(ICubeProvider prov);
@@ -0,0 +1,144 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.util;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Box;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Runs tasks that each only access a box-shaped region, in parallel.
+ * <p>
+ * Tasks whose regions intersect, directly or through other tasks, are put in the same group. Tasks of one group run one after another in
+ * the order they were given, and different groups run in parallel. As long as each task stays inside of its region, the result is the
+ * same as running all tasks one after another in the order they were given.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class RegionTaskGroups {
+
+    private RegionTaskGroups() {
+        throw new RuntimeException();
+    }
+
+    /**
+     * Splits the given tasks into groups such that regions of tasks in different groups don't intersect.
+     *
+     * @param tasks the tasks
+     * @param regions returns the region of a task, with the minimum coordinates first
+     * @param <T> the task type
+     *
+     * @return the groups, in order of their first task. Tasks in each group are in the same order as in the given list.
+     */
+    public static <T> List<List<T>> group(List<T> tasks, Function<? super T, Box> regions) {
+        int count = tasks.size();
+        Box[] boxes = new Box[count];
+        for (int i = 0; i < count; i++) {
+            boxes[i] = regions.apply(tasks.get(i));
+        }
+        // union-find, always keeping the lowest index as the root so that groups are ordered by their first task
+        int[] parent = new int[count];
+        for (int i = 0; i < count; i++) {
+            parent[i] = i;
+            for (int j = 0; j < i; j++) {
+                if (boxes[i].intersects(boxes[j])) {
+                    int rootI = find(parent, i);
+                    int rootJ = find(parent, j);
+                    if (rootI < rootJ) {
+                        parent[rootJ] = rootI;
+                    } else {
+                        parent[rootI] = rootJ;
+                    }
+                }
+            }
+        }
+        List<List<T>> groups = new ArrayList<>();
+        int[] groupIndex = new int[count];
+        for (int i = 0; i < count; i++) {
+            int root = find(parent, i);
+            if (root == i) {
+                groupIndex[i] = groups.size();
+                groups.add(new ArrayList<>());
+            }
+            groups.get(groupIndex[root]).add(tasks.get(i));
+        }
+        return groups;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Runs the given action for each group, in parallel, and waits until all of them are done. A single group is run in the calling
+     * thread.
+     *
+     * @param groups the groups, as returned by {@link #group(List, Function)}
+     * @param action the action to run for each group
+     * @param pool the pool to run the groups in
+     * @param <T> the task type
+     * @param <R> the result type
+     *
+     * @return the results of all groups, in the same order as the groups
+     */
+    public static <T, R> List<R> run(List<List<T>> groups, Function<List<T>, R> action, ForkJoinPool pool) {
+        List<R> results = new ArrayList<>(groups.size());
+        if (groups.size() == 1) {
+            results.add(action.apply(groups.get(0)));
+            return results;
+        }
+        List<ForkJoinTask<R>> tasks = new ArrayList<>(groups.size());
+        for (List<T> group : groups) {
+            tasks.add(pool.submit(() -> action.apply(group)));
+        }
+        // wait for all of them even if one fails, so that nothing is still running when the exception is thrown
+        RuntimeException exception = null;
+        for (ForkJoinTask<R> task : tasks) {
+            try {
+                results.add(task.join());
+            } catch (RuntimeException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        return results;
+    }
+}
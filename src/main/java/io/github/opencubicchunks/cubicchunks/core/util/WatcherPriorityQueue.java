@@ -0,0 +1,246 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.util;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Priority queue of watchers, with a fixed amount of priorities. It never needs to be sorted: each priority has its own bucket, and
+ * iteration goes through buckets from the lowest priority value to the highest.
+ * <p>
+ * Priorities are computed when an element is added, and again when {@link #update(Object)} or {@link #updateAll()} is called.
+ * Elements within one bucket are in no particular order.
+ * <p>
+ * The queue must not be modified while it's being iterated, except by {@link Iterator#remove()}.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@SuppressWarnings("unchecked")
+public class WatcherPriorityQueue<T> implements Iterable<T> {
+
+    private static final int INDEX_BITS = 24;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+
+    private final ToIntFunction<T> priority;
+    private final Object[][] buckets;
+    private final int[] bucketSizes;
+    /** Bucket and index in the bucket of each element, packed as bucket << INDEX_BITS | index */
+    private final TObjectIntMap<T> positions = new TObjectIntHashMap<>(1024, 0.5f, -1);
+
+    /**
+     * @param priority function returning priority of an element, lower values are returned first by the iterator. Values outside of the
+     * range from 0 to bucketCount - 1 are clamped.
+     * @param bucketCount the amount of different priorities
+     */
+    public WatcherPriorityQueue(ToIntFunction<T> priority, int bucketCount) {
+        if (bucketCount <= 0 || bucketCount > (1 << (31 - INDEX_BITS))) {
+            throw new IllegalArgumentException("Invalid bucket count " + bucketCount);
+        }
+        this.priority = priority;
+        this.buckets = new Object[bucketCount][];
+        this.bucketSizes = new int[bucketCount];
+        Arrays.fill(buckets, new Object[0]);
+    }
+
+    /** @return {@code true} if the queue doesn't contain any elements */
+    public boolean isEmpty() {
+        return positions.isEmpty();
+    }
+
+    /** @return the amount of elements in the queue */
+    public int size() {
+        return positions.size();
+    }
+
+    /** @return {@code true} if the queue contains the element */
+    public boolean contains(T element) {
+        return positions.containsKey(element);
+    }
+
+    /**
+     * Adds the element to the queue, if it's not already in the queue.
+     *
+     * @return {@code true} if the element has been added
+     */
+    public boolean add(T element) {
+        if (positions.containsKey(element)) {
+            return false;
+        }
+        insert(element, bucketFor(element));
+        return true;
+    }
+
+    /**
+     * Removes the element from the queue, if it's in the queue.
+     *
+     * @return {@code true} if the element has been removed
+     */
+    public boolean remove(T element) {
+        int pos = positions.remove(element);
+        if (pos < 0) {
+            return false;
+        }
+        removeAt(pos >>> INDEX_BITS, pos & INDEX_MASK);
+        return true;
+    }
+
+    /**
+     * Removes all elements for which the predicate returns {@code true}.
+     */
+    public void removeIf(Predicate<T> predicate) {
+        Iterator<T> it = iterator();
+        while (it.hasNext()) {
+            if (predicate.test(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Computes priority of the element again, and moves it to the right bucket. Does nothing if the element is not in the queue.
+     */
+    public void update(T element) {
+        int pos = positions.get(element);
+        if (pos < 0) {
+            return;
+        }
+        int oldBucket = pos >>> INDEX_BITS;
+        int newBucket = bucketFor(element);
+        if (oldBucket != newBucket) {
+            removeAt(oldBucket, pos & INDEX_MASK);
+            insert(element, newBucket);
+        }
+    }
+
+    /**
+     * Computes priority of all elements again.
+     */
+    public void updateAll() {
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            Object[] data = buckets[bucket];
+            for (int i = 0; i < bucketSizes[bucket]; ) {
+                T element = (T) data[i];
+                int newBucket = bucketFor(element);
+                if (newBucket == bucket) {
+                    i++;
+                    continue;
+                }
+                // the last element is moved into this index, check it next
+                removeAt(bucket, i);
+                insert(element, newBucket);
+            }
+        }
+    }
+
+    /**
+     * Returns iterator over all elements, in order of priority.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            int bucket = 0;
+            int index = 0;
+            boolean canRemove = false;
+
+            private void skipEmpty() {
+                while (bucket < buckets.length && index >= bucketSizes[bucket]) {
+                    bucket++;
+                    index = 0;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                skipEmpty();
+                return bucket < buckets.length;
+            }
+
+            @Override
+            public T next() {
+                skipEmpty();
+                if (bucket >= buckets.length) {
+                    throw new NoSuchElementException();
+                }
+                canRemove = true;
+                return (T) buckets[bucket][index++];
+            }
+
+            @Override
+            public void remove() {
+                if (!canRemove) {
+                    throw new IllegalStateException();
+                }
+                canRemove = false;
+                // the last element of the bucket is moved to this index, so it will be returned next
+                index--;
+                positions.remove(buckets[bucket][index]);
+                removeAt(bucket, index);
+            }
+        };
+    }
+
+    private int bucketFor(T element) {
+        int value = priority.applyAsInt(element);
+        return value < 0 ? 0 : value >= buckets.length ? buckets.length - 1 : value;
+    }
+
+    private void insert(T element, int bucket) {
+        int size = bucketSizes[bucket];
+        if (size == INDEX_MASK) {
+            throw new IllegalStateException("Too many elements in priority bucket " + bucket);
+        }
+        if (size == buckets[bucket].length) {
+            buckets[bucket] = Arrays.copyOf(buckets[bucket], Math.max(16, size * 2));
+        }
+        buckets[bucket][size] = element;
+        bucketSizes[bucket] = size + 1;
+        positions.put(element, bucket << INDEX_BITS | size);
+    }
+
+    /**
+     * Removes the element at the given index by moving the last element of the bucket in its place. Doesn't remove the position of the
+     * removed element.
+     */
+    private void removeAt(int bucket, int index) {
+        Object[] data = buckets[bucket];
+        int last = --bucketSizes[bucket];
+        if (index != last) {
+            T moved = (T) data[last];
+            data[index] = moved;
+            positions.put(moved, bucket << INDEX_BITS | index);
+        }
+        data[last] = null;
+    }
+}
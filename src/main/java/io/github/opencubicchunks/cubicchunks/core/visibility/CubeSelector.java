@@ -38,9 +38,25 @@ public abstract class CubeSelector {
 
     public abstract void forAllVisibleFrom(CubePos cubePos, int horizontalViewDistance, int verticalViewDistance, Consumer<CubePos> consumer);
 
+    /**
+     * Finds cubes and columns that are visible from only one of the given positions. The consumers are called in this order: first for all
+     * columns to load, then for all cubes to load, then for all cubes to remove and then for all columns to remove.
+     */
     public abstract void findChanged(CubePos oldAddress, CubePos newAddress, int horizontalViewDistance, int verticalViewDistance,
-            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad, Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad);
+            CubeConsumer cubesToRemove, CubeConsumer cubesToLoad, ColumnConsumer columnsToRemove, ColumnConsumer columnsToLoad);
 
     public abstract void findAllUnloadedOnViewDistanceDecrease(CubePos playerAddress, int oldHorizontalViewDistance, int newHorizontalViewDistance,
             int oldVerticalViewDistance, int newVerticalViewDistance, Set<CubePos> cubesToUnload, Set<ChunkPos> columnsToUnload);
+
+    @FunctionalInterface
+    public interface CubeConsumer {
+
+        void accept(int cubeX, int cubeY, int cubeZ);
+    }
+
+    @FunctionalInterface
+    public interface ColumnConsumer {
+
+        void accept(int cubeX, int cubeZ);
+    }
 }
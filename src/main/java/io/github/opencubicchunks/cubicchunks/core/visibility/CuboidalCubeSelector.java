@@ -53,47 +53,26 @@ public class CuboidalCubeSelector extends CubeSelector {
     @Override
     public void findChanged(CubePos oldPos, CubePos newPos,
             int horizontalViewDistance, int verticalViewDistance,
-            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad,
-            Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad) {
+            CubeConsumer cubesToRemove, CubeConsumer cubesToLoad,
+            ColumnConsumer columnsToRemove, ColumnConsumer columnsToLoad) {
         int oldX = oldPos.getX();
         int oldY = oldPos.getY();
         int oldZ = oldPos.getZ();
         int newX = newPos.getX();
         int newY = newPos.getY();
         int newZ = newPos.getZ();
-        int dx = newX - oldX;
-        int dy = newY - oldY;
-        int dz = newZ - oldZ;
-
-        for (int currentX = newX - horizontalViewDistance; currentX <= newX + horizontalViewDistance; ++currentX) {
-            for (int currentZ = newZ - horizontalViewDistance; currentZ <= newZ + horizontalViewDistance; ++currentZ) {
-                //first handle columns
-                //is current position outside of the old render distance square?
-                if (!this.isPointWithinCubeVolume(oldX, 0, oldZ, currentX, 0, currentZ, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToLoad.add(new ChunkPos(currentX, currentZ));
-                }
-
-                //if we moved the current point to where it would be previously,
-                //would it be outside of current render distance square?
-                if (!this.isPointWithinCubeVolume(newX, 0, newZ, currentX - dx, 0, currentZ - dz, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToRemove.add(new ChunkPos(currentX - dx, currentZ - dz));
-                }
-                for (int currentY = newY - verticalViewDistance; currentY <= newY + verticalViewDistance; ++currentY) {
-                    //now handle cubes, the same way
-                    if (!this.isPointWithinCubeVolume(oldX, oldY, oldZ, currentX, currentY, currentZ,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToLoad.add(new CubePos(currentX, currentY, currentZ));
-                    }
-                    if (!this.isPointWithinCubeVolume(newX, newY, newZ, currentX - dx, currentY - dy, currentZ - dz,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToRemove.add(new CubePos(currentX - dx, currentY - dy, currentZ - dz));
-                    }
-                }
-            }
-        }
+        int h = horizontalViewDistance;
+        int v = verticalViewDistance;
 
-        assert cubesToLoad.stream().allMatch(pos -> !cubesToRemove.contains(pos)) : "cubesToRemove contains element from cubesToLoad!";
-        assert columnsToLoad.stream().allMatch(pos -> !columnsToRemove.contains(pos)) : "columnsToRemove contains element from columnsToLoad!";
+        //order is important, columns first
+        forColumnsOutside(newX - h, newX + h, newZ - h, newZ + h,
+                oldX - h, oldX + h, oldZ - h, oldZ + h, columnsToLoad);
+        forCubesOutside(newX - h, newX + h, newY - v, newY + v, newZ - h, newZ + h,
+                oldX - h, oldX + h, oldY - v, oldY + v, oldZ - h, oldZ + h, cubesToLoad);
+        forCubesOutside(oldX - h, oldX + h, oldY - v, oldY + v, oldZ - h, oldZ + h,
+                newX - h, newX + h, newY - v, newY + v, newZ - h, newZ + h, cubesToRemove);
+        forColumnsOutside(oldX - h, oldX + h, oldZ - h, oldZ + h,
+                newX - h, newX + h, newZ - h, newZ + h, columnsToRemove);
     }
 
     @Override
@@ -101,31 +80,88 @@ public class CuboidalCubeSelector extends CubeSelector {
             int oldHorizontalViewDistance, int newHorizontalViewDistance,
             int oldVerticalViewDistance, int newVerticalViewDistance,
             Set<CubePos> cubesToUnload, Set<ChunkPos> columnsToUnload) {
-        int playerCubeX = playerPos.getX();
-        int playerCubeY = playerPos.getY();
-        int playerCubeZ = playerPos.getZ();
-
-        for (int cubeX = playerCubeX - oldHorizontalViewDistance; cubeX <= playerCubeX + oldHorizontalViewDistance; cubeX++) {
-            for (int cubeZ = playerCubeZ - oldHorizontalViewDistance; cubeZ <= playerCubeZ + oldHorizontalViewDistance; cubeZ++) {
-                if (!isPointWithinCubeVolume(playerCubeX, 0, playerCubeZ, cubeX, 0, cubeZ, newHorizontalViewDistance, newVerticalViewDistance)) {
-                    columnsToUnload.add(new ChunkPos(cubeX, cubeZ));
-                }
-                for (int cubeY = playerCubeY - oldVerticalViewDistance; cubeY <= playerCubeY + oldVerticalViewDistance; cubeY++) {
-                    if (!isPointWithinCubeVolume(playerCubeX, playerCubeY, playerCubeZ, cubeX, cubeY, cubeZ, newHorizontalViewDistance,
-                            newVerticalViewDistance)) {
-                        cubesToUnload.add(new CubePos(cubeX, cubeY, cubeZ));
-                    }
+        int x = playerPos.getX();
+        int y = playerPos.getY();
+        int z = playerPos.getZ();
+        int oldH = oldHorizontalViewDistance;
+        int oldV = oldVerticalViewDistance;
+        int newH = newHorizontalViewDistance;
+        int newV = newVerticalViewDistance;
+
+        forColumnsOutside(x - oldH, x + oldH, z - oldH, z + oldH,
+                x - newH, x + newH, z - newH, z + newH,
+                (cubeX, cubeZ) -> columnsToUnload.add(new ChunkPos(cubeX, cubeZ)));
+        forCubesOutside(x - oldH, x + oldH, y - oldV, y + oldV, z - oldH, z + oldH,
+                x - newH, x + newH, y - newV, y + newV, z - newH, z + newH,
+                (cubeX, cubeY, cubeZ) -> cubesToUnload.add(new CubePos(cubeX, cubeY, cubeZ)));
+    }
+
+    /**
+     * Calls the consumer for all cubes in the first box that are not in the second box. Instead of checking every cube of the first box,
+     * the difference is split into slabs: the parts outside of the second box on the x axis, then the parts within it on the x axis but
+     * outside on the y axis, and then the parts within it on both x and y axis but outside on the z axis. All bounds are inclusive.
+     */
+    private static void forCubesOutside(int minX, int maxX, int minY, int maxY, int minZ, int maxZ,
+            int exclMinX, int exclMaxX, int exclMinY, int exclMaxY, int exclMinZ, int exclMaxZ, CubeConsumer consumer) {
+        if (exclMinX > maxX || exclMaxX < minX || exclMinY > maxY || exclMaxY < minY || exclMinZ > maxZ || exclMaxZ < minZ) {
+            // the boxes don't intersect
+            forCubesIn(minX, maxX, minY, maxY, minZ, maxZ, consumer);
+            return;
+        }
+        int inMinX = Math.max(minX, exclMinX);
+        int inMaxX = Math.min(maxX, exclMaxX);
+        int inMinY = Math.max(minY, exclMinY);
+        int inMaxY = Math.min(maxY, exclMaxY);
+        int inMinZ = Math.max(minZ, exclMinZ);
+        int inMaxZ = Math.min(maxZ, exclMaxZ);
+
+        forCubesIn(minX, inMinX - 1, minY, maxY, minZ, maxZ, consumer);
+        forCubesIn(inMaxX + 1, maxX, minY, maxY, minZ, maxZ, consumer);
+
+        forCubesIn(inMinX, inMaxX, minY, inMinY - 1, minZ, maxZ, consumer);
+        forCubesIn(inMinX, inMaxX, inMaxY + 1, maxY, minZ, maxZ, consumer);
+
+        forCubesIn(inMinX, inMaxX, inMinY, inMaxY, minZ, inMinZ - 1, consumer);
+        forCubesIn(inMinX, inMaxX, inMinY, inMaxY, inMaxZ + 1, maxZ, consumer);
+    }
+
+    private static void forCubesIn(int minX, int maxX, int minY, int maxY, int minZ, int maxZ, CubeConsumer consumer) {
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    consumer.accept(x, y, z);
                 }
             }
         }
     }
 
-    private boolean isPointWithinCubeVolume(int cubeX, int cubeY, int cubeZ, int pointX, int pointY, int pointZ, int horizontal, int vertical) {
-        int dx = cubeX - pointX;
-        int dy = cubeY - pointY;
-        int dz = cubeZ - pointZ;
-        return dx >= -horizontal && dx <= horizontal
-                && dy >= -vertical && dy <= vertical
-                && dz >= -horizontal && dz <= horizontal;
+    /**
+     * Calls the consumer for all columns in the first square that are not in the second square, the same way as
+     * {@link #forCubesOutside}.
+     */
+    private static void forColumnsOutside(int minX, int maxX, int minZ, int maxZ,
+            int exclMinX, int exclMaxX, int exclMinZ, int exclMaxZ, ColumnConsumer consumer) {
+        if (exclMinX > maxX || exclMaxX < minX || exclMinZ > maxZ || exclMaxZ < minZ) {
+            forColumnsIn(minX, maxX, minZ, maxZ, consumer);
+            return;
+        }
+        int inMinX = Math.max(minX, exclMinX);
+        int inMaxX = Math.min(maxX, exclMaxX);
+        int inMinZ = Math.max(minZ, exclMinZ);
+        int inMaxZ = Math.min(maxZ, exclMaxZ);
+
+        forColumnsIn(minX, inMinX - 1, minZ, maxZ, consumer);
+        forColumnsIn(inMaxX + 1, maxX, minZ, maxZ, consumer);
+
+        forColumnsIn(inMinX, inMaxX, minZ, inMinZ - 1, consumer);
+        forColumnsIn(inMinX, inMaxX, inMaxZ + 1, maxZ, consumer);
+    }
+
+    private static void forColumnsIn(int minX, int maxX, int minZ, int maxZ, ColumnConsumer consumer) {
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                consumer.accept(x, z);
+            }
+        }
     }
 }
@@ -47,12 +47,15 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class EntityContainer {
 
+    /**
+     * {@link ClassInheritanceMultiMapFactory#EMPTY} until the first entity is added, most cubes never contain any entities
+     */
     @Nonnull protected ClassInheritanceMultiMap<Entity> entities;
     protected boolean hasActiveEntities; //TODO: hasActiveEntitys is like an isModifyed right?
     protected long lastSaveTime;
 
     public EntityContainer() {
-        this.entities = ClassInheritanceMultiMapFactory.create(Entity.class);
+        this.entities = ClassInheritanceMultiMapFactory.EMPTY;
         this.hasActiveEntities = false;
         this.lastSaveTime = 0;
     }
@@ -62,6 +65,9 @@ public class EntityContainer {
     //=======================================
 
     public void addEntity(Entity entity) {
+        if (this.entities == ClassInheritanceMultiMapFactory.EMPTY) {
+            this.entities = ClassInheritanceMultiMapFactory.create(Entity.class);
+        }
         this.entities.add(entity);
         this.hasActiveEntities = true;
     }
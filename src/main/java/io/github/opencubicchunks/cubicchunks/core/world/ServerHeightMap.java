@@ -35,20 +35,30 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * Height map of a column that also tracks the opacity of all blocks below the top block, as segments of alternating opacity.
+ * <p>
+ * The segments of all block columns are packed in a single array. Each block column has a range of that array, given by
+ * {@link #segmentOffsets}, which may contain unused space after its segments so that segments can be inserted without moving the
+ * segments of other block columns.
+ */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
 public class ServerHeightMap implements IHeightMap {
 
+    private static final int[] NO_SEGMENTS = new int[0];
+
     /**
-     * Special value to indicate the absence of a segment in the segments arrays.
-     * Since all integer values might represent a valid segment, an unlikely value to occur has been chosen. It
-     * logically represents a 1-block segment at the very top of the world.
+     * Unused space added to the range of a block column when it has to grow. Segments are always inserted in pairs, so this is enough
+     * for one more insertion.
      */
-    private static final int NONE_SEGMENT = 0x7fffffff;
+    private static final int SEGMENT_SLACK = 2;
 
     /**
      * Array containing the y-coordinates of the lowest segment in each block column. The value {@link Coords#NO_HEIGHT}
@@ -63,9 +73,22 @@ public class ServerHeightMap implements IHeightMap {
     @Nonnull private final HeightMap ymax;
 
     /**
-     * Array containing an array of segments for each x/z position in a column.
+     * Starting y-coordinates of the segments of all block columns. The segments of block column i start at
+     * {@link #segmentOffsets}[i], the range of block column i ends at {@link #segmentOffsets}[i + 1].
+     */
+    @Nonnull private int[] segmentData;
+
+    /**
+     * Offset of the range of each block column in {@link #segmentData}. The last entry is the end of the used part of the array. Null
+     * until a block column has segments.
      */
-    @Nonnull private final int[][] segments;
+    @Nullable private int[] segmentOffsets;
+
+    /**
+     * Number of segments in each block column, 0 if there are no opacity changes between ymin and ymax. Otherwise it's always odd and at
+     * least 3. Stored as unsigned short. Null until a block column has segments.
+     */
+    @Nullable private short[] segmentCounts;
 
     private int heightMapLowest;
 
@@ -81,7 +104,7 @@ public class ServerHeightMap implements IHeightMap {
         this.ymin = new int[Cube.SIZE * Cube.SIZE];
         this.ymax = new HeightMap(heightmap);
 
-        this.segments = new int[Cube.SIZE * Cube.SIZE][];
+        this.segmentData = NO_SEGMENTS;
 
         // init to empty
         for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
@@ -99,13 +122,24 @@ public class ServerHeightMap implements IHeightMap {
         return (segmentIndex + 1) % 2;
     }
 
-    private static int getLastSegmentIndex(int[] segments) {
-        for (int i = segments.length - 1; i >= 0; i--) {
-            if (segments[i] != NONE_SEGMENT) {
-                return i;
-            }
+    private int getSegmentCount(int xzIndex) {
+        return this.segmentCounts == null ? 0 : this.segmentCounts[xzIndex] & 0xFFFF;
+    }
+
+    private boolean hasSegments(int xzIndex) {
+        return this.segmentCounts != null && this.segmentCounts[xzIndex] != 0;
+    }
+
+    private int getLastSegmentIndex(int xzIndex) {
+        int count = getSegmentCount(xzIndex);
+        if (count == 0) {
+            throw new Error("Invalid segments state");
         }
-        throw new Error("Invalid segments state");
+        return count - 1;
+    }
+
+    private int getSegment(int xzIndex, int segmentIndex) {
+        return this.segmentData[this.segmentOffsets[xzIndex] + segmentIndex];
     }
 
     /**
@@ -116,7 +150,7 @@ public class ServerHeightMap implements IHeightMap {
      * @return True if the number of segments is correct.
      */
     private boolean parityCheck(int xzIndex) {
-        return getLastSegmentIndex(segments[xzIndex]) % 2 == 0;
+        return getLastSegmentIndex(xzIndex) % 2 == 0;
     }
 
     // Interface: IHeightMap ----------------------------------------------------------------------------------------
@@ -130,7 +164,7 @@ public class ServerHeightMap implements IHeightMap {
 
         // try to stay in no-segments mode as long as we can, this is the simple case
         boolean isOpaque = opacity != 0;
-        if (this.segments[xzIndex] == null) {
+        if (!this.hasSegments(xzIndex)) {
             this.setNoSegments(xzIndex, blockY, isOpaque);
         } else {
             this.setOpacityWithSegments(xzIndex, blockY, isOpaque);
@@ -166,17 +200,18 @@ public class ServerHeightMap implements IHeightMap {
 
         // There are no opacity changes, everything is opaque from ymin to ymax. blockY is between ymin and ymax, thus
         // the next opaque block below blockY is blockY - 1.
-        int[] segments = this.segments[i];
-        if (segments == null) {
+        if (!this.hasSegments(i)) {
             return blockY - 1;
         }
+        int[] segments = this.segmentData;
+        int offset = this.segmentOffsets[i];
 
         // binary search for the segment containing blockY
         int mini = 0;
-        int maxi = getLastSegmentIndex(segments);
+        int maxi = getLastSegmentIndex(i);
         while (mini <= maxi) {
             int midi = (mini + maxi) >>> 1;
-            int midPos = segments[midi];
+            int midPos = segments[offset + midi];
 
             if (midPos < blockY) {
                 mini = midi + 1;
@@ -197,7 +232,7 @@ public class ServerHeightMap implements IHeightMap {
         if (segmentIndex < 0) {
             return Coords.NO_HEIGHT;
         }
-        int blockYSegment = segments[segmentIndex];
+        int blockYSegment = segments[offset + segmentIndex];
         int blockYSegmentOpacity = getOpacity(segmentIndex);
 
         // The lowest segment is always opaque. Thus, if blockY is in the lowest segment, the next opaque block is
@@ -222,7 +257,7 @@ public class ServerHeightMap implements IHeightMap {
 
         // If blockY is the lowest block in its segment, the next opaque block is the highest block in the next opaque
         // segment.
-        int belowYSegment = segments[segmentIndex - 1];
+        int belowYSegment = segments[offset + segmentIndex - 1];
         return belowYSegment - 1;
     }
     @Override
@@ -297,11 +332,11 @@ public class ServerHeightMap implements IHeightMap {
              [ ]
               ^ going up from there
              */
-            this.segments[xzIndex] = new int[]{
+            this.setThreeSegments(xzIndex,
                     this.ymin[xzIndex],
                     this.ymax.get(xzIndex) + 1,
                     blockY
-            };
+            );
             this.ymax.set(xzIndex, blockY);
             return;
             //more than one block below ymin?
@@ -328,11 +363,11 @@ public class ServerHeightMap implements IHeightMap {
              [ ]
               ^ going up from there
              */
-            this.segments[xzIndex] = new int[]{
+            this.setThreeSegments(xzIndex,
                     blockY,
                     blockY + 1,
                     this.ymin[xzIndex]
-            };
+            );
             this.ymin[xzIndex] = blockY;
             return;
         }
@@ -398,21 +433,22 @@ public class ServerHeightMap implements IHeightMap {
          [ ]
           ^ going up
         */
-        this.segments[xzIndex] = new int[]{
+        this.setThreeSegments(xzIndex,
                 this.ymin[xzIndex],
                 blockY,
                 blockY + 1
-        };
+        );
     }
 
     private void setOpacityWithSegments(int xzIndex, int blockY, boolean isOpaque) {
         // binary search to find the insertion point
-        int[] segments = this.segments[xzIndex];
+        int[] segments = this.segmentData;
+        int offset = this.segmentOffsets[xzIndex];
         int minj = 0;
-        int maxj = getLastSegmentIndex(segments);
+        int maxj = getLastSegmentIndex(xzIndex);
         while (minj <= maxj) {
             int midj = (minj + maxj) >>> 1;
-            int midPos = segments[midj];
+            int midPos = segments[offset + midj];
 
             if (midPos < blockY) {
                 minj = midj + 1;
@@ -483,8 +519,7 @@ public class ServerHeightMap implements IHeightMap {
             return;
         }
 
-        int[] segments = this.segments[xzIndex];
-        int lastIndex = getLastSegmentIndex(segments);
+        int lastIndex = getLastSegmentIndex(xzIndex);
 
         boolean extendsTopSegmentByOne = blockY == this.ymax.get(xzIndex) + 1;
         if (extendsTopSegmentByOne) {
@@ -523,10 +558,9 @@ public class ServerHeightMap implements IHeightMap {
     }
 
     private void setOpacityWithSegmentsFor(int xzIndex, int blockY, int segmentIndexWithBlockY, boolean isOpaque) {
-        int[] segments = this.segments[xzIndex];
         int isOpaqueInt = isOpaque ? 1 : 0;
 
-        int segmentWithBlockY = segments[segmentIndexWithBlockY];
+        int segmentWithBlockY = getSegment(xzIndex, segmentIndexWithBlockY);
 
         //does it even change anything?
         if (getOpacity(segmentIndexWithBlockY) == isOpaqueInt) {
@@ -547,7 +581,7 @@ public class ServerHeightMap implements IHeightMap {
           * change at the bottom of segment
           * change in the middle of segment
         */
-        int lastSegment = getLastSegmentIndex(segments);
+        int lastSegment = getLastSegmentIndex(xzIndex);
         if (blockY == segmentTop) {
             //if it's the top of the top segment - just change ymax
             if (segmentIndexWithBlockY == lastSegment) {
@@ -590,8 +624,7 @@ public class ServerHeightMap implements IHeightMap {
 
     private void negateOneBlockSegment(int xzIndex, int segmentIndexWithBlockY) {
 
-        int[] segments = this.segments[xzIndex];
-        int lastSegmentIndex = getLastSegmentIndex(segments);
+        int lastSegmentIndex = getLastSegmentIndex(xzIndex);
 
         assert lastSegmentIndex >= 2 : "Less than 3 segments in array!";
         if (segmentIndexWithBlockY == lastSegmentIndex) {
@@ -599,24 +632,23 @@ public class ServerHeightMap implements IHeightMap {
             //the top segment must be opaque, so we set it to transparent
             //and the segment below it is also transparent.
             //set both of them to NONE and decrease maxY
-            int segmentBelow = segments[segmentIndexWithBlockY - 1];
+            int segmentBelow = getSegment(xzIndex, segmentIndexWithBlockY - 1);
             this.ymax.set(xzIndex, segmentBelow - 1);
             if (segmentIndexWithBlockY == 2) {
                 //after removing top 2 segments we will be left with 1 segment
                 //remove them entirely to guarantee at least 3 segments and use min/maxY
-                this.segments[xzIndex] = null;
+                this.segmentCounts[xzIndex] = 0;
                 return;
             }
-            segments[segmentIndexWithBlockY] = NONE_SEGMENT;
-            segments[segmentIndexWithBlockY - 1] = NONE_SEGMENT;
+            this.segmentCounts[xzIndex] -= 2;
             assert parityCheck(xzIndex) : "The number of segments was wrong!";
             return;
         }
         if (segmentIndexWithBlockY == 0) {
             //same logic as for top segment applies
-            this.ymin[xzIndex] = segments[2];
+            this.ymin[xzIndex] = getSegment(xzIndex, 2);
             if (lastSegmentIndex == 2) {
-                this.segments[xzIndex] = null;
+                this.segmentCounts[xzIndex] = 0;
                 return;
             }
             removeTwoSegments(xzIndex, 0);
@@ -646,14 +678,14 @@ public class ServerHeightMap implements IHeightMap {
         //but in case after the removal there are less than 3 segments
         //remove them entirely and rely only on min/maxY
         if (lastSegmentIndex == 2) {
-            this.segments[xzIndex] = null;
+            this.segmentCounts[xzIndex] = 0;
         }
     }
 
     private void moveSegmentStartUpAndUpdateMinY(int xzIndex, int segmentIndex) {
 
         // move the segment
-        this.segments[xzIndex][segmentIndex] = this.segments[xzIndex][segmentIndex] + 1;
+        this.segmentData[this.segmentOffsets[xzIndex] + segmentIndex]++;
 
         // move the bottom if needed
         if (segmentIndex == 0) {
@@ -664,7 +696,7 @@ public class ServerHeightMap implements IHeightMap {
     private void moveSegmentStartDownAndUpdateMinY(int xzIndex, int segmentIndex) {
 
         // move the segment
-        this.segments[xzIndex][segmentIndex] = this.segments[xzIndex][segmentIndex] - 1;
+        this.segmentData[this.segmentOffsets[xzIndex] + segmentIndex]--;
 
         // move the bottom if needed
         if (segmentIndex == 0) {
@@ -674,64 +706,74 @@ public class ServerHeightMap implements IHeightMap {
 
     private void removeTwoSegments(int xzIndex, int firstSegmentToRemove) {
 
-        int[] segments = this.segments[xzIndex];
-        int jmax = getLastSegmentIndex(segments);
+        int offset = this.segmentOffsets[xzIndex];
+        int jmax = getLastSegmentIndex(xzIndex);
 
         // remove the segment
-        System.arraycopy(segments, firstSegmentToRemove + 2, segments, firstSegmentToRemove, jmax - 1 - firstSegmentToRemove);
-        segments[jmax] = NONE_SEGMENT;
-        segments[jmax - 1] = NONE_SEGMENT;
+        System.arraycopy(this.segmentData, offset + firstSegmentToRemove + 2, this.segmentData, offset + firstSegmentToRemove,
+                jmax - 1 - firstSegmentToRemove);
+        this.segmentCounts[xzIndex] -= 2;
+        assert !hasSegments(xzIndex) || parityCheck(xzIndex) : "The number of segments was wrong!";
+    }
+
+    //is theIndex = lastSegmentIndex+1, it will be inserted after last segment
+    private void insertSegmentsBelow(int xzIndex, int theIndex, int newSegment1, int newSegment2) {
+        int count = getSegmentCount(xzIndex);
+        if (count + 2 > 0xFFFF) {
+            throw new IllegalStateException("Too many segments at " + dump(xzIndex & 0xF, xzIndex >> 4));
+        }
+        ensureCapacity(xzIndex, count + 2);
+        int offset = this.segmentOffsets[xzIndex];
+        //shift all segments up
+        System.arraycopy(this.segmentData, offset + theIndex, this.segmentData, offset + theIndex + 2, count - theIndex);
+        this.segmentData[offset + theIndex] = newSegment1;
+        this.segmentData[offset + theIndex + 1] = newSegment2;
+        this.segmentCounts[xzIndex] = (short) (count + 2);
         assert parityCheck(xzIndex) : "The number of segments was wrong!";
+    }
 
-        if (segments[0] == NONE_SEGMENT) {
-            this.segments[xzIndex] = null;
-        }
+    private void setThreeSegments(int xzIndex, int segment0, int segment1, int segment2) {
+        ensureCapacity(xzIndex, 3);
+        int offset = this.segmentOffsets[xzIndex];
+        this.segmentData[offset] = segment0;
+        this.segmentData[offset + 1] = segment1;
+        this.segmentData[offset + 2] = segment2;
+        this.segmentCounts[xzIndex] = 3;
     }
 
-    //is theIndex = lastSegmentIndex+1, it will be inserted after last segment
-    private void insertSegmentsBelow(int xzIndex, int theIndex, int... newSegments) {
-        int lastIndex = getLastSegmentIndex(this.segments[xzIndex]);
-        int expandSize = newSegments.length;
-        //will it fit in current array?
-        if (this.segments[xzIndex].length >= lastIndex + expandSize) {
-            //shift all segments up
-            System.arraycopy(this.segments[xzIndex], theIndex, this.segments[xzIndex], theIndex + expandSize, lastIndex + 1 - theIndex);
-            System.arraycopy(newSegments, 0, this.segments[xzIndex], theIndex, expandSize);
-            assert parityCheck(xzIndex) : "The number of segments was wrong!";
-        } else {
-            //need to expand the array
-            int[] newSegmentArr = new int[(lastIndex + 1) + expandSize];
-            int newArrIndex = 0;
-            int oldArrIndex = 0;
-            //copy all index up to before theIndex
-            for (int i = 0; i < theIndex; i++) {
-                newSegmentArr[newArrIndex] = this.segments[xzIndex][oldArrIndex];
-                newArrIndex++;
-                oldArrIndex++;
-            }
-            //copy new elements
-            for (int i = 0; i < expandSize; i++) {
-                newSegmentArr[newArrIndex] = newSegments[i];
-                newArrIndex++;
-            }
-            //copy everything else
-            while (newArrIndex < newSegmentArr.length) {
-                newSegmentArr[newArrIndex] = this.segments[xzIndex][oldArrIndex];
-                newArrIndex++;
-                oldArrIndex++;
-            }
-            this.segments[xzIndex] = newSegmentArr;
-            assert parityCheck(xzIndex) : "The number of segments was wrong!";
+    /**
+     * Makes sure the range of the given block column can hold the given number of segments, by moving the ranges of all following
+     * block columns up.
+     */
+    private void ensureCapacity(int xzIndex, int segmentCount) {
+        if (this.segmentOffsets == null || this.segmentCounts == null) {
+            this.segmentOffsets = new int[Cube.SIZE * Cube.SIZE + 1];
+            this.segmentCounts = new short[Cube.SIZE * Cube.SIZE];
+        }
+        int[] offsets = this.segmentOffsets;
+        int capacity = offsets[xzIndex + 1] - offsets[xzIndex];
+        if (capacity >= segmentCount) {
+            return;
+        }
+        int grow = segmentCount - capacity + SEGMENT_SLACK;
+        int end = offsets[offsets.length - 1];
+        int[] data = this.segmentData;
+        if (end + grow > data.length) {
+            this.segmentData = data = Arrays.copyOf(data, Math.max(end + grow, data.length + (data.length >> 1)));
+        }
+        int next = offsets[xzIndex + 1];
+        System.arraycopy(data, next, data, next + grow, end - next);
+        for (int i = xzIndex + 1; i < offsets.length; i++) {
+            offsets[i] += grow;
         }
     }
 
     private int getSegmentTopBlockY(int xzIndex, int segmentIndex) {
-        int[] segments = this.segments[xzIndex];
-        //if it's the last segment in the array, or the one above is NoneSegment
-        if (segments.length - 1 == segmentIndex || segments[segmentIndex + 1] == NONE_SEGMENT) {
+        //if it's the last segment
+        if (segmentIndex == getLastSegmentIndex(xzIndex)) {
             return this.ymax.get(xzIndex);
         }
-        return segments[segmentIndex + 1] - 1;
+        return getSegment(xzIndex, segmentIndex + 1) - 1;
     }
 
     private static int getIndex(int localX, int localZ) {
@@ -750,17 +792,18 @@ public class ServerHeightMap implements IHeightMap {
     private int computeHash() {
         final int MyFavoritePrime = 37;
         int hash = 1;
-        for (int i = 0; i < this.segments.length; i++) {
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
             hash *= MyFavoritePrime;
             hash += this.ymin[i];
             hash *= MyFavoritePrime;
             hash += this.ymax.get(i);
-            if (this.segments[i] == null) {
+            if (!this.hasSegments(i)) {
                 hash *= MyFavoritePrime;
             } else {
-                for (int n : this.segments[i]) {
+                int count = this.getSegmentCount(i);
+                for (int j = 0; j < count; j++) {
                     hash *= MyFavoritePrime;
-                    hash += n;
+                    hash += this.getSegment(i, j);
                 }
             }
         }
@@ -801,42 +844,51 @@ public class ServerHeightMap implements IHeightMap {
         try {
             ByteArrayInputStream buf = new ByteArrayInputStream(data);
             DataInputStream in = new DataInputStream(buf);
-            readData(in);
+            readData(in, data.length);
             in.close();
         } catch (IOException ex) {
             throw new Error(ex);
         }
     }
 
-    private void readData(DataInputStream in) throws IOException {
-        for (int i = 0; i < this.segments.length; i++) {
+    private void readData(DataInputStream in, int length) throws IOException {
+        // the data contains 10 bytes for each block column and 4 bytes for each segment
+        int[] data = new int[Math.max(0, (length - Cube.SIZE * Cube.SIZE * 10) / 4)];
+        int[] offsets = new int[Cube.SIZE * Cube.SIZE + 1];
+        short[] counts = new short[Cube.SIZE * Cube.SIZE];
+        int end = 0;
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
             this.ymin[i] = in.readInt();
             this.ymax.set(i, in.readInt());
-            int[] segments = new int[in.readUnsignedShort()];
-            if (segments.length == 0) {
-                continue;
-            }
-            for (int j = 0; j < segments.length; j++) {
-                segments[j] = in.readInt();
+            int count = in.readUnsignedShort();
+            offsets[i] = end;
+            counts[i] = (short) count;
+            for (int j = 0; j < count; j++) {
+                data[end++] = in.readInt();
             }
-            this.segments[i] = segments;
-            assert parityCheck(i) : "The number of segments was wrong!";
         }
+        offsets[Cube.SIZE * Cube.SIZE] = end;
+        if (end == 0) {
+            this.segmentData = NO_SEGMENTS;
+            this.segmentOffsets = null;
+            this.segmentCounts = null;
+        } else {
+            this.segmentData = data;
+            this.segmentOffsets = offsets;
+            this.segmentCounts = counts;
+        }
+        this.heightMapLowest = Coords.NO_HEIGHT;
+        this.needsHash = true;
     }
 
     private void writeData(DataOutputStream out) throws IOException {
-        for (int i = 0; i < this.segments.length; i++) {
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
             out.writeInt(this.ymin[i]);
             out.writeInt(this.ymax.get(i));
-            int[] segments = this.segments[i];
-            if (segments == null || segments.length == 0) {
-                out.writeShort(0);
-            } else {
-                int lastSegmentIndex = getLastSegmentIndex(segments);
-                out.writeShort(lastSegmentIndex + 1);
-                for (int j = 0; j <= lastSegmentIndex; j++) {
-                    out.writeInt(segments[j]);
-                }
+            int count = this.getSegmentCount(i);
+            out.writeShort(count);
+            for (int j = 0; j < count; j++) {
+                out.writeInt(this.getSegment(i, j));
             }
         }
     }
@@ -854,15 +906,15 @@ public class ServerHeightMap implements IHeightMap {
         buf.append(this.ymax.get(i));
         buf.append("], segments(p,o)=");
 
-        if (this.segments[i] != null) {
-            for (int pos : this.segments[i]) {
-                int opacity = getOpacity(i);
-                buf.append("(");
-                buf.append(pos);
-                buf.append(",");
-                buf.append(opacity);
-                buf.append(")");
-            }
+        int count = this.getSegmentCount(i);
+        for (int j = 0; j < count; j++) {
+            int pos = this.getSegment(i, j);
+            int opacity = getOpacity(j);
+            buf.append("(");
+            buf.append(pos);
+            buf.append(",");
+            buf.append(opacity);
+            buf.append(")");
         }
         return buf.toString();
     }
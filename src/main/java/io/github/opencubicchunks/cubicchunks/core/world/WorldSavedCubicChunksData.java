@@ -24,30 +24,48 @@
 package io.github.opencubicchunks.cubicchunks.core.world;
 
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.storage.WorldSavedData;
+import net.minecraftforge.fml.common.FMLCommonHandler;
 
 public class WorldSavedCubicChunksData extends WorldSavedData {
 
     public int minHeight = 0, maxHeight = 256;
+    // worlds created before binary cube format existed don't have this set, and will keep using NBT
+    public boolean binaryCubeFormat = false;
+    public boolean memoryMappedRegions = false;
+    // versions of Minecraft and mods with data fixers this world has been fully upgraded to, as DataVersion and ForgeDataVersion tags
+    public NBTTagCompound dataVersions = new NBTTagCompound();
 
     public WorldSavedCubicChunksData(String name) {
         super(name);
         minHeight = CubicChunks.MIN_BLOCK_Y;
         maxHeight = CubicChunks.MAX_BLOCK_Y;
+        binaryCubeFormat = CubicChunksConfig.useBinaryCubeFormat;
+        memoryMappedRegions = CubicChunksConfig.useMemoryMappedRegions;
+        // everything in a new world is written with the current versions
+        dataVersions.setInteger("DataVersion", FMLCommonHandler.instance().getDataFixer().version);
+        FMLCommonHandler.instance().getDataFixer().writeVersionData(dataVersions);
     }
 
     @Override
     public void readFromNBT(NBTTagCompound nbt) {
         minHeight = nbt.getInteger("minHeight");
         maxHeight = nbt.getInteger("maxHeight");
+        binaryCubeFormat = nbt.getBoolean("binaryCubeFormat");
+        memoryMappedRegions = nbt.getBoolean("memoryMappedRegions");
+        dataVersions = nbt.getCompoundTag("dataVersions");
     }
 
     @Override
     public NBTTagCompound writeToNBT(NBTTagCompound compound) {
         compound.setInteger("minHeight", minHeight);
         compound.setInteger("maxHeight", maxHeight);
+        compound.setBoolean("binaryCubeFormat", binaryCubeFormat);
+        compound.setBoolean("memoryMappedRegions", memoryMappedRegions);
+        compound.setTag("dataVersions", dataVersions);
         return compound;
     }
 
@@ -32,33 +32,117 @@ import net.minecraft.util.math.BlockPos;
 
 import java.util.AbstractCollection;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
-
+import javax.annotation.Nullable;
+
+/**
+ * Tile entity map of a column, made of the tile entity maps of its loaded cubes.
+ * <p>
+ * Keeps a list of the loaded cubes that have tile entities, sorted by y coordinate. More precisely, of the cubes that have allocated a tile
+ * entity map (see {@link Cube#getTileEntityMap()}), which most cubes never do. Queries of the whole column only need to look at these
+ * cubes, and lookups of positions in cubes without tile entities don't need to access the cube.
+ */
 public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
 
     private final IColumn column;
+    private final List<Cube> cubesWithTileEntities = new ArrayList<>();
 
     public ColumnTileEntityMap(IColumn column) {
         this.column = column;
     }
 
+    /**
+     * Called when a cube is added to the column
+     */
+    public void onCubeAdded(Cube cube) {
+        if (cube.hasTileEntityMap()) {
+            addToIndex(cube);
+        }
+    }
+
+    /**
+     * Called when a cube is removed from the column
+     */
+    public void onCubeRemoved(int cubeY) {
+        int index = binarySearch(cubeY);
+        if (index < cubesWithTileEntities.size() && cubesWithTileEntities.get(index).getY() == cubeY) {
+            cubesWithTileEntities.remove(index);
+        }
+    }
+
+    /**
+     * Called when a cube held by this column allocates its tile entity map, including cubes that are still being loaded
+     */
+    public void onTileEntityMapCreated(Cube cube) {
+        addToIndex(cube);
+    }
+
+    private void addToIndex(Cube cube) {
+        int index = binarySearch(cube.getY());
+        if (index < cubesWithTileEntities.size() && cubesWithTileEntities.get(index).getY() == cube.getY()) {
+            cubesWithTileEntities.set(index, cube);
+        } else {
+            cubesWithTileEntities.add(index, cube);
+        }
+    }
+
+    /**
+     * @return the index of the cube in cubesWithTileEntities, or the index at which it should be inserted if it's not there
+     */
+    private int binarySearch(int cubeY) {
+        int start = 0;
+        int end = cubesWithTileEntities.size() - 1;
+        while (start <= end) {
+            int mid = start + end >>> 1;
+            int at = cubesWithTileEntities.get(mid).getY();
+            if (at < cubeY) {
+                start = mid + 1;
+            } else if (at > cubeY) {
+                end = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * @return the loaded cube at the given y position if it has tile entities, null otherwise
+     */
+    @Nullable private Cube getCubeWithTileEntities(int cubeY) {
+        int index = binarySearch(cubeY);
+        if (index < cubesWithTileEntities.size()) {
+            Cube cube = cubesWithTileEntities.get(index);
+            if (cube.getY() == cubeY) {
+                return cube;
+            }
+        }
+        return null;
+    }
+
     @Override public int size() {
-        return ((Collection<Cube>) column.getLoadedCubes()).stream()
-                .map(Cube::getTileEntityMap)
-                .map(Map::size)
-                .reduce((a, b) -> a + b).orElse(0);
+        int size = 0;
+        for (int i = 0, count = cubesWithTileEntities.size(); i < count; i++) {
+            size += cubesWithTileEntities.get(i).getTileEntityMapView().size();
+        }
+        return size;
     }
 
     @Override public boolean isEmpty() {
-        return ((Collection<Cube>) column.getLoadedCubes()).stream()
-                .map(Cube::getTileEntityMap)
-                .allMatch(Map::isEmpty);
+        for (int i = 0, count = cubesWithTileEntities.size(); i < count; i++) {
+            if (!cubesWithTileEntities.get(i).getTileEntityMapView().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override public boolean containsKey(Object o) {
@@ -66,9 +150,9 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
             return false;
         }
         BlockPos pos = (BlockPos) o;
-        int y = Coords.blockToCube(pos.getY());
-        ICube cube = column.getCube(y); // see comment in get() for why getCube instead of getLoadedCube is used
-        return cube.getTileEntityMap().containsKey(o);
+        // unlike get(), this doesn't load the cube, tile entities of cubes that aren't loaded are not part of the world
+        Cube cube = getCubeWithTileEntities(Coords.blockToCube(pos.getY()));
+        return cube != null && cube.getTileEntityMapView().containsKey(o);
     }
 
     @Override public boolean containsValue(Object o) {
@@ -76,10 +160,8 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
             return false;
         }
         BlockPos pos = ((TileEntity) o).getPos();
-        int y = Coords.blockToCube(pos.getY());
-        ICube cube = column.getLoadedCube(y);
-        assert cube != null : "Cube is null but tile entity in it exists!";
-        return cube.getTileEntityMap().containsValue(o);
+        Cube cube = getCubeWithTileEntities(Coords.blockToCube(pos.getY()));
+        return cube != null && cube.getTileEntityMapView().containsValue(o);
     }
 
     @Override public TileEntity get(Object o) {
@@ -88,13 +170,17 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
         }
         BlockPos pos = (BlockPos) o;
         int y = Coords.blockToCube(pos.getY());
+        Cube indexed = getCubeWithTileEntities(y);
+        if (indexed != null) {
+            return indexed.getTileEntityMapView().get(o);
+        }
         // when something other than CHECK is passed into Chunk.getTileEntity, then if the current TE is null
         // it will try to create a new one. To do that it will get a block which will load the cube
         // with the already existing TE. But the "create new TE" code will continue not knowing the TE just got loaded
         // and will replace the newly loaded one
-        // so load the cube here to avoid problems. Other places use getCube() for consistency
+        // so load the cube here to avoid problems
         ICube cube = column.getCube(y);
-        return cube.getTileEntityMap().get(o);
+        return tileEntities(cube).get(o);
     }
 
     @Override public TileEntity put(BlockPos blockPos, TileEntity tileEntity) {
@@ -108,11 +194,17 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
             return null;
         }
         BlockPos pos = (BlockPos) o;
-        int y = Coords.blockToCube(pos.getY());
-        ICube cube = column.getLoadedCube(y);
+        Cube cube = getCubeWithTileEntities(Coords.blockToCube(pos.getY()));
         return cube == null ? null : cube.getTileEntityMap().remove(pos);
     }
 
+    /**
+     * Returns the tile entities of the cube without allocating a map if it has none, only to be used when not adding tile entities
+     */
+    private static Map<BlockPos, TileEntity> tileEntities(ICube cube) {
+        return cube instanceof Cube ? ((Cube) cube).getTileEntityMapView() : cube.getTileEntityMap();
+    }
+
     @Override public void putAll(Map<? extends BlockPos, ? extends TileEntity> map) {
         map.forEach(this::put);
     }
@@ -137,8 +229,8 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
 
             @Nonnull @Override public Iterator<BlockPos> iterator() {
                 return new Iterator<BlockPos>() {
-                    Iterator<Cube> cubes = (Iterator<Cube>) column.getLoadedCubes().iterator();
-                    Iterator<BlockPos> curIt = !cubes.hasNext() ? null : cubes.next().getTileEntityMap().keySet().iterator();
+                    Iterator<Cube> cubes = cubesWithTileEntities.iterator();
+                    Iterator<BlockPos> curIt = !cubes.hasNext() ? null : cubes.next().getTileEntityMapView().keySet().iterator();
                     BlockPos nextVal;
 
                     @Override public boolean hasNext() {
@@ -149,7 +241,7 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
                             return false;
                         }
                         while (!curIt.hasNext() && cubes.hasNext()) {
-                            curIt = cubes.next().getTileEntityMap().keySet().iterator();
+                            curIt = cubes.next().getTileEntityMapView().keySet().iterator();
                         }
                         if (!curIt.hasNext()) {
                             return false;
@@ -197,8 +289,8 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
 
             @Override public Iterator<TileEntity> iterator() {
                 return new Iterator<TileEntity>() {
-                    Iterator<Cube> cubes = (Iterator<Cube>) column.getLoadedCubes().iterator();
-                    Iterator<TileEntity> curIt = !cubes.hasNext() ? null : cubes.next().getTileEntityMap().values().iterator();
+                    Iterator<Cube> cubes = cubesWithTileEntities.iterator();
+                    Iterator<TileEntity> curIt = !cubes.hasNext() ? null : cubes.next().getTileEntityMapView().values().iterator();
                     TileEntity nextVal;
 
                     @Override public boolean hasNext() {
@@ -209,7 +301,7 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
                             return false;
                         }
                         while (!curIt.hasNext() && cubes.hasNext()) {
-                            curIt = cubes.next().getTileEntityMap().values().iterator();
+                            curIt = cubes.next().getTileEntityMapView().values().iterator();
                         }
                         if (!curIt.hasNext()) {
                             return false;
@@ -263,8 +355,8 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
 
             @Nonnull @Override public Iterator<Entry<BlockPos, TileEntity>> iterator() {
                 return new Iterator<Entry<BlockPos, TileEntity>>() {
-                    Iterator<Cube> cubes = (Iterator<Cube>) column.getLoadedCubes().iterator();
-                    Iterator<Entry<BlockPos, TileEntity>> curIt = !cubes.hasNext() ? null : cubes.next().getTileEntityMap().entrySet().iterator();
+                    Iterator<Cube> cubes = cubesWithTileEntities.iterator();
+                    Iterator<Entry<BlockPos, TileEntity>> curIt = !cubes.hasNext() ? null : cubes.next().getTileEntityMapView().entrySet().iterator();
                     Entry<BlockPos, TileEntity> nextVal;
 
                     @Override public boolean hasNext() {
@@ -275,7 +367,7 @@ public class ColumnTileEntityMap implements Map<BlockPos, TileEntity> {
                             return false;
                         }
                         while (!curIt.hasNext() && cubes.hasNext()) {
-                            curIt = cubes.next().getTileEntityMap().entrySet().iterator();
+                            curIt = cubes.next().getTileEntityMapView().entrySet().iterator();
                         }
                         if (!curIt.hasNext()) {
                             return false;
@@ -37,7 +37,6 @@ import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.chunk.Chunk;
 
 import java.util.HashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -52,7 +51,7 @@ public class BlankCube extends Cube {
 
     public BlankCube(Chunk column) {
         super(new TicketList(), column.getWorld(), column, new CubePos(0, 0, 0),
-                Cube.NULL_STORAGE, new BlankEntityContainer(), new HashMap<>(), new ConcurrentLinkedQueue<>(),
+                Cube.NULL_STORAGE, new BlankEntityContainer(), new HashMap<>(),
                 new LightingManager.CubeLightUpdateInfo(null) {
                     @Override
                     public void tick() {
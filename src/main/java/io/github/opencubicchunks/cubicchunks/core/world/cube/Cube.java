@@ -29,15 +29,19 @@ import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.core.util.ticket.ITicket;
 import io.github.opencubicchunks.cubicchunks.core.util.ticket.TicketList;
 import io.github.opencubicchunks.cubicchunks.core.world.EntityContainer;
+import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.column.ColumnTileEntityMap;
 import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.IOffHeapLightStorage;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
 import net.minecraft.block.material.Material;
@@ -49,28 +53,21 @@ import net.minecraft.util.ClassInheritanceMultiMap;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.EnumSkyBlock;
-import net.minecraft.world.NextTickListEntry;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.BooleanSupplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
-import org.apache.logging.log4j.LogManager;
-
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.*;
 
 /**
@@ -83,9 +80,10 @@ public class Cube implements ICube {
 
     @Nullable protected static final ExtendedBlockStorage NULL_STORAGE = null;
 
-    private final Set<NextTickListEntry> pendingTickListEntriesHashSet = new HashSet<NextTickListEntry>();
-    private final TreeSet<NextTickListEntry> pendingTickListEntriesTreeSet = new TreeSet<NextTickListEntry>();
-
+    /**
+     * Shared by all cubes without tile entities, replaced by a new map when the first tile entity is added
+     */
+    private static final Map<BlockPos, TileEntity> NO_TILE_ENTITIES = Collections.emptyMap();
 
     /**
      * Tickets keep this chunk loaded and ticking. See the docs of {@link TicketList} and {@link ITicket} for additional information.
@@ -134,13 +132,10 @@ public class Cube implements ICube {
      */
     @Nonnull private final EntityContainer entities;
     /**
-     * The position of tile entities in this cube, and their corresponding tile entity
+     * The position of tile entities in this cube, and their corresponding tile entity. {@link #NO_TILE_ENTITIES} until the first tile
+     * entity is added.
      */
-    @Nonnull private final Map<BlockPos, TileEntity> tileEntityMap;
-    /**
-     * The positions of tile entities queued for creation
-     */
-    @Nonnull private final ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue;
+    @Nonnull private Map<BlockPos, TileEntity> tileEntityMap;
 
     private final LightingManager.CubeLightUpdateInfo cubeLightUpdateInfo;
 
@@ -176,8 +171,7 @@ public class Cube implements ICube {
         this.tickets = new TicketList();
 
         this.entities = new EntityContainer();
-        this.tileEntityMap = new HashMap<>();
-        this.tileEntityPosQueue = new ConcurrentLinkedQueue<>();
+        this.tileEntityMap = NO_TILE_ENTITIES;
 
         this.cubeLightUpdateInfo = ((ICubicWorldInternal) world).getLightingManager().createCubeLightUpdateInfo(this);
 
@@ -219,6 +213,10 @@ public class Cube implements ICube {
                 }
             }
         }
+        if (storage != NULL_STORAGE) {
+            // solid cubes underground don't need their own block and light arrays until they are modified
+            storage = UniformStorages.tryShare(storage, world.provider.hasSkyLight());
+        }
         isSurfaceTracked = true;
         isModified = true;
     }
@@ -228,8 +226,7 @@ public class Cube implements ICube {
      * Constructor to be used from subclasses to provide all field values
      */
     protected Cube(TicketList tickers, World world, Chunk column, CubePos coords, ExtendedBlockStorage storage,
-            EntityContainer entities, Map<BlockPos, TileEntity> tileEntityMap,
-            ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue, LightingManager.CubeLightUpdateInfo lightInfo) {
+            EntityContainer entities, Map<BlockPos, TileEntity> tileEntityMap, LightingManager.CubeLightUpdateInfo lightInfo) {
         this.tickets = tickers;
         this.world = world;
         this.column = column;
@@ -237,7 +234,6 @@ public class Cube implements ICube {
         this.storage = storage;
         this.entities = entities;
         this.tileEntityMap = tileEntityMap;
-        this.tileEntityPosQueue = tileEntityPosQueue;
         this.cubeLightUpdateInfo = lightInfo;
     }
 
@@ -268,25 +264,6 @@ public class Cube implements ICube {
         column.setLightFor(lightType, pos, light);
     }
 
-    /**
-     * Create a tile entity at the given position if the block is able to hold one
-     *
-     * @param pos position where the tile entity should be placed
-     *
-     * @return the created tile entity, or <code>null</code> if the block at that position does not provide tile
-     * entities
-     */
-    @Nullable
-    private TileEntity createTileEntity(BlockPos pos) {
-        IBlockState blockState = getBlockState(pos);
-        Block block = blockState.getBlock();
-
-        if (block.hasTileEntity(blockState)) {
-            return block.createTileEntity((World) this.world, blockState);
-        }
-        return null;
-    }
-
     @Override @Nullable public TileEntity getTileEntity(BlockPos pos, Chunk.EnumCreateEntityType createType) {
         return column.getTileEntity(pos, createType);
     }
@@ -301,27 +278,14 @@ public class Cube implements ICube {
      * @param tryToTickFaster Whether costly calculations should be skipped in order to catch up with ticks
      */
     public void tickCubeCommon(BooleanSupplier tryToTickFaster) {
-        while (!this.tileEntityPosQueue.isEmpty()) {
-            BlockPos blockpos = this.tileEntityPosQueue.poll();
-
-            IBlockState state = this.getBlockState(blockpos);
-            Block block = state.getBlock();
-
-            if (this.getTileEntity(blockpos, Chunk.EnumCreateEntityType.CHECK) == null &&
-                    block.hasTileEntity(state)) {
-                TileEntity tileentity = this.createTileEntity(blockpos);
-                this.world.setTileEntity(blockpos, tileentity);
-                this.world.markBlockRangeForRenderUpdate(blockpos, blockpos);
-            }
-        }
-
-        if (!tryToTickFaster.getAsBoolean() && this.cubeLightUpdateInfo != null) {
+        // on the server, light updates are scheduled by the LightingManager
+        if (this.world.isRemote && !tryToTickFaster.getAsBoolean() && this.cubeLightUpdateInfo != null) {
             this.cubeLightUpdateInfo.tick();
         }
     }
 
     /**
-     * Tick this cube on server side. Block tick updates launched here.
+     * Tick this cube on server side. Scheduled block ticks are run by the world's ScheduledTickWheel.
      * @param tryToTickFaster - returns true when running out of reserved tick time
      * @param rand - World specific Random
      */
@@ -331,26 +295,6 @@ public class Cube implements ICube {
         }
 
         tickCubeCommon(tryToTickFaster);
-
-        Iterator<NextTickListEntry> pti = pendingTickListEntriesTreeSet.iterator();
-        while (pti.hasNext()) {
-            NextTickListEntry ntle = pti.next();
-            if (ntle.scheduledTime > world.getTotalWorldTime())
-                return;
-            BlockPos pos = ntle.position;
-            IBlockState iblockstate = this.storage.get(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
-            if (iblockstate.getMaterial() != Material.AIR && iblockstate.getBlock() == ntle.getBlock()) {
-                iblockstate.getBlock().updateTick((WorldServer) world, ntle.position, iblockstate, rand);
-            }
-            pti.remove();
-        }
-        int tickLimit = 256; // 16x16 per cube per tick will be enough
-        pti = pendingTickListEntriesHashSet.iterator();
-        while (pti.hasNext() && --tickLimit != 0) {
-            NextTickListEntry ntle = pti.next();
-            pendingTickListEntriesTreeSet.add(ntle);
-            pti.remove();
-        }
     }
 
     /**
@@ -372,20 +316,6 @@ public class Cube implements ICube {
         }
     }
 
-    public void scheduleUpdate(BlockPos pos, Block blockIn, int delay, int priority) {
-        if (pos instanceof BlockPos.MutableBlockPos || pos instanceof BlockPos.PooledMutableBlockPos) {
-            pos = new BlockPos(pos);
-            LogManager.getLogger().warn((String) "Tried to assign a mutable BlockPos to tick data...",
-                    (Throwable) (new Error(pos.getClass().toString())));
-        }
-        if (((ICubicWorld) world).getCubeCache().getLoadedCube(CubePos.fromBlockCoords(pos)) != null) {
-            NextTickListEntry nextticklistentry = new NextTickListEntry(pos, blockIn);
-            nextticklistentry.setScheduledTime((long) delay + world.getTotalWorldTime());
-            nextticklistentry.setPriority(priority);
-            this.pendingTickListEntriesHashSet.add(nextticklistentry);
-        }
-    }
-
     //=================================
     //=========Other methods===========
     //=================================
@@ -437,14 +367,56 @@ public class Cube implements ICube {
 
     @Nullable public ExtendedBlockStorage setStorage(@Nullable ExtendedBlockStorage ebs) {
         this.isModified = true;
-        return this.storage = ebs;
+        if (!isCubeLoaded || ebs == this.storage) {
+            return this.storage = ebs;
+        }
+        releaseOffHeapLight();
+        this.storage = ebs;
+        moveLightOffHeap();
+        return ebs;
     }
 
     private void newStorage() {
-        storage = new ExtendedBlockStorage(cubeToMinBlock(getY()), world.provider.hasSkyLight());
+        setStorage(new ExtendedBlockStorage(cubeToMinBlock(getY()), world.provider.hasSkyLight()));
+    }
+
+    private void moveLightOffHeap() {
+        if (storage != NULL_STORAGE && !world.isRemote && CubicChunksConfig.offHeapLightStorage) {
+            ((IOffHeapLightStorage) storage).moveLightOffHeap();
+        }
+    }
+
+    private void releaseOffHeapLight() {
+        if (storage != NULL_STORAGE) {
+            ((IOffHeapLightStorage) storage).releaseOffHeapLight();
+        }
     }
 
     @Override public Map<BlockPos, TileEntity> getTileEntityMap() {
+        if (this.tileEntityMap == NO_TILE_ENTITIES) {
+            this.tileEntityMap = new HashMap<>();
+            // cubes are added to the column before they are loaded, and tile entities are added to the world while loading
+            if (((IColumn) column).getLoadedCube(coords.getY()) == this && column.getTileEntityMap() instanceof ColumnTileEntityMap) {
+                ((ColumnTileEntityMap) column.getTileEntityMap()).onTileEntityMapCreated(this);
+            }
+        }
+        return this.tileEntityMap;
+    }
+
+    /**
+     * @return true if this cube has allocated its tile entity map, which is done when the first tile entity is added
+     */
+    public boolean hasTileEntityMap() {
+        return this.tileEntityMap != NO_TILE_ENTITIES;
+    }
+
+    /**
+     * Returns the tile entities in this cube. Unlike {@link #getTileEntityMap()}, this doesn't allocate a map for cubes without tile
+     * entities, so the returned map must not be modified.
+     *
+     * @return a map containing all tile entities in this cube
+     */
+    public Map<BlockPos, TileEntity> getTileEntityMapView() {
         return this.tileEntityMap;
     }
 
@@ -476,9 +448,37 @@ public class Cube implements ICube {
         this.world.addTileEntities(this.tileEntityMap.values());
         this.world.loadEntities(this.entities.getEntities());
         this.isCubeLoaded = true;
+        moveLightOffHeap();
         if (!isSurfaceTracked) {
             trackSurface();
         }
+        scheduleLightUpdatesOnLoad();
+    }
+
+    /**
+     * Schedules light updates of this cube loaded from disk, and edge updates of neighbors that have been waiting for this cube
+     */
+    private void scheduleLightUpdatesOnLoad() {
+        if (this.world.isRemote || this.cubeLightUpdateInfo == null) {
+            return;
+        }
+        if (anyEdgeNeedsSkyLightUpdate()) {
+            this.cubeLightUpdateInfo.schedule();
+        }
+        ICubeProviderInternal cubeCache = ((ICubicWorldInternal) this.world).getCubeCache();
+        for (EnumFacing side : EnumFacing.values()) {
+            Cube neighbor = cubeCache.getLoadedCube(this.coords.getX() + side.getFrontOffsetX(),
+                    this.coords.getY() + side.getFrontOffsetY(), this.coords.getZ() + side.getFrontOffsetZ());
+            if (neighbor != null && neighbor.edgeNeedSkyLightUpdate[side.getOpposite().ordinal()]) {
+                neighbor.scheduleLightUpdate();
+            }
+        }
+    }
+
+    private void scheduleLightUpdate() {
+        if (this.cubeLightUpdateInfo != null) {
+            this.cubeLightUpdateInfo.schedule();
+        }
     }
 
     @SuppressWarnings("deprecation")
@@ -527,6 +527,11 @@ public class Cube implements ICube {
         for (TileEntity blockEntity : this.tileEntityMap.values()) {
             this.world.markTileEntityForRemoval(blockEntity);
         }
+
+        releaseOffHeapLight();
+        if (this.cubeLightUpdateInfo != null) {
+            this.cubeLightUpdateInfo.unschedule();
+        }
     }
 
     @Override public boolean needsSaving() {
@@ -609,6 +614,10 @@ public class Cube implements ICube {
      */
     public void setFullyPopulated(boolean populated) {
         this.isFullyPopulated = populated;
+        if (populated && (this.hasLightUpdates() || this.anyEdgeNeedsSkyLightUpdate())) {
+            // light updates are only done for fully populated cubes
+            scheduleLightUpdate();
+        }
         this.isModified = true;
     }
 
@@ -650,5 +659,15 @@ public class Cube implements ICube {
 
     public void markEdgeNeedSkyLightUpdate(EnumFacing side) {
         this.edgeNeedSkyLightUpdate[side.ordinal()] = true;
+        scheduleLightUpdate();
+    }
+
+    private boolean anyEdgeNeedsSkyLightUpdate() {
+        for (boolean edge : this.edgeNeedSkyLightUpdate) {
+            if (edge) {
+                return true;
+            }
+        }
+        return false;
     }
 }
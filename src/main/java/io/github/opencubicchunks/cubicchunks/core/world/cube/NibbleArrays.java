@@ -0,0 +1,195 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world.cube;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.NibbleArray;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Bulk operations on light arrays of cubes, working on 64-bit words instead of single values.
+ * <p>
+ * NibbleArray stores the value at (x, y, z) at index {@code y << 8 | z << 4 | x}, two values per byte with the lower x in the low bits.
+ * Read as little endian longs, each word holds one row of 16 values along the x axis, the value at x in bits {@code 4 * x} to
+ * {@code 4 * x + 3}. The word at index {@code y << 4 | z} (see {@link #wordIndex(int, int)}) holds the row at (y, z). Works with both
+ * on-heap arrays and {@link OffHeapNibbleArray}.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public final class NibbleArrays {
+
+    public static final int WORDS = Cube.SIZE * Cube.SIZE;
+
+    private static final long ONES = 0x1111_1111_1111_1111L;
+    // low nibble of each byte
+    private static final long EVEN = 0x0F0F_0F0F_0F0F_0F0FL;
+    private static final long BYTE_HIGH_BITS = 0x8080_8080_8080_8080L;
+
+    private NibbleArrays() {
+        throw new RuntimeException();
+    }
+
+    public static int wordIndex(int localY, int localZ) {
+        return localY << 4 | localZ;
+    }
+
+    /**
+     * @return the bits of the values from minX to maxX (inclusive) in a word
+     */
+    public static long rowMask(int minX, int maxX) {
+        long high = maxX == Cube.SIZE - 1 ? -1L : (1L << (4 * (maxX + 1))) - 1;
+        return high & (-1L << (4 * minX));
+    }
+
+    /**
+     * @return a word with all 16 values set to the given value
+     */
+    public static long repeat(int value) {
+        return (value & 0xF) * ONES;
+    }
+
+    /**
+     * Sets all values of the array to the given value
+     */
+    public static void fill(NibbleArray array, int value) {
+        fillWords(array, 0, WORDS, value);
+    }
+
+    /**
+     * Sets all values of the rows from fromWord (inclusive) to toWord (exclusive) to the given value. As rows are ordered by y, then z,
+     * whole horizontal layers can be filled by passing {@code wordIndex(minY, 0)} and {@code wordIndex(maxY + 1, 0)}.
+     */
+    public static void fillWords(NibbleArray array, int fromWord, int toWord, int value) {
+        ByteBuffer words = words(array);
+        long word = repeat(value);
+        for (int i = fromWord; i < toWord; i++) {
+            words.putLong(i << 3, word);
+        }
+    }
+
+    /**
+     * Sets values in a range of each block column of the array to the given value. For each column, values from fromY (inclusive) to the
+     * top of the array are set.
+     *
+     * @param fromY the minimum y coordinate for each column, at index {@code z << 4 | x}. Columns with values of 16 or above are not
+     * changed.
+     */
+    public static void fillColumnTops(NibbleArray array, byte[] fromY, int value) {
+        ByteBuffer words = words(array);
+        long valueWord = repeat(value);
+        for (int z = 0; z < Cube.SIZE; z++) {
+            int rowStart = z << 4;
+            long mask = 0;
+            // columns are added to the mask at their fromY, it only grows going up
+            for (int y = 0; y < Cube.SIZE; y++) {
+                for (int x = 0; x < Cube.SIZE; x++) {
+                    if (fromY[rowStart | x] == y) {
+                        mask |= 0xFL << (4 * x);
+                    }
+                }
+                if (mask != 0) {
+                    int offset = wordIndex(y, z) << 3;
+                    words.putLong(offset, words.getLong(offset) & ~mask | valueWord & mask);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets all bits of the given word that are set in bits.
+     */
+    public static void or(NibbleArray array, int wordIndex, long bits) {
+        ByteBuffer words = words(array);
+        words.putLong(wordIndex << 3, words.getLong(wordIndex << 3) | bits);
+    }
+
+    /**
+     * Clears all bits of the given word that are not set in bits.
+     */
+    public static void and(NibbleArray array, int wordIndex, long bits) {
+        ByteBuffer words = words(array);
+        words.putLong(wordIndex << 3, words.getLong(wordIndex << 3) & bits);
+    }
+
+    /**
+     * Sets the values selected by mask in the given word to the given value.
+     *
+     * @param mask the values to set, as returned by {@link #rowMask(int, int)}
+     */
+    public static void setMasked(NibbleArray array, int wordIndex, long mask, int value) {
+        ByteBuffer words = words(array);
+        int offset = wordIndex << 3;
+        words.putLong(offset, words.getLong(offset) & ~mask | repeat(value) & mask);
+    }
+
+    /**
+     * Sets each value of dst to the maximum of it and the value at the same position in src.
+     */
+    public static void max(NibbleArray dst, NibbleArray src) {
+        ByteBuffer dstWords = words(dst);
+        ByteBuffer srcWords = words(src);
+        for (int i = 0; i < WORDS; i++) {
+            int offset = i << 3;
+            long a = dstWords.getLong(offset);
+            long b = srcWords.getLong(offset);
+            dstWords.putLong(offset, maxOfBytes(a & EVEN, b & EVEN) | maxOfBytes(a >>> 4 & EVEN, b >>> 4 & EVEN) << 4);
+        }
+    }
+
+    /**
+     * @return the maximum of each byte of a and b, all bytes must be below 128
+     */
+    private static long maxOfBytes(long a, long b) {
+        // the high bit of each byte is set where a >= b, no byte can borrow from the next one
+        long aNotLess = ((a | BYTE_HIGH_BITS) - b) & BYTE_HIGH_BITS;
+        long mask = (aNotLess >>> 7) * 0xFF;
+        return a & mask | b & ~mask;
+    }
+
+    /**
+     * Copies all values of src to dst.
+     */
+    public static void copy(NibbleArray src, NibbleArray dst) {
+        ByteBuffer dstWords = words(dst);
+        dstWords.put(words(src));
+    }
+
+    /**
+     * @return an on-heap copy of the given array
+     */
+    public static NibbleArray copyOf(NibbleArray array) {
+        NibbleArray copy = new NibbleArray();
+        copy(array, copy);
+        return copy;
+    }
+
+    private static ByteBuffer words(NibbleArray array) {
+        ByteBuffer buffer = array instanceof OffHeapNibbleArray ? ((OffHeapNibbleArray) array).buffer() : ByteBuffer.wrap(array.getData());
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world.cube;
+
+import gnu.trove.list.array.TIntArrayList;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.NibbleArray;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Stores light arrays of loaded cubes outside of the java heap, so that they don't need to be scanned and copied by the garbage collector.
+ * <p>
+ * Memory is allocated in slabs of direct memory, each holding {@link #SLAB_ARRAYS} light arrays. Each array is addressed by its slot index,
+ * slots of released arrays are reused by arrays allocated later. Slabs are never freed, the amount of memory used is the maximum amount of
+ * light arrays used at the same time.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public final class OffHeapLightStore {
+
+    public static final OffHeapLightStore INSTANCE = new OffHeapLightStore();
+
+    static final int ARRAY_BYTES = Cube.SIZE * Cube.SIZE * Cube.SIZE / 2;
+    private static final int SLAB_ARRAYS_BITS = 8;
+    private static final int SLAB_ARRAYS = 1 << SLAB_ARRAYS_BITS;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final TIntArrayList freeSlots = new TIntArrayList();
+
+    private OffHeapLightStore() {
+    }
+
+    /**
+     * Creates an off-heap light array with the same contents as the given array
+     */
+    public OffHeapNibbleArray copyOf(NibbleArray source) {
+        OffHeapNibbleArray array = allocate();
+        NibbleArrays.copy(source, array);
+        return array;
+    }
+
+    private synchronized OffHeapNibbleArray allocate() {
+        if (freeSlots.isEmpty()) {
+            int firstSlot = slabs.size() << SLAB_ARRAYS_BITS;
+            slabs.add(ByteBuffer.allocateDirect(SLAB_ARRAYS * ARRAY_BYTES));
+            // pushed in reverse order, so that the lowest slot is used first
+            for (int i = SLAB_ARRAYS - 1; i >= 0; i--) {
+                freeSlots.add(firstSlot + i);
+            }
+            CubicChunks.LOGGER.debug("Allocated off-heap light slab #{}, {} kB of off-heap light storage in total",
+                    slabs.size(), slabs.size() * (SLAB_ARRAYS * ARRAY_BYTES / 1024));
+        }
+        int slot = freeSlots.removeAt(freeSlots.size() - 1);
+        return new OffHeapNibbleArray(slot, slabs.get(slot >>> SLAB_ARRAYS_BITS), (slot & (SLAB_ARRAYS - 1)) * ARRAY_BYTES);
+    }
+
+    synchronized void release(int slot) {
+        freeSlots.add(slot);
+    }
+
+    /**
+     * @return the amount of light arrays currently stored
+     */
+    public synchronized int getUsedArrays() {
+        return (slabs.size() << SLAB_ARRAYS_BITS) - freeSlots.size();
+    }
+
+    /**
+     * @return the amount of direct memory allocated for light arrays, in bytes
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) slabs.size() * SLAB_ARRAYS * ARRAY_BYTES;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world.cube;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.NibbleArray;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * NibbleArray stored in a slab of {@link OffHeapLightStore}. Uses the same nibble order as NibbleArray, so the data returned by
+ * {@link #getData()} is the same as for an on-heap array with the same values.
+ * <p>
+ * Unlike for NibbleArray, {@link #getData()} returns a copy, so it can only be used to read the values. Writes to the returned array are
+ * lost, values have to be changed with {@link #set} or {@link #setIndex}. Only light of cubes loaded on the server is stored off-heap,
+ * and all code in this mod that uses {@code getData()} of server light arrays only reads it: saving works on snapshots, and packets only
+ * write the data into the buffer. Writing into {@code getData()} is only done when decoding packets on the client. Other mods that write
+ * into {@code getData()} of server light arrays don't work with the offHeapLightStorage option.
+ * <p>
+ * Must be released when the cube is unloaded. Accessing a released array throws an exception.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class OffHeapNibbleArray extends NibbleArray {
+
+    // NibbleArray allocates its own array unless one is given, this one is never used
+    private static final byte[] UNUSED_DATA = new byte[OffHeapLightStore.ARRAY_BYTES];
+    private static final ByteBuffer RELEASED = ByteBuffer.allocate(0);
+
+    private final int slot;
+    private final int offset;
+    private ByteBuffer slab;
+
+    OffHeapNibbleArray(int slot, ByteBuffer slab, int offset) {
+        super(UNUSED_DATA);
+        this.slot = slot;
+        this.slab = slab;
+        this.offset = offset;
+    }
+
+    @Override public int get(int x, int y, int z) {
+        return getFromIndex(y << 8 | z << 4 | x);
+    }
+
+    @Override public void set(int x, int y, int z, int value) {
+        setIndex(y << 8 | z << 4 | x, value);
+    }
+
+    @Override public int getFromIndex(int index) {
+        int b = slab.get(offset + (index >> 1));
+        return (index & 1) == 0 ? b & 0xF : b >> 4 & 0xF;
+    }
+
+    @Override public void setIndex(int index, int value) {
+        int pos = offset + (index >> 1);
+        int b = slab.get(pos);
+        if ((index & 1) == 0) {
+            slab.put(pos, (byte) (b & 0xF0 | value & 0xF));
+        } else {
+            slab.put(pos, (byte) (b & 0x0F | (value & 0xF) << 4));
+        }
+    }
+
+    /**
+     * Returns a copy of the contents of this array. Changes to the returned array don't affect this array, see the class documentation.
+     */
+    @Override public byte[] getData() {
+        byte[] data = new byte[OffHeapLightStore.ARRAY_BYTES];
+        ByteBuffer view = slab.duplicate();
+        view.position(offset);
+        view.get(data);
+        return data;
+    }
+
+    /**
+     * @return an on-heap NibbleArray with the contents of this array
+     */
+    public NibbleArray toNibbleArray() {
+        return new NibbleArray(getData());
+    }
+
+    /**
+     * @return a buffer sharing the memory of this array, with position 0 at the first byte of the array
+     */
+    ByteBuffer buffer() {
+        ByteBuffer view = slab.duplicate();
+        view.position(offset);
+        view.limit(offset + OffHeapLightStore.ARRAY_BYTES);
+        return view.slice();
+    }
+
+    /**
+     * Returns the memory of this array to the store. Must be called only once, this array can't be used afterwards.
+     */
+    public void release() {
+        if (slab == RELEASED) {
+            throw new IllegalStateException("Off-heap light array " + slot + " has already been released");
+        }
+        slab = RELEASED;
+        OffHeapLightStore.INSTANCE.release(slot);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world.cube;
+
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICopyOnWriteStorage;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Storages of uniform cubes, made of a single block state with constant block and sky light, like stone deep underground.
+ * <p>
+ * All uniform cubes with the same block state and light values share one set of block and light arrays. Each cube still has its own
+ * ExtendedBlockStorage, which makes a private copy of the arrays the first time they are modified (see {@link ICopyOnWriteStorage}).
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public final class UniformStorages {
+
+    private static final int VOLUME = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+    // block light, sky light and whether there is sky light
+    private static final int LIGHT_KEYS = 16 * 16 * 2;
+
+    // never modified after they are created, their contents are shared with storages of cubes
+    // Keyed by the state instance and not by its id, because ids are remapped by Forge for each world. The map is replaced when a state
+    // is added, so that it can be read without locking.
+    private static volatile Map<IBlockState, AtomicReferenceArray<ExtendedBlockStorage>> templates = new IdentityHashMap<>();
+
+    private UniformStorages() {
+        throw new RuntimeException();
+    }
+
+    /**
+     * Creates a storage filled with the given block state and light values, sharing its contents with all other storages created for the
+     * same state and light values.
+     *
+     * @param yBase the minimum block y coordinate of the storage
+     */
+    public static ExtendedBlockStorage create(int yBase, IBlockState state, int blockLight, int skyLight, boolean hasSkyLight) {
+        AtomicReferenceArray<ExtendedBlockStorage> stateTemplates = templates.get(state);
+        if (stateTemplates == null) {
+            stateTemplates = addState(state);
+        }
+        int key = blockLight << 5 | skyLight << 1 | (hasSkyLight ? 1 : 0);
+        ExtendedBlockStorage template = stateTemplates.get(key);
+        if (template == null) {
+            template = new ExtendedBlockStorage(0, hasSkyLight);
+            fill(template, state, blockLight, skyLight, hasSkyLight);
+            if (!stateTemplates.compareAndSet(key, null, template)) {
+                // created by another thread at the same time
+                template = stateTemplates.get(key);
+            }
+        }
+        // the arrays allocated by the constructor are immediately replaced, sky light is not allocated at all
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(yBase, false);
+        ((ICopyOnWriteStorage) ebs).shareContentsOf(template);
+        return ebs;
+    }
+
+    private static synchronized AtomicReferenceArray<ExtendedBlockStorage> addState(IBlockState state) {
+        AtomicReferenceArray<ExtendedBlockStorage> stateTemplates = templates.get(state);
+        if (stateTemplates == null) {
+            stateTemplates = new AtomicReferenceArray<>(LIGHT_KEYS);
+            Map<IBlockState, AtomicReferenceArray<ExtendedBlockStorage>> newTemplates = new IdentityHashMap<>(templates);
+            newTemplates.put(state, stateTemplates);
+            templates = newTemplates;
+        }
+        return stateTemplates;
+    }
+
+    /**
+     * Returns a shared storage with the same contents if the given storage is uniform. Otherwise returns the given storage.
+     */
+    public static ExtendedBlockStorage tryShare(ExtendedBlockStorage ebs, boolean hasSkyLight) {
+        int blockLight = getUniformLight(ebs.getBlockLight());
+        if (blockLight < 0) {
+            return ebs;
+        }
+        int skyLight = 0;
+        if (hasSkyLight) {
+            skyLight = getUniformLight(ebs.getSkyLight());
+            if (skyLight < 0) {
+                return ebs;
+            }
+        }
+        IBlockState state = getUniformState(ebs.getData());
+        if (state == null) {
+            return ebs;
+        }
+        return create(ebs.getYLocation(), state, blockLight, skyLight, hasSkyLight);
+    }
+
+    /**
+     * @return the block state if all blocks are the same, null otherwise
+     */
+    @Nullable public static IBlockState getUniformState(BlockStateContainer data) {
+        IBlockState state = data.get(0, 0, 0);
+        for (int i = 1; i < VOLUME; i++) {
+            if (data.get(i & 0xF, i >> 8, (i >> 4) & 0xF) != state) {
+                return null;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @return the light value if all values in the array are the same, -1 otherwise
+     */
+    public static int getUniformLight(@Nullable NibbleArray light) {
+        if (light == null) {
+            return -1;
+        }
+        byte[] bytes = light.getData();
+        byte first = bytes[0];
+        if ((first & 0xF) != ((first >> 4) & 0xF)) {
+            return -1;
+        }
+        for (int i = 1; i < bytes.length; i++) {
+            if (bytes[i] != first) {
+                return -1;
+            }
+        }
+        return first & 0xF;
+    }
+
+    private static void fill(ExtendedBlockStorage ebs, IBlockState state, int blockLight, int skyLight, boolean hasSkyLight) {
+        if (state != Blocks.AIR.getDefaultState()) {
+            for (int i = 0; i < VOLUME; i++) {
+                ebs.set(i & 0xF, i >> 8, (i >> 4) & 0xF, state);
+            }
+        }
+        if (blockLight != 0) {
+            ebs.setBlockLight(filledNibbleArray(blockLight));
+        }
+        if (hasSkyLight && skyLight != 0) {
+            ebs.setSkyLight(filledNibbleArray(skyLight));
+        }
+        ebs.recalculateRefCounts();
+    }
+
+    private static NibbleArray filledNibbleArray(int value) {
+        byte[] data = new byte[VOLUME / 2];
+        Arrays.fill(data, (byte) (value | value << 4));
+        return new NibbleArray(data);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestCuboidalCubeSelector {
+
+    private static final int H = 4;
+    private static final int V = 3;
+
+    @Test
+    public void testFindChanged() {
+        CuboidalCubeSelector selector = new CuboidalCubeSelector();
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            CubePos oldPos = new CubePos(random.nextInt(11) - 5, random.nextInt(11) - 5, random.nextInt(11) - 5);
+            // mostly small moves, sometimes far enough that the volumes don't intersect
+            int range = i % 10 == 0 ? 30 : 3;
+            CubePos newPos = oldPos.add(random.nextInt(range * 2 + 1) - range, random.nextInt(range * 2 + 1) - range,
+                    random.nextInt(range * 2 + 1) - range);
+
+            List<String> order = new ArrayList<>();
+            Set<CubePos> cubesToRemove = new HashSet<>();
+            Set<CubePos> cubesToLoad = new HashSet<>();
+            Set<ChunkPos> columnsToRemove = new HashSet<>();
+            Set<ChunkPos> columnsToLoad = new HashSet<>();
+            selector.findChanged(oldPos, newPos, H, V,
+                    (x, y, z) -> {
+                        assertTrue(cubesToRemove.add(new CubePos(x, y, z)));
+                        addOnce(order, "removeCube");
+                    },
+                    (x, y, z) -> {
+                        assertTrue(cubesToLoad.add(new CubePos(x, y, z)));
+                        addOnce(order, "loadCube");
+                    },
+                    (x, z) -> {
+                        assertTrue(columnsToRemove.add(new ChunkPos(x, z)));
+                        addOnce(order, "removeColumn");
+                    },
+                    (x, z) -> {
+                        assertTrue(columnsToLoad.add(new ChunkPos(x, z)));
+                        addOnce(order, "loadColumn");
+                    });
+
+            assertEquals(difference(newPos, oldPos), cubesToLoad);
+            assertEquals(difference(oldPos, newPos), cubesToRemove);
+            assertEquals(columnDifference(newPos, oldPos), columnsToLoad);
+            assertEquals(columnDifference(oldPos, newPos), columnsToRemove);
+            assertTrue(order.toString(), isInOrder(order, "loadColumn", "loadCube", "removeCube", "removeColumn"));
+        }
+    }
+
+    private static void addOnce(List<String> order, String name) {
+        if (order.isEmpty() || !order.get(order.size() - 1).equals(name)) {
+            order.add(name);
+        }
+    }
+
+    private static boolean isInOrder(List<String> order, String... expected) {
+        int at = 0;
+        for (String name : order) {
+            while (at < expected.length && !expected[at].equals(name)) {
+                at++;
+            }
+            if (at == expected.length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<CubePos> difference(CubePos pos, CubePos excluded) {
+        Set<CubePos> set = new HashSet<>();
+        for (int x = -H; x <= H; x++) {
+            for (int y = -V; y <= V; y++) {
+                for (int z = -H; z <= H; z++) {
+                    CubePos p = pos.add(x, y, z);
+                    if (Math.abs(p.getX() - excluded.getX()) > H || Math.abs(p.getY() - excluded.getY()) > V
+                            || Math.abs(p.getZ() - excluded.getZ()) > H) {
+                        set.add(p);
+                    }
+                }
+            }
+        }
+        return set;
+    }
+
+    private static Set<ChunkPos> columnDifference(CubePos pos, CubePos excluded) {
+        Set<ChunkPos> set = new HashSet<>();
+        for (int x = -H; x <= H; x++) {
+            for (int z = -H; z <= H; z++) {
+                int cx = pos.getX() + x;
+                int cz = pos.getZ() + z;
+                if (Math.abs(cx - excluded.getX()) > H || Math.abs(cz - excluded.getZ()) > H) {
+                    set.add(new ChunkPos(cx, cz));
+                }
+            }
+        }
+        return set;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertEquals;
+
+import io.github.opencubicchunks.cubicchunks.core.world.cube.NibbleArrays;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.OffHeapLightStore;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.OffHeapNibbleArray;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.NibbleArray;
+import org.junit.Test;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestNibbleArrays {
+
+    @Test
+    public void testFillColumnTops() {
+        Random rand = new Random(42);
+        for (int i = 0; i < 20; i++) {
+            NibbleArray array = randomArray(rand);
+            NibbleArray expected = new NibbleArray(array.getData().clone());
+            byte[] fromY = new byte[256];
+            for (int j = 0; j < fromY.length; j++) {
+                fromY[j] = (byte) rand.nextInt(17);
+            }
+            int value = rand.nextInt(16);
+
+            NibbleArrays.fillColumnTops(array, fromY, value);
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int y = fromY[z << 4 | x]; y < 16; y++) {
+                        expected.set(x, y, z, value);
+                    }
+                }
+            }
+            assertSameValues(expected, array);
+        }
+    }
+
+    @Test
+    public void testMasks() {
+        Random rand = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            NibbleArray array = randomArray(rand);
+            NibbleArray expected = new NibbleArray(array.getData().clone());
+            int y = rand.nextInt(16);
+            int z = rand.nextInt(16);
+            int minX = rand.nextInt(16);
+            int maxX = minX + rand.nextInt(16 - minX);
+            int value = rand.nextInt(16);
+
+            NibbleArrays.setMasked(array, NibbleArrays.wordIndex(y, z), NibbleArrays.rowMask(minX, maxX), value);
+            for (int x = minX; x <= maxX; x++) {
+                expected.set(x, y, z, value);
+            }
+            assertSameValues(expected, array);
+
+            NibbleArrays.or(array, NibbleArrays.wordIndex(y, z), NibbleArrays.repeat(1));
+            NibbleArrays.and(array, NibbleArrays.wordIndex(z, y), ~NibbleArrays.repeat(1));
+            for (int x = 0; x < 16; x++) {
+                expected.set(x, y, z, expected.get(x, y, z) | 1);
+                expected.set(x, z, y, expected.get(x, z, y) & ~1);
+            }
+            assertSameValues(expected, array);
+        }
+    }
+
+    @Test
+    public void testMax() {
+        Random rand = new Random(42);
+        for (int i = 0; i < 20; i++) {
+            NibbleArray a = randomArray(rand);
+            NibbleArray b = randomArray(rand);
+            NibbleArray expected = new NibbleArray();
+            for (int j = 0; j < 4096; j++) {
+                expected.setIndex(j, Math.max(a.getFromIndex(j), b.getFromIndex(j)));
+            }
+            NibbleArrays.max(a, b);
+            assertSameValues(expected, a);
+        }
+    }
+
+    @Test
+    public void testOffHeap() {
+        Random rand = new Random(42);
+        NibbleArray source = randomArray(rand);
+        OffHeapNibbleArray array = OffHeapLightStore.INSTANCE.copyOf(source);
+        OffHeapNibbleArray other = OffHeapLightStore.INSTANCE.copyOf(randomArray(rand));
+        try {
+            assertSameValues(source, array);
+
+            NibbleArray expected = NibbleArrays.copyOf(other);
+            NibbleArrays.max(expected, source);
+            NibbleArrays.max(array, other);
+            assertSameValues(expected, array);
+
+            NibbleArrays.fillWords(array, NibbleArrays.wordIndex(3, 0), NibbleArrays.wordIndex(5, 0), 15);
+            for (int j = 3 << 8; j < 5 << 8; j++) {
+                expected.setIndex(j, 15);
+            }
+            assertSameValues(expected, array);
+        } finally {
+            array.release();
+            other.release();
+        }
+    }
+
+    private static NibbleArray randomArray(Random rand) {
+        byte[] data = new byte[2048];
+        rand.nextBytes(data);
+        return new NibbleArray(data);
+    }
+
+    private static void assertSameValues(NibbleArray expected, NibbleArray actual) {
+        for (int i = 0; i < 4096; i++) {
+            assertEquals("Index " + i, expected.getFromIndex(i), actual.getFromIndex(i));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeSkyLightUpdates;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.NibbleArray;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestPacketCubeSkyLightUpdates {
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(42);
+        byte[] light = new byte[PacketCubeSkyLightUpdates.FULL_RELIGHT_BYTES];
+        random.nextBytes(light);
+        NibbleArray skyLight = new NibbleArray(light);
+
+        long[] changed = new long[64];
+        changed[0] = 0b1011L;
+        changed[17] = 1L << 63;
+        changed[63] = 1L;
+        List<PacketCubeSkyLightUpdates.Entry> entries = Arrays.asList(
+                PacketCubeSkyLightUpdates.Entry.update(new CubePos(1, -2, 3), skyLight, changed, 5),
+                PacketCubeSkyLightUpdates.Entry.fullRelight(new CubePos(-100000, 2000000, -3), skyLight),
+                PacketCubeSkyLightUpdates.Entry.fullRelight(new CubePos(0, 0, 0), null),
+                PacketCubeSkyLightUpdates.Entry.update(new CubePos(7, 7, 7), null, changed, 5)
+        );
+
+        ByteBuf buf = Unpooled.buffer();
+        new PacketCubeSkyLightUpdates(entries).toBytes(buf);
+        PacketCubeSkyLightUpdates read = new PacketCubeSkyLightUpdates();
+        read.fromBytes(buf);
+        assertEquals(0, buf.readableBytes());
+
+        List<PacketCubeSkyLightUpdates.Entry> readEntries = read.getEntries();
+        assertEquals(entries.size(), readEntries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            PacketCubeSkyLightUpdates.Entry expected = entries.get(i);
+            PacketCubeSkyLightUpdates.Entry actual = readEntries.get(i);
+            assertEquals(expected.getCubePos(), actual.getCubePos());
+            assertEquals(expected.isFullRelight(), actual.isFullRelight());
+            assertArrayEquals(expected.getData(), actual.getData());
+        }
+
+        PacketCubeSkyLightUpdates.Entry partial = readEntries.get(0);
+        assertFalse(partial.isFullRelight());
+        assertEquals(5, partial.updateCount());
+        // index 0: x=0, y=0, z=0; index 17 * 64 + 63 = 1151: x=15, y=4, z=7
+        assertEquals(0, partial.getData()[0]);
+        assertEquals(skyLight.get(0, 0, 0) << 4, partial.getData()[1] & 0xFF);
+        assertEquals(15 | 4 << 4, partial.getData()[6] & 0xFF);
+        assertEquals(7 | skyLight.get(15, 4, 7) << 4, partial.getData()[7] & 0xFF);
+
+        assertArrayEquals(light, readEntries.get(1).getData());
+        assertTrue(readEntries.get(2).isFullRelight());
+        assertNull(readEntries.get(2).getData());
+        assertTrue(readEntries.get(3).isFullRelight());
+        assertNull(readEntries.get(3).getData());
+    }
+
+    @Test
+    public void testEmptyPacket() {
+        ByteBuf buf = Unpooled.buffer();
+        new PacketCubeSkyLightUpdates(Collections.emptyList()).toBytes(buf);
+        PacketCubeSkyLightUpdates read = new PacketCubeSkyLightUpdates();
+        read.fromBytes(buf);
+        assertTrue(read.getEntries().isEmpty());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Box;
+import io.github.opencubicchunks.cubicchunks.core.util.RegionTaskGroups;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestRegionTaskGroups {
+
+    private static final int SIZE = 48;
+    private static final int RADIUS = 2;
+
+    @Test
+    public void testGroupsDontIntersect() {
+        List<Task> tasks = randomTasks(new Random(42), 300);
+        List<List<Task>> groups = RegionTaskGroups.group(tasks, Task::getRegion);
+
+        Map<Task, Integer> groupOf = new IdentityHashMap<>();
+        int lastFirstIndex = -1;
+        for (int i = 0; i < groups.size(); i++) {
+            List<Task> group = groups.get(i);
+            assertFalse(group.isEmpty());
+            // groups are ordered by their first task, tasks keep their order
+            assertTrue(group.get(0).index > lastFirstIndex);
+            lastFirstIndex = group.get(0).index;
+            for (int j = 1; j < group.size(); j++) {
+                assertTrue(group.get(j - 1).index < group.get(j).index);
+            }
+            for (Task task : group) {
+                assertNull(groupOf.put(task, i));
+            }
+        }
+        assertEquals(tasks.size(), groupOf.size());
+
+        for (Task a : tasks) {
+            for (Task b : tasks) {
+                if (a.getRegion().intersects(b.getRegion())) {
+                    assertEquals(groupOf.get(a), groupOf.get(b));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSameAsSerial() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int seed = 0; seed < 20; seed++) {
+                List<Task> tasks = randomTasks(new Random(seed), 200);
+
+                int[] expected = new int[SIZE * SIZE * SIZE];
+                for (Task task : tasks) {
+                    task.run(expected);
+                }
+
+                int[] actual = new int[SIZE * SIZE * SIZE];
+                List<List<Task>> groups = RegionTaskGroups.group(tasks, Task::getRegion);
+                List<Integer> results = RegionTaskGroups.run(groups, group -> {
+                    group.forEach(task -> task.run(actual));
+                    return group.size();
+                }, pool);
+
+                assertEquals(groups.size(), results.size());
+                for (int i = 0; i < groups.size(); i++) {
+                    assertEquals(groups.get(i).size(), (int) results.get(i));
+                }
+                assertTrue("Seed " + seed, Arrays.equals(expected, actual));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static List<Task> randomTasks(Random random, int count) {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tasks.add(new Task(i, RADIUS + random.nextInt(SIZE - RADIUS * 2), RADIUS + random.nextInt(SIZE - RADIUS * 2),
+                    RADIUS + random.nextInt(SIZE - RADIUS * 2)));
+        }
+        return tasks;
+    }
+
+    private static final class Task {
+
+        private final int index;
+        private final int x, y, z;
+
+        Task(int index, int x, int y, int z) {
+            this.index = index;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        Box getRegion() {
+            return new Box(x - RADIUS, y - RADIUS, z - RADIUS, x + RADIUS, y + RADIUS, z + RADIUS);
+        }
+
+        // the result depends on the order in which overlapping tasks run, and on what neighbors have already written
+        void run(int[] data) {
+            for (int dx = -RADIUS; dx <= RADIUS; dx++) {
+                for (int dy = -RADIUS; dy <= RADIUS; dy++) {
+                    for (int dz = -RADIUS; dz <= RADIUS; dz++) {
+                        int i = ((x + dx) * SIZE + y + dy) * SIZE + z + dz;
+                        int neighbor = dx > -RADIUS ? data[i - SIZE * SIZE] : 0;
+                        data[i] = data[i] * 31 + neighbor + index;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.core.server.ScheduledTickWheel;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.material.Material;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.NextTickListEntry;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestScheduledTickWheel {
+
+    private final Block block = new Block(Material.ROCK);
+
+    @Test
+    public void testRunOrder() {
+        long start = 1000;
+        ScheduledTickWheel wheel = new ScheduledTickWheel(start);
+        Map<BlockPos, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            BlockPos pos = new BlockPos(random.nextInt(64), random.nextInt(64), random.nextInt(64));
+            // some delays are long enough to end up in the overflow list
+            long time = start + (random.nextBoolean() ? random.nextInt(600) : random.nextInt(150000));
+            boolean scheduled = wheel.schedule(pos, block, time, random.nextInt(3) - 1);
+            assertEquals(!expected.containsKey(pos), scheduled);
+            if (scheduled) {
+                expected.put(pos, time);
+            }
+        }
+        for (long time = start; time < start + 150000; time++) {
+            List<NextTickListEntry> ran = new ArrayList<>();
+            long now = time;
+            wheel.tick(time, entry -> {
+                assertEquals(now, entry.scheduledTime);
+                ran.add(entry);
+                return true;
+            });
+            for (int i = 1; i < ran.size(); i++) {
+                assertTrue(ran.get(i - 1).compareTo(ran.get(i)) < 0);
+            }
+            for (NextTickListEntry entry : ran) {
+                assertEquals(Long.valueOf(time), expected.remove(entry.position));
+            }
+        }
+        assertTrue(expected.isEmpty());
+    }
+
+    @Test
+    public void testCancelAndRemoveCube() {
+        ScheduledTickWheel wheel = new ScheduledTickWheel(0);
+        BlockPos inCube = new BlockPos(1, 2, 3);
+        BlockPos otherCube = new BlockPos(17, 2, 3);
+        assertTrue(wheel.schedule(inCube, block, 10, 0));
+        assertTrue(wheel.schedule(otherCube, block, 70000, 0));
+        assertTrue(wheel.isScheduled(inCube, block));
+        assertEquals(1, wheel.getTicks(0, 0, 0).size());
+
+        assertTrue(wheel.cancel(inCube, block));
+        assertFalse(wheel.cancel(inCube, block));
+        assertFalse(wheel.hasTicks(0, 0, 0));
+
+        assertTrue(wheel.hasTicks(1, 0, 0));
+        wheel.removeCube(1, 0, 0);
+        assertFalse(wheel.isScheduled(otherCube, block));
+        for (long time = 0; time < 70010; time++) {
+            wheel.tick(time, entry -> {
+                fail();
+                return true;
+            });
+        }
+    }
+
+    @Test
+    public void testRetryAndReschedule() {
+        ScheduledTickWheel wheel = new ScheduledTickWheel(0);
+        BlockPos pos = new BlockPos(5, 5, 5);
+        wheel.schedule(pos, block, 3, 0);
+        int[] attempts = new int[1];
+        for (long time = 0; time < 10; time++) {
+            wheel.tick(time, entry -> {
+                assertFalse(wheel.isRunningThisTick(entry.position, block));
+                return ++attempts[0] > 2;
+            });
+        }
+        assertEquals(3, attempts[0]);
+        assertFalse(wheel.isScheduled(pos, block));
+
+        // a tick can schedule itself again while it's running
+        wheel.schedule(pos, block, 20, 0);
+        int[] runs = new int[1];
+        for (long time = 10; time < 40; time++) {
+            long now = time;
+            wheel.tick(time, entry -> {
+                runs[0]++;
+                if (runs[0] == 1) {
+                    assertTrue(wheel.schedule(entry.position, block, now + 5, 0));
+                }
+                return true;
+            });
+        }
+        assertEquals(2, runs[0]);
+    }
+
+    @Test
+    public void testTimeJump() {
+        ScheduledTickWheel wheel = new ScheduledTickWheel(0);
+        BlockPos pos = new BlockPos(0, 0, 0);
+        wheel.schedule(pos, block, 100, 0);
+        int[] runs = new int[1];
+        wheel.tick(1000000, entry -> {
+            runs[0]++;
+            return true;
+        });
+        assertEquals(1, runs[0]);
+        assertFalse(wheel.hasTicks(0, 0, 0));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares ServerHeightMap with a simple implementation that keeps a set of opaque blocks for each block column, after random opacity
+ * changes.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestServerHeightMap {
+
+    private static final int MIN_Y = -40;
+    private static final int MAX_Y = 40;
+
+    @Test
+    public void testEmpty() {
+        ServerHeightMap heightMap = new ServerHeightMap();
+        Reference reference = new Reference();
+        checkAll(heightMap, reference);
+    }
+
+    @Test
+    public void testRandomChangesInFewColumns() {
+        // many changes in the same block columns, so that they get a lot of segments
+        testRandomChanges(new Random(1), 4, 20000);
+    }
+
+    @Test
+    public void testRandomChangesInAllColumns() {
+        testRandomChanges(new Random(2), 256, 20000);
+    }
+
+    @Test
+    public void testFarAwayBlocks() {
+        ServerHeightMap heightMap = new ServerHeightMap();
+        Reference reference = new Reference();
+        int[] ys = {Integer.MIN_VALUE >> 1, -1000000, 0, 1000000, Integer.MAX_VALUE >> 1};
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            int x = random.nextInt(16);
+            int z = random.nextInt(16);
+            int y = ys[random.nextInt(ys.length)] + random.nextInt(3) - 1;
+            int opacity = random.nextBoolean() ? 0 : 255;
+            heightMap.onOpacityChange(x, y, z, opacity);
+            reference.onOpacityChange(x, y, z, opacity);
+            assertEquals(reference.getTopBlockY(x, z), heightMap.getTopBlockY(x, z));
+            for (int blockY : ys) {
+                for (int dy = -2; dy <= 2; dy++) {
+                    assertEquals(reference.getTopBlockYBelow(x, z, blockY + dy), heightMap.getTopBlockYBelow(x, z, blockY + dy));
+                }
+            }
+        }
+        assertEquals(reference.getLowestTopBlockY(), heightMap.getLowestTopBlockY());
+    }
+
+    private void testRandomChanges(Random random, int columns, int changes) {
+        ServerHeightMap heightMap = new ServerHeightMap();
+        Reference reference = new Reference();
+        int[] columnIndexes = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            columnIndexes[i] = columns == 256 ? i : random.nextInt(256);
+        }
+        for (int i = 0; i < changes; i++) {
+            int index = columnIndexes[random.nextInt(columns)];
+            int x = index & 15;
+            int z = index >> 4;
+            int y = MIN_Y + random.nextInt(MAX_Y - MIN_Y + 1);
+            // mostly transparent or fully opaque, sometimes partially opaque which counts as opaque
+            int opacity = random.nextInt(10) == 0 ? 1 + random.nextInt(254) : random.nextBoolean() ? 0 : 255;
+            heightMap.onOpacityChange(x, y, z, opacity);
+            reference.onOpacityChange(x, y, z, opacity);
+            checkColumn(heightMap, reference, x, z);
+
+            if (i % 1000 == 999) {
+                checkAll(heightMap, reference);
+                // data written by a packed height map that has unused space is read back without it
+                ServerHeightMap read = new ServerHeightMap();
+                read.readData(heightMap.getData());
+                checkAll(read, reference);
+                assertArrayEquals(heightMap.getData(), read.getData());
+                assertEquals(heightMap.hashCode(), read.hashCode());
+                // and it can still be modified afterwards
+                heightMap = read;
+            }
+        }
+    }
+
+    private static void checkAll(ServerHeightMap heightMap, Reference reference) {
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                checkColumn(heightMap, reference, x, z);
+            }
+        }
+        assertEquals(reference.getLowestTopBlockY(), heightMap.getLowestTopBlockY());
+    }
+
+    private static void checkColumn(ServerHeightMap heightMap, Reference reference, int x, int z) {
+        assertEquals(reference.getTopBlockY(x, z), heightMap.getTopBlockY(x, z));
+        for (int y = MIN_Y - 2; y <= MAX_Y + 2; y++) {
+            // the message is only built on failure, building it every time makes the test much slower
+            if (reference.isOccluded(x, y, z) != heightMap.isOccluded(x, y, z)) {
+                fail("isOccluded at " + x + ", " + y + ", " + z + ", " + heightMap.dump(x, z));
+            }
+            if (reference.getTopBlockYBelow(x, z, y) != heightMap.getTopBlockYBelow(x, z, y)) {
+                fail("getTopBlockYBelow at " + x + ", " + y + ", " + z + ", " + heightMap.dump(x, z));
+            }
+        }
+    }
+
+    private static final class Reference {
+
+        @SuppressWarnings("unchecked")
+        private final TreeSet<Integer>[] opaque = new TreeSet[256];
+
+        Reference() {
+            for (int i = 0; i < opaque.length; i++) {
+                opaque[i] = new TreeSet<>();
+            }
+        }
+
+        void onOpacityChange(int localX, int blockY, int localZ, int opacity) {
+            if (blockY > CubicChunks.MAX_BLOCK_Y || blockY < CubicChunks.MIN_BLOCK_Y) {
+                return;
+            }
+            if (opacity != 0) {
+                opaque[localZ << 4 | localX].add(blockY);
+            } else {
+                opaque[localZ << 4 | localX].remove(blockY);
+            }
+        }
+
+        boolean isOccluded(int localX, int blockY, int localZ) {
+            return blockY <= getTopBlockY(localX, localZ);
+        }
+
+        int getTopBlockY(int localX, int localZ) {
+            TreeSet<Integer> blocks = opaque[localZ << 4 | localX];
+            return blocks.isEmpty() ? Coords.NO_HEIGHT : blocks.last();
+        }
+
+        int getTopBlockYBelow(int localX, int localZ, int blockY) {
+            Integer below = opaque[localZ << 4 | localX].lower(blockY);
+            return below == null ? Coords.NO_HEIGHT : below;
+        }
+
+        int getLowestTopBlockY() {
+            int lowest = Integer.MAX_VALUE;
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    lowest = Math.min(lowest, getTopBlockY(x, z));
+                }
+            }
+            // ServerHeightMap returns one less when there are empty block columns, to tell it apart from not computed value
+            return lowest == Coords.NO_HEIGHT ? lowest - 1 : lowest;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.core.util.WatcherPriorityQueue;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestWatcherPriorityQueue {
+
+    private final Map<Integer, Integer> priorities = new HashMap<>();
+
+    @Test
+    public void testOrder() {
+        WatcherPriorityQueue<Integer> queue = new WatcherPriorityQueue<>(priorities::get, 16);
+        Set<Integer> added = new HashSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            int e = random.nextInt(500);
+            if (!added.contains(e)) {
+                priorities.put(e, random.nextInt(20) - 2);
+            }
+            assertEquals(added.add(e), queue.add(e));
+        }
+        for (int i = 0; i < 300; i++) {
+            int e = random.nextInt(500);
+            assertEquals(added.remove(e), queue.remove(e));
+            assertFalse(queue.contains(e));
+        }
+        for (int i = 0; i < 300; i++) {
+            int e = random.nextInt(500);
+            priorities.put(e, random.nextInt(16));
+            queue.update(e);
+        }
+        checkQueue(queue, added);
+
+        for (Integer e : priorities.keySet()) {
+            priorities.put(e, random.nextInt(16));
+        }
+        queue.updateAll();
+        checkQueue(queue, added);
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        WatcherPriorityQueue<Integer> queue = new WatcherPriorityQueue<>(priorities::get, 4);
+        Set<Integer> added = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            priorities.put(i, i % 4);
+            queue.add(i);
+            added.add(i);
+        }
+        int seen = 0;
+        Iterator<Integer> it = queue.iterator();
+        while (it.hasNext()) {
+            int e = it.next();
+            seen++;
+            if (e % 3 == 0) {
+                it.remove();
+                added.remove(e);
+            }
+        }
+        assertEquals(100, seen);
+        queue.removeIf(e -> e % 5 == 0);
+        added.removeIf(e -> e % 5 == 0);
+        checkQueue(queue, added);
+    }
+
+    private void checkQueue(WatcherPriorityQueue<Integer> queue, Set<Integer> expected) {
+        Set<Integer> found = new HashSet<>();
+        int prev = Integer.MIN_VALUE;
+        for (Integer e : queue) {
+            int priority = Math.max(0, Math.min(15, priorities.get(e)));
+            assertTrue(priority >= prev);
+            prev = priority;
+            assertTrue(found.add(e));
+        }
+        assertEquals(expected, found);
+        assertEquals(expected.size(), queue.size());
+    }
+}
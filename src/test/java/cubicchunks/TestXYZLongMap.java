@@ -0,0 +1,118 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZLongMap;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestXYZLongMap {
+
+    @Test
+    public void testPackedPosition() {
+        CubePos pos = new CubePos(-123456, 5432, 2097151);
+        assertEquals(pos, CubePos.fromLong(pos.asLong()));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        // small coordinate range to get many collisions, y coordinates that only differ outside of the packed bits share keys
+        XYZLongMap<Entry> map = new XYZLongMap<>(0.7f, 4);
+        Map<CubePos, Entry> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            Entry entry = new Entry(random.nextInt(16) - 8, (random.nextInt(8) - 4) + (random.nextInt(2) << 20), random.nextInt(16) - 8);
+            CubePos pos = new CubePos(entry);
+            if (random.nextBoolean()) {
+                assertSame(expected.put(pos, entry), map.put(entry));
+            } else {
+                assertSame(expected.remove(pos), map.remove(entry));
+            }
+            assertEquals(expected.size(), map.getSize());
+        }
+        for (Map.Entry<CubePos, Entry> e : expected.entrySet()) {
+            CubePos pos = e.getKey();
+            assertSame(e.getValue(), map.get(pos.getX(), pos.getY(), pos.getZ()));
+        }
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        XYZLongMap<Entry> map = new XYZLongMap<>(0.7f, 4);
+        for (int x = 0; x < 20; x++) {
+            for (int z = 0; z < 20; z++) {
+                map.put(new Entry(x, 0, z));
+            }
+        }
+        int seen = 0;
+        Iterator<Entry> it = map.iterator();
+        while (it.hasNext()) {
+            Entry pos = it.next();
+            seen++;
+            if (pos.getX() % 2 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(400, seen);
+        assertEquals(200, map.getSize());
+        for (Entry pos : map) {
+            assertEquals(1, pos.getX() % 2);
+            assertTrue(map.contains(pos.getX(), pos.getY(), pos.getZ()));
+        }
+    }
+
+    private static final class Entry implements XYZAddressable {
+
+        private final int x, y, z;
+
+        Entry(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Box;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.util.FastCubeBlockAccess;
+import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Checks that diffusion done against a {@link FirstLightSnapshot} and applied afterwards gives the same result as diffusion done directly
+ * on the world. Blocks, storages and cubes are mocks, so that no running world is needed.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestFirstLightSnapshot {
+
+    // the cubes lit one after another in the same group, like the cubes of one column in FirstLightProcessor
+    private static final List<CubePos> UPDATED = Arrays.asList(new CubePos(0, 0, 0), new CubePos(0, -1, 0), new CubePos(1, -1, 0));
+    // everything the block accesses of the updated cubes can reach
+    private static final Box REGION = new Box(-2, -3, -2, 3, 2, 2);
+    private static final int TOP_CUBE_Y = 2;
+    private static final int[] OPACITY = {0, 0, 0, 1, 3, 15, 15};
+
+    private final IBlockState[] states = new IBlockState[OPACITY.length];
+
+    public TestFirstLightSnapshot() {
+        for (int i = 0; i < OPACITY.length; i++) {
+            states[i] = mock(IBlockState.class);
+            when(states[i].getLightOpacity(any(IBlockAccess.class), any(BlockPos.class))).thenReturn(OPACITY[i]);
+            when(states[i].getLightValue(any(IBlockAccess.class), any(BlockPos.class))).thenReturn(0);
+        }
+    }
+
+    @Test
+    public void testSameResultAsWorld() {
+        for (long seed = 0; seed < 4; seed++) {
+            testSameResultAsWorld(seed);
+        }
+    }
+
+    private void testSameResultAsWorld(long seed) {
+        TestWorld serial = new TestWorld(seed);
+        LightUpdateTracker serialTracker = newTracker();
+        LightPropagator propagator = new LightPropagator();
+        for (CubePos pos : UPDATED) {
+            Cube cube = serial.cubes.get(pos);
+            propagator.propagateLight(pos.getCenterBlockPos(), serial.toUpdate(pos), new FastCubeBlockAccess(serial.provider, cube, 2),
+                    EnumSkyBlock.SKY, serialTracker::onUpdate);
+        }
+
+        TestWorld parallel = new TestWorld(seed);
+        LightUpdateTracker parallelTracker = newTracker();
+        FirstLightSnapshot snapshot = new FirstLightSnapshot(parallel.provider, mock(World.class), REGION.asMutable());
+        for (CubePos pos : UPDATED) {
+            Cube cube = parallel.cubes.get(pos);
+            propagator.propagateLight(pos.getCenterBlockPos(), parallel.toUpdate(pos), snapshot.getBlockAccess(cube, 2),
+                    EnumSkyBlock.SKY, snapshot::onLightUpdate);
+        }
+
+        TestWorld initial = new TestWorld(seed);
+        boolean anyChanged = false;
+        for (CubePos pos : serial.cubes.keySet()) {
+            // nothing is written to the world before apply
+            assertArrayEquals(initial.skyLight.get(pos).getData(), parallel.skyLight.get(pos).getData());
+            assertEquals(EnumSet.noneOf(EnumFacing.class), parallel.edges.get(pos));
+            // but the snapshot sees its own changes
+            Cube cube = parallel.cubes.get(pos);
+            NibbleArray expected = serial.skyLight.get(pos);
+            for (BlockPos blockPos : BlockPos.getAllInBoxMutable(pos.getMinBlockPos(), pos.getMaxBlockPos())) {
+                assertEquals(expected.get(blockPos.getX() & 15, blockPos.getY() & 15, blockPos.getZ() & 15),
+                        snapshot.getSkyLight(cube, blockPos));
+            }
+            anyChanged |= !Arrays.equals(initial.skyLight.get(pos).getData(), expected.getData());
+        }
+        assertTrue("Nothing was changed with seed " + seed, anyChanged);
+
+        snapshot.apply(parallelTracker, mock(ILightingManager.class));
+
+        for (CubePos pos : serial.cubes.keySet()) {
+            assertArrayEquals("Sky light at " + pos + " with seed " + seed,
+                    serial.skyLight.get(pos).getData(), parallel.skyLight.get(pos).getData());
+            assertEquals("Edges at " + pos + " with seed " + seed, serial.edges.get(pos), parallel.edges.get(pos));
+            LightUpdateTracker.CubeUpdates serialUpdates = serialTracker.getUpdates(pos);
+            LightUpdateTracker.CubeUpdates parallelUpdates = parallelTracker.getUpdates(pos);
+            assertEquals("Updates at " + pos + " with seed " + seed,
+                    serialUpdates == null ? 0 : serialUpdates.getCount(), parallelUpdates == null ? 0 : parallelUpdates.getCount());
+        }
+    }
+
+    @Test
+    public void testColumnUpdatesAppliedInOrder() {
+        TestWorld world = new TestWorld(0);
+        FirstLightSnapshot snapshot = new FirstLightSnapshot(world.provider, mock(World.class), REGION.asMutable());
+        Cube first = world.cubes.get(new CubePos(0, -3, 0));
+        Cube second = world.cubes.get(new CubePos(1, -3, 0));
+        snapshot.markCubeBlockColumnForUpdate(first, 3, 4);
+        snapshot.markCubeBlockColumnForUpdate(second, 20, 5);
+        snapshot.markCubeBlockColumnForUpdate(first, 1, 2);
+
+        ILightingManager lightingManager = mock(ILightingManager.class);
+        snapshot.apply(newTracker(), lightingManager);
+
+        InOrder order = inOrder(lightingManager);
+        order.verify(lightingManager).markCubeBlockColumnForUpdate(first, 3, 4);
+        order.verify(lightingManager).markCubeBlockColumnForUpdate(second, 20, 5);
+        order.verify(lightingManager).markCubeBlockColumnForUpdate(first, 1, 2);
+        order.verifyNoMoreInteractions();
+    }
+
+    private static LightUpdateTracker newTracker() {
+        return new LightUpdateTracker(() -> {
+            throw new AssertionError("Nothing should be sent");
+        });
+    }
+
+    /**
+     * Cubes filled with random blocks and light, the same for the same seed
+     */
+    private final class TestWorld {
+
+        private final Map<CubePos, Cube> cubes = new HashMap<>();
+        private final Map<CubePos, NibbleArray> skyLight = new HashMap<>();
+        private final Map<CubePos, Set<EnumFacing>> edges = new HashMap<>();
+        private final Map<CubePos, byte[]> blocks = new HashMap<>();
+        private final ICubeProviderInternal provider = mock(ICubeProviderInternal.class);
+
+        TestWorld(long seed) {
+            Random random = new Random(seed);
+            REGION.forEachPoint((x, y, z) -> addCube(new CubePos(x, y, z), random));
+            when(provider.getLoadedCube(anyInt(), anyInt(), anyInt())).thenAnswer(
+                    inv -> cubes.get(new CubePos((int) inv.getArguments()[0], (int) inv.getArguments()[1], (int) inv.getArguments()[2])));
+        }
+
+        private void addCube(CubePos pos, Random random) {
+            byte[] cubeBlocks = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE];
+            byte[] light = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE / 2];
+            for (int i = 0; i < cubeBlocks.length; i++) {
+                cubeBlocks[i] = (byte) random.nextInt(OPACITY.length);
+            }
+            if (pos.getY() == TOP_CUBE_Y) {
+                // lit from above
+                Arrays.fill(light, (byte) 0xFF);
+            } else {
+                random.nextBytes(light);
+            }
+            NibbleArray cubeLight = new NibbleArray(light);
+            Set<EnumFacing> cubeEdges = EnumSet.noneOf(EnumFacing.class);
+
+            ExtendedBlockStorage storage = mock(ExtendedBlockStorage.class);
+            when(storage.get(anyInt(), anyInt(), anyInt())).thenAnswer(inv -> states[cubeBlocks[index(inv.getArguments())]]);
+            when(storage.getSkyLight(anyInt(), anyInt(), anyInt())).thenAnswer(inv -> cubeLight.get(
+                    (int) inv.getArguments()[0], (int) inv.getArguments()[1], (int) inv.getArguments()[2]));
+            when(storage.getBlockLight(anyInt(), anyInt(), anyInt())).thenReturn(0);
+            when(storage.getSkyLight()).thenReturn(cubeLight);
+            doAnswer(inv -> {
+                cubeLight.set((int) inv.getArguments()[0], (int) inv.getArguments()[1], (int) inv.getArguments()[2],
+                        (int) inv.getArguments()[3]);
+                return null;
+            }).when(storage).setSkyLight(anyInt(), anyInt(), anyInt(), anyInt());
+
+            Cube cube = mock(Cube.class);
+            when(cube.getCoords()).thenReturn(pos);
+            when(cube.getX()).thenReturn(pos.getX());
+            when(cube.getY()).thenReturn(pos.getY());
+            when(cube.getZ()).thenReturn(pos.getZ());
+            when(cube.getStorage()).thenReturn(storage);
+            when(cube.getLightFor(any(EnumSkyBlock.class), any(BlockPos.class))).thenAnswer(inv -> {
+                BlockPos blockPos = (BlockPos) inv.getArguments()[1];
+                return cubeLight.get(blockPos.getX() & 15, blockPos.getY() & 15, blockPos.getZ() & 15);
+            });
+            doAnswer(inv -> {
+                cubeEdges.add((EnumFacing) inv.getArguments()[0]);
+                return null;
+            }).when(cube).markEdgeNeedSkyLightUpdate(any(EnumFacing.class));
+
+            cubes.put(pos, cube);
+            skyLight.put(pos, cubeLight);
+            edges.put(pos, cubeEdges);
+            blocks.put(pos, cubeBlocks);
+        }
+
+        /**
+         * @return all blocks in the cube that aren't opaque, the same positions diffusion would update for a cube under the surface
+         */
+        List<BlockPos> toUpdate(CubePos pos) {
+            byte[] cubeBlocks = blocks.get(pos);
+            List<BlockPos> toUpdate = new ArrayList<>();
+            for (BlockPos blockPos : BlockPos.getAllInBox(pos.getMinBlockPos(), pos.getMaxBlockPos())) {
+                int index = (blockPos.getY() & 15) << 8 | (blockPos.getZ() & 15) << 4 | blockPos.getX() & 15;
+                if (OPACITY[cubeBlocks[index]] < 15) {
+                    toUpdate.add(blockPos);
+                }
+            }
+            return toUpdate;
+        }
+
+        private int index(Object[] localPos) {
+            return (int) localPos[1] << 8 | (int) localPos[2] << 4 | (int) localPos[0];
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeSkyLightUpdates;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.NibbleArray;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestLightUpdateTracker {
+
+    private static LightUpdateTracker newTracker() {
+        return new LightUpdateTracker(() -> {
+            throw new AssertionError("Nothing should be sent");
+        });
+    }
+
+    @Test
+    public void testSamePositionCountedOnce() {
+        LightUpdateTracker tracker = newTracker();
+        tracker.onUpdate(new BlockPos(1, 2, 3));
+        tracker.onUpdate(new BlockPos(1, 2, 3));
+        tracker.onUpdate(new BlockPos(1, 2, 4));
+        // another cube in between, so that the cached last cube changes
+        tracker.onUpdate(new BlockPos(-1, -1, -1));
+        tracker.onUpdate(new BlockPos(1, 2, 3));
+        tracker.onUpdate(new BlockPos(-16, -16, -16));
+        tracker.onUpdate(new BlockPos(-1, -1, -1));
+
+        assertEquals(2, tracker.getUpdates(new CubePos(0, 0, 0)).getCount());
+        assertEquals(2, tracker.getUpdates(new CubePos(-1, -1, -1)).getCount());
+        assertNull(tracker.getUpdates(new CubePos(1, 0, 0)));
+
+        tracker.discard(new CubePos(0, 0, 0));
+        assertNull(tracker.getUpdates(new CubePos(0, 0, 0)));
+        tracker.onUpdate(new BlockPos(1, 2, 3));
+        assertEquals(1, tracker.getUpdates(new CubePos(0, 0, 0)).getCount());
+    }
+
+    @Test
+    public void testPartialUpdateUpToLimit() {
+        NibbleArray skyLight = randomLight(new Random(1));
+        LightUpdateTracker.CubeUpdates updates = updates(LightUpdateTracker.MAX_PARTIAL_UPDATES, new Random(2));
+
+        PacketCubeSkyLightUpdates.Entry entry = LightUpdateTracker.createEntry(updates, skyLight);
+        assertFalse(entry.isFullRelight());
+        assertEquals(LightUpdateTracker.MAX_PARTIAL_UPDATES, entry.updateCount());
+        assertEquals(LightUpdateTracker.MAX_PARTIAL_UPDATES * 2, updates.getPacketBytes());
+
+        // each update is x | y << 4, z | value << 4
+        byte[] data = entry.getData();
+        for (int i = 0; i < entry.updateCount(); i++) {
+            int x = data[i * 2] & 0xF;
+            int y = data[i * 2] >> 4 & 0xF;
+            int z = data[i * 2 + 1] & 0xF;
+            int value = data[i * 2 + 1] >> 4 & 0xF;
+            assertEquals(skyLight.get(x, y, z), value);
+        }
+    }
+
+    @Test
+    public void testFullRelightAboveLimit() {
+        NibbleArray skyLight = randomLight(new Random(3));
+        LightUpdateTracker.CubeUpdates updates = updates(LightUpdateTracker.MAX_PARTIAL_UPDATES + 1, new Random(4));
+
+        PacketCubeSkyLightUpdates.Entry entry = LightUpdateTracker.createEntry(updates, skyLight);
+        assertTrue(entry.isFullRelight());
+        assertArrayEquals(skyLight.getData(), entry.getData());
+        assertEquals(PacketCubeSkyLightUpdates.FULL_RELIGHT_BYTES, updates.getPacketBytes());
+        // the entry has its own copy
+        assertNotSame(skyLight.getData(), entry.getData());
+    }
+
+    @Test
+    public void testNoStorage() {
+        PacketCubeSkyLightUpdates.Entry entry = LightUpdateTracker.createEntry(updates(3, new Random(5)), null);
+        assertTrue(entry.isFullRelight());
+        assertNull(entry.getData());
+    }
+
+    @Test
+    public void testOnePacketPerPlayer() {
+        List<String> players = new ArrayList<>();
+        List<PacketCubeSkyLightUpdates> packets = new ArrayList<>();
+        LightUpdateTracker.PlayerPackets<String> playerPackets = new LightUpdateTracker.PlayerPackets<>((player, packet) -> {
+            players.add(player);
+            packets.add(packet);
+        });
+        List<PacketCubeSkyLightUpdates.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            PacketCubeSkyLightUpdates.Entry entry = fullEntry(i);
+            entries.add(entry);
+            playerPackets.add("a", entry, 100);
+            if (i % 2 == 0) {
+                playerPackets.add("b", entry, 100);
+            }
+        }
+        assertTrue(packets.isEmpty());
+        playerPackets.sendAll();
+
+        assertEquals(2, packets.size());
+        int a = players.indexOf("a");
+        int b = players.indexOf("b");
+        assertEquals(entries, packets.get(a).getEntries());
+        assertEquals(5, packets.get(b).getEntries().size());
+        assertEquals(entries.get(8), packets.get(b).getEntries().get(4));
+
+        // nothing is left for the next tick
+        packets.clear();
+        playerPackets.sendAll();
+        assertTrue(packets.isEmpty());
+    }
+
+    @Test
+    public void testSplitAboveMaxPacketSize() {
+        List<PacketCubeSkyLightUpdates> packets = new ArrayList<>();
+        LightUpdateTracker.PlayerPackets<String> playerPackets =
+                new LightUpdateTracker.PlayerPackets<>((player, packet) -> packets.add(packet));
+        int bytes = PacketCubeSkyLightUpdates.FULL_RELIGHT_BYTES;
+        int perPacket = LightUpdateTracker.MAX_PACKET_BYTES / bytes;
+        int count = perPacket * 2 + 7;
+        List<PacketCubeSkyLightUpdates.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            PacketCubeSkyLightUpdates.Entry entry = fullEntry(i);
+            entries.add(entry);
+            playerPackets.add("a", entry, bytes);
+        }
+        // full packets are sent as soon as they are full
+        assertEquals(2, packets.size());
+        playerPackets.sendAll();
+
+        assertEquals(3, packets.size());
+        assertEquals(perPacket, packets.get(0).getEntries().size());
+        assertEquals(perPacket, packets.get(1).getEntries().size());
+        assertEquals(7, packets.get(2).getEntries().size());
+        List<PacketCubeSkyLightUpdates.Entry> sent = new ArrayList<>();
+        packets.forEach(packet -> sent.addAll(packet.getEntries()));
+        assertEquals(entries, sent);
+    }
+
+    @Test
+    public void testEntryBiggerThanMaxPacketSize() {
+        List<PacketCubeSkyLightUpdates> packets = new ArrayList<>();
+        LightUpdateTracker.PlayerPackets<String> playerPackets =
+                new LightUpdateTracker.PlayerPackets<>((player, packet) -> packets.add(packet));
+        // an entry is never split, and never sent in an empty packet
+        playerPackets.add("a", fullEntry(0), LightUpdateTracker.MAX_PACKET_BYTES * 2);
+        playerPackets.add("a", fullEntry(1), 1);
+        playerPackets.sendAll();
+
+        assertEquals(2, packets.size());
+        assertEquals(1, packets.get(0).getEntries().size());
+        assertEquals(1, packets.get(1).getEntries().size());
+    }
+
+    private static PacketCubeSkyLightUpdates.Entry fullEntry(int i) {
+        return PacketCubeSkyLightUpdates.Entry.fullRelight(new CubePos(i, 0, 0), new NibbleArray());
+    }
+
+    private static LightUpdateTracker.CubeUpdates updates(int count, Random random) {
+        LightUpdateTracker.CubeUpdates updates = new LightUpdateTracker.CubeUpdates(new CubePos(0, 0, 0));
+        while (updates.getCount() < count) {
+            updates.add(random.nextInt(16), random.nextInt(16), random.nextInt(16));
+        }
+        return updates;
+    }
+
+    private static NibbleArray randomLight(Random random) {
+        byte[] data = new byte[PacketCubeSkyLightUpdates.FULL_RELIGHT_BYTES];
+        random.nextBytes(data);
+        return new NibbleArray(data);
+    }
+}